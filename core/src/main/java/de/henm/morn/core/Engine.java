@@ -0,0 +1,39 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core;
+
+/**
+ * The engines a {@link KnowledgeBase} can answer queries with.
+ *
+ * @author henm
+ */
+public enum Engine {
+
+    /**
+     * Resolution on the clauses as they were added (default).
+     */
+    RESOLUTION,
+
+    /**
+     * Clauses compiled to instructions of the Warren Abstract Machine.
+     */
+    WAM,
+
+    /**
+     * Bottom-up evaluation of function-free programs, see
+     * {@link de.henm.morn.core.datalog.DatalogProgram}.
+     */
+    DATALOG
+}
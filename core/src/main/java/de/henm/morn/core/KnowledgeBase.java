@@ -14,25 +14,223 @@
  */
 package de.henm.morn.core;
 
-import java.util.ArrayList;
-import java.util.List;
-
+import de.henm.morn.core.datalog.DatalogProgram;
 import de.henm.morn.core.model.Clause;
 import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Functor;
 import de.henm.morn.core.model.Rule;
 import de.henm.morn.core.model.Term;
+import de.henm.morn.core.reasoner.Answer;
+import de.henm.morn.core.reasoner.AnswerCache;
+import de.henm.morn.core.reasoner.PredicateKey;
+import de.henm.morn.core.reasoner.PredicateTable;
 import de.henm.morn.core.reasoner.Reasoner;
+import de.henm.morn.core.wam.WamProgram;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * 
+ * A knowledge base of facts and rules answering queries with one of the
+ * {@link Engine engines}.
+ * <p>
+ * Knowledge bases are thread-safe. Changes are serialized, while queries of
+ * the resolution engine run without locks on a snapshot of the clauses taken
+ * when the query starts: they neither see nor block changes made while their
+ * answers are consumed, so any number of them can run in parallel. Queries
+ * of the WAM engine take the lock for every answer, the Datalog engine
+ * collects the answers under the lock.
+ *
  * @author henm
  */
 public class KnowledgeBase {
 
-    private final List<Clause> clauses;
+    /**
+     * Runs asynchronous queries: a virtual thread per query if the runtime
+     * supports them, otherwise a pool of daemon threads.
+     */
+    private static final Executor ASYNC_EXECUTOR = asyncExecutor();
+
+    private final PredicateTable clauses;
+    private volatile Engine engine;
+    /**
+     * Only compiled once the WAM engine is used.
+     */
+    private WamProgram wamProgram;
+    /**
+     * Only built once the Datalog engine is used and dropped as soon as a
+     * clause is added which is no Datalog clause.
+     */
+    private DatalogProgram datalogProgram;
+    private boolean magicSets;
+    /**
+     * Only used once answers are to be cached.
+     */
+    private volatile AnswerCache answerCache;
+    private volatile ForkJoinPool pool;
+    private volatile boolean independentGoals;
 
     public KnowledgeBase() {
-        this.clauses = new ArrayList<>();
+        this.clauses = new PredicateTable();
+        this.engine = Engine.RESOLUTION;
+    }
+
+    /**
+     * Choose the engine answering the queries.
+     *
+     * @param engine The engine to use.
+     * @return This KnowledgeBase for builder pattern.
+     * @throws IllegalArgumentException Thrown if the Datalog engine is chosen
+     *                                  but the clauses are no Datalog program.
+     */
+    public synchronized KnowledgeBase useEngine(Engine engine) {
+        if (engine == Engine.WAM && wamProgram == null) {
+            this.wamProgram = new WamProgram(clauses.getClauses());
+        }
+        if (engine == Engine.DATALOG && datalogProgram == null) {
+            this.datalogProgram = new DatalogProgram(clauses.getClauses());
+            this.datalogProgram.useMagicSets(magicSets);
+        }
+        if (answerCache != null && engine != this.engine) {
+            // Engines might yield the answers in different orders
+            answerCache.clear();
+        }
+        this.engine = engine;
+        return this;
+    }
+
+    /**
+     * Let the Datalog engine answer queries with bound arguments goal-directed,
+     * e.g. ancestor(terach, X) only derives the descendants of terach instead
+     * of all ancestors.
+     *
+     * @param enabled True to rewrite queries with magic sets.
+     * @return This KnowledgeBase for builder pattern.
+     */
+    public synchronized KnowledgeBase useMagicSets(boolean enabled) {
+        this.magicSets = enabled;
+        if (datalogProgram != null) {
+            datalogProgram.useMagicSets(enabled);
+        }
+        return this;
+    }
+
+    /**
+     * Let the resolution engine search in parallel. When only the first
+     * answer is asked for, i.e. by {@link #query(Term)}, the alternative rules
+     * of a query are tried in parallel and the first one to succeed stops the
+     * others; this is skipped if answers are cached. Nothing is searched in
+     * parallel as long as predicates are tabled.
+     *
+     * @param pool The pool to search with or null to search sequentially.
+     * @return This KnowledgeBase for builder pattern.
+     */
+    public KnowledgeBase searchInParallel(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Let the resolution engine prove goals of rule bodies which share no
+     * unbound variables, like credit_ok(X) and address_ok(X) once X is bound,
+     * in parallel on the pool given to {@link #searchInParallel(ForkJoinPool)}.
+     * Answers are the same as with the sequential search.
+     *
+     * @param enabled True to prove independent goals in parallel.
+     * @return This KnowledgeBase for builder pattern.
+     */
+    public KnowledgeBase proveIndependentGoalsInParallel(boolean enabled) {
+        this.independentGoals = enabled;
+        return this;
+    }
+
+    /**
+     * Table a predicate: every variant of a call is evaluated only once and
+     * its answers are reused, which makes left-recursive and cyclic
+     * definitions like path(X, Y) :- path(X, Z), edge(Z, Y) terminate.
+     * Tabling is done by the resolution engine, which answers all queries as
+     * long as predicates are tabled.
+     *
+     * @param functor The functor of the predicate.
+     * @param arity   The number of arguments of the predicate.
+     * @return This KnowledgeBase for builder pattern.
+     */
+    public synchronized KnowledgeBase table(Functor functor, int arity) {
+        this.clauses.table(PredicateKey.of(functor, arity));
+        if (answerCache != null) {
+            answerCache.clear();
+        }
+        return this;
+    }
+
+    /**
+     * Cache the answers of queries. Queries which are equal up to the names of
+     * their variables share their answers, which are computed lazily as they
+     * are consumed. Adding or removing a fact or a rule only invalidates the
+     * answers of queries which might depend on its predicate.
+     *
+     * @param maximumSize The maximum number of queries to cache, the least
+     *                    recently used one is evicted first.
+     * @return This KnowledgeBase for builder pattern.
+     * @throws IllegalArgumentException Thrown if the size is not positive.
+     */
+    public synchronized KnowledgeBase cacheAnswers(int maximumSize) {
+        this.answerCache = new AnswerCache(clauses, maximumSize);
+        return this;
+    }
+
+    /**
+     * @return The answer cache with its statistics, if answers are cached.
+     */
+    public Optional<AnswerCache> getAnswerCache() {
+        return Optional.ofNullable(answerCache);
+    }
+
+    private synchronized void add(Clause clause) {
+        if (datalogProgram != null) {
+            try {
+                datalogProgram.add(clause);
+            } catch (IllegalArgumentException e) {
+                if (engine == Engine.DATALOG) {
+                    throw e;
+                }
+                this.datalogProgram = null;
+            }
+        }
+        this.clauses.add(clause);
+        if (wamProgram != null) {
+            wamProgram.add(clause);
+        }
+        if (answerCache != null) {
+            answerCache.invalidate(PredicateKey.of(clause.getHead()));
+        }
+    }
+
+    private synchronized void remove(Clause clause) {
+        if (this.clauses.remove(clause)) {
+            if (datalogProgram != null) {
+                datalogProgram.remove(clause);
+            }
+            if (wamProgram != null) {
+                wamProgram.remove(clause);
+            }
+            if (answerCache != null) {
+                answerCache.invalidate(PredicateKey.of(clause.getHead()));
+            }
+        }
     }
 
     /**
@@ -40,7 +238,7 @@ public class KnowledgeBase {
      * @return This KnowledgeBase for builder pattern.
      */
     public KnowledgeBase addFact(Fact fact) {
-        this.clauses.add(fact);
+        this.add(fact);
         return this;
     }
 
@@ -49,7 +247,7 @@ public class KnowledgeBase {
      * @return This KnowledgeBase for builder pattern.
      */
     public KnowledgeBase addFact(Term term) {
-        this.clauses.add(new Fact(term));
+        this.add(new Fact(term));
         return this;
     }
 
@@ -64,6 +262,31 @@ public class KnowledgeBase {
         return this;
     }
 
+    /**
+     * Remove a fact. The relations derived by the Datalog engine are
+     * maintained incrementally, so this costs time in the number of derived
+     * rows affected by the fact instead of the size of the knowledge base.
+     * Facts are added incrementally as well.
+     *
+     * @param fact The fact to remove, nothing happens if it is not contained.
+     *             If the fact was added more than once, only one occurrence
+     *             is removed by every engine.
+     * @return This KnowledgeBase for builder pattern.
+     */
+    public KnowledgeBase removeFact(Fact fact) {
+        this.remove(fact);
+        return this;
+    }
+
+    /**
+     * @param term A term which is to be removed as a fact.
+     * @return This KnowledgeBase for builder pattern.
+     */
+    public KnowledgeBase removeFact(Term term) {
+        this.remove(new Fact(term));
+        return this;
+    }
+
     /**
      * Add a rule to the knowledge base.
      * 
@@ -72,7 +295,7 @@ public class KnowledgeBase {
      * @return This KnowledgeBase for builder pattern.
      */
     public KnowledgeBase addRule(Term head, Term... body) {
-        this.clauses.add(new Rule(head, body));
+        this.add(new Rule(head, body));
         return this;
     }
 
@@ -83,7 +306,7 @@ public class KnowledgeBase {
      * @return This KnowledgeBase for builder pattern.
      */
     public KnowledgeBase addRule(Rule rule) {
-        this.clauses.add(rule);
+        this.add(rule);
         return this;
     }
 
@@ -94,7 +317,178 @@ public class KnowledgeBase {
      * @return True iff term is true in this KnowledgeBase.
      */
     public boolean query(Term term) {
-        final Reasoner reasoner = new Reasoner(this.clauses);
-        return reasoner.query(term).isPresent();
+        final AnswerCache answerCache = this.answerCache;
+        if (answerCache != null) {
+            return answerCache.answers(term, t -> evaluate(t).iterator()).findFirst().isPresent();
+        } else if (engine == Engine.RESOLUTION) {
+            return reasoner().query(term).isPresent();
+        }
+        synchronized (this) {
+            if (usesWam()) {
+                return wamProgram.query(term);
+            } else if (engine == Engine.DATALOG) {
+                return datalogProgram.query(term);
+            }
+            return reasoner().query(term).isPresent();
+        }
+    }
+
+    /**
+     * Query a batch of goals as one unit, e.g. hundreds of ground goals of a
+     * request. The resolution engine answers all goals on the same snapshot
+     * of the clauses, only queries equal goals once, reuses ground subgoals
+     * proven for one goal for the others and, given a pool (see
+     * {@link #searchInParallel(ForkJoinPool)}), spreads the batch over the
+     * pool. Other engines and cached answers query one goal after another.
+     *
+     * @param goals The goals to query.
+     * @return Bit i is set iff the i-th goal in the iteration order of the
+     * collection is true in this KnowledgeBase.
+     */
+    public BitSet queryAll(Collection<Term> goals) {
+        final List<Term> terms = new ArrayList<>(goals);
+        if (answerCache == null && engine == Engine.RESOLUTION) {
+            return reasoner().queryAll(terms);
+        }
+        final BitSet result = new BitSet(terms.size());
+        for (int i = 0; i < terms.size(); i++) {
+            if (query(terms.get(i))) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Query this KnowledgeBase asynchronously on a virtual thread, if the
+     * runtime supports them. Queries of the resolution engine stop promptly
+     * when the future is cancelled, queries of the other engines run to the
+     * end.
+     *
+     * @param term The term to query.
+     * @return The future telling whether the term is true in this
+     * KnowledgeBase.
+     */
+    public CompletableFuture<Boolean> queryAsync(Term term) {
+        return queryAsync(term, ASYNC_EXECUTOR);
+    }
+
+    /**
+     * Query this KnowledgeBase asynchronously.
+     *
+     * @param term     The term to query.
+     * @param executor The executor to run the query with.
+     * @return The future telling whether the term is true in this
+     * KnowledgeBase.
+     * @see #queryAsync(Term)
+     */
+    public CompletableFuture<Boolean> queryAsync(Term term, Executor executor) {
+        if (answerCache == null && engine == Engine.RESOLUTION) {
+            final CompletableFuture<? extends Optional<?>> future = reasoner().queryAsync(term, executor);
+            return cancellable(future, future.thenApply(Optional::isPresent));
+        }
+        return CompletableFuture.supplyAsync(() -> query(term), executor);
+    }
+
+    /**
+     * Query all answers of a term asynchronously on a virtual thread, if the
+     * runtime supports them.
+     *
+     * @param term The term to query.
+     * @return The future of all answers.
+     * @see #queryAsync(Term)
+     */
+    public CompletableFuture<List<Answer>> answersAsync(Term term) {
+        if (answerCache == null && engine == Engine.RESOLUTION) {
+            return reasoner().answersAsync(term, ASYNC_EXECUTOR);
+        }
+        return CompletableFuture.supplyAsync(() -> answers(term).collect(Collectors.toList()), ASYNC_EXECUTOR);
+    }
+
+    /**
+     * @return A future of the result which cancels the search when it is
+     * cancelled.
+     */
+    private static <T> CompletableFuture<T> cancellable(CompletableFuture<?> search, CompletableFuture<T> result) {
+        result.whenComplete((value, throwable) -> {
+            if (result.isCancelled()) {
+                search.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Query all answers of a term.
+     *
+     * @param term The term to query.
+     * @return A lazy stream of the answers, i.e. the values of the variables
+     * of the term for every proof. Only as many answers as are consumed are
+     * computed.
+     */
+    public Stream<Answer> answers(Term term) {
+        final AnswerCache answerCache = this.answerCache;
+        if (answerCache != null) {
+            return answerCache.answers(term, t -> evaluate(t).iterator());
+        }
+        return evaluate(term);
+    }
+
+    private Stream<Answer> evaluate(Term term) {
+        if (engine == Engine.RESOLUTION) {
+            return reasoner().answers(term);
+        }
+        synchronized (this) {
+            if (usesWam()) {
+                final Stream<Answer> stream = wamProgram.answers(term);
+                final Iterator<Answer> answers = stream.iterator();
+                return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new Iterator<Answer>() {
+                    @Override
+                    public boolean hasNext() {
+                        synchronized (KnowledgeBase.this) {
+                            return answers.hasNext();
+                        }
+                    }
+
+                    @Override
+                    public Answer next() {
+                        synchronized (KnowledgeBase.this) {
+                            return answers.next();
+                        }
+                    }
+                }, Spliterator.ORDERED), false).onClose(stream::close);
+            } else if (engine == Engine.DATALOG) {
+                // The relations change when facts are added
+                return datalogProgram.answers(term).collect(Collectors.toList()).stream();
+            }
+            return reasoner().answers(term);
+        }
+    }
+
+    /**
+     * @return A reasoner on a snapshot of the clauses.
+     */
+    private Reasoner reasoner() {
+        final Reasoner reasoner = new Reasoner(clauses.snapshot());
+        reasoner.searchInParallel(pool);
+        reasoner.proveIndependentGoalsInParallel(independentGoals);
+        return reasoner;
+    }
+
+    private static Executor asyncExecutor() {
+        try {
+            // Java 21 and later
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                final Thread thread = new Thread(runnable, "morn-query");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private boolean usesWam() {
+        return engine == Engine.WAM && !clauses.hasTabledPredicates();
     }
 }
\ No newline at end of file
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.datalog;
+
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.Constant;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+import de.henm.morn.core.reasoner.PredicateKey;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An atom of a Datalog clause: a predicate whose arguments are variables or
+ * values. Variables are numbered per clause.
+ *
+ * @author henm
+ */
+final class Atom {
+
+    private final PredicateKey predicate;
+    /**
+     * The value of each argument or null if the argument is a variable.
+     */
+    private final Term[] constants;
+    /**
+     * The number of the variable of each argument or -1 if the argument is a
+     * value.
+     */
+    private final int[] variables;
+
+    private Atom(PredicateKey predicate, Term[] constants, int[] variables) {
+        this.predicate = predicate;
+        this.constants = constants;
+        this.variables = variables;
+    }
+
+    /**
+     * @param term      The term to compile.
+     * @param variables The numbers of the variables of the clause, new
+     *                  variables are added.
+     * @param values    The interned values.
+     * @throws IllegalArgumentException Thrown if the term is neither a
+     *                                  constant nor a compound term whose
+     *                                  arguments are variables or values.
+     */
+    static Atom compile(Term term, Map<Variable, Integer> variables, Values values) {
+        if (term instanceof Constant) {
+            return new Atom(PredicateKey.of((Constant) term), new Term[0], new int[0]);
+        } else if (!(term instanceof CompoundTerm)) {
+            throw new IllegalArgumentException(String.format("%s is not a Datalog atom", term));
+        }
+
+        final List<Term> arguments = ((CompoundTerm) term).getArguments();
+        final Term[] constants = new Term[arguments.size()];
+        final int[] variableNumbers = new int[arguments.size()];
+        for (int i = 0; i < arguments.size(); i++) {
+            final Term argument = arguments.get(i);
+            if (argument instanceof Variable) {
+                variableNumbers[i] = variables.computeIfAbsent((Variable) argument, v -> variables.size());
+            } else {
+                constants[i] = values.intern(argument);
+                variableNumbers[i] = -1;
+                if (constants[i] == null) {
+                    throw new IllegalArgumentException(String.format("%s is not a Datalog atom", term));
+                }
+            }
+        }
+        return new Atom(PredicateKey.of(term), constants, variableNumbers);
+    }
+
+    PredicateKey getPredicate() {
+        return predicate;
+    }
+
+    int getArity() {
+        return constants.length;
+    }
+
+    /**
+     * @return The value of the argument or null if it is a variable.
+     */
+    Term getConstant(int position) {
+        return constants[position];
+    }
+
+    /**
+     * @return The number of the variable of the argument or -1 if it is a
+     * value.
+     */
+    int getVariable(int position) {
+        return variables[position];
+    }
+
+    /**
+     * @param binding The values of the variables.
+     * @return The row of this atom with its variables replaced by their values.
+     */
+    Row instantiate(Term[] binding) {
+        final Term[] row = new Term[constants.length];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = variables[i] < 0 ? constants[i] : binding[variables[i]];
+        }
+        return new Row(row);
+    }
+
+    @Override
+    public String toString() {
+        return predicate.toString();
+    }
+}
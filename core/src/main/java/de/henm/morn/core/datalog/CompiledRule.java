@@ -0,0 +1,374 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.datalog;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.PredicateTerm;
+import de.henm.morn.core.model.Rule;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A Datalog rule compiled into join plans.
+ * <p>
+ * The atoms of the body are joined one after the other, each lookup using the
+ * index of its relation on the positions bound by values or by the atoms
+ * joined before. There is one plan per atom of the body which starts with this
+ * atom: semi-naive evaluation joins the delta relation of one atom first and
+ * the complete relations of all other atoms in the order of the body.
+ * Predicate terms of the body are tested as soon as their variables are bound.
+ *
+ * @author henm
+ */
+final class CompiledRule {
+
+    private final Clause clause;
+    private final Atom head;
+    private final Atom[] body;
+    private final int numberOfVariables;
+    private final Plan[] plans;
+    /**
+     * The rule with its head prepended to the body, null for such a rule.
+     */
+    private CompiledRule rederivation;
+
+    private CompiledRule(Clause clause, Atom head, Atom[] body, List<Filter> filters, int numberOfVariables) {
+        this.clause = clause;
+        this.head = head;
+        this.body = body;
+        this.numberOfVariables = numberOfVariables;
+        this.plans = new Plan[Math.max(1, body.length)];
+        for (int first = 0; first < plans.length; first++) {
+            plans[first] = new Plan(first, filters);
+        }
+    }
+
+    /**
+     * @param clause The clause to compile.
+     * @param values The interned values.
+     * @throws IllegalArgumentException Thrown if the clause is no Datalog
+     *                                  clause or a variable of its head or of
+     *                                  a predicate term does not occur in an
+     *                                  atom of its body.
+     */
+    static CompiledRule compile(Clause clause, Values values) {
+        final CompiledRule rule = compileClause(clause, values);
+        final List<Term> body = new ArrayList<>();
+        body.add(clause.getHead());
+        body.addAll(clause.getBody());
+        rule.rederivation = compileClause(new Rule(clause.getHead(), body), values);
+        return rule;
+    }
+
+    private static CompiledRule compileClause(Clause clause, Values values) {
+        final Map<Variable, Integer> variables = new HashMap<>();
+        final Atom head = Atom.compile(clause.getHead(), variables, values);
+        final List<Atom> body = new ArrayList<>();
+        final List<Filter> filters = new ArrayList<>();
+        final BitSet boundVariables = new BitSet();
+
+        for (Term term : clause.getBody()) {
+            if (term instanceof PredicateTerm) {
+                final PredicateTerm predicateTerm = (PredicateTerm) term;
+                filters.add(new Filter(predicateTerm,
+                        Operand.compile(predicateTerm.getT1(), variables, values),
+                        Operand.compile(predicateTerm.getT2(), variables, values)));
+            } else {
+                final Atom atom = Atom.compile(term, variables, values);
+                for (int i = 0; i < atom.getArity(); i++) {
+                    if (atom.getVariable(i) >= 0) {
+                        boundVariables.set(atom.getVariable(i));
+                    }
+                }
+                body.add(atom);
+            }
+        }
+
+        if (boundVariables.cardinality() != variables.size()) {
+            throw new IllegalArgumentException(String.format("Clause %s is not range restricted", clause));
+        }
+        return new CompiledRule(clause, head, body.toArray(new Atom[0]), filters, variables.size());
+    }
+
+    Clause getClause() {
+        return clause;
+    }
+
+    Atom getHead() {
+        return head;
+    }
+
+    Atom[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return The rule with its head prepended to the body. Joining the rows
+     * of the head first, it derives those rows of the head which still have a
+     * derivation by this rule.
+     */
+    CompiledRule getRederivation() {
+        return rederivation;
+    }
+
+    /**
+     * Derive the rows of the head.
+     *
+     * @param first     The atom of the body to join first.
+     * @param relations The relation to join for each atom of the body.
+     * @param derived   Receives every derived row, possibly more than once.
+     */
+    void evaluate(int first, Relation[] relations, Consumer<Row> derived) {
+        join(plans[first], 0, relations, new Term[numberOfVariables], derived);
+    }
+
+    /**
+     * @param first The atom of the body joined first.
+     * @return The positions of the atom joined first whose variables are
+     * looked up in the atoms joined later, bit i standing for position i.
+     */
+    int getJoinMask(int first) {
+        return plans[first].joinMask;
+    }
+
+    /**
+     * Build all indexes the evaluation starting with the given atom uses, so
+     * that evaluations might run concurrently.
+     *
+     * @param first     The atom of the body to join first.
+     * @param relations The relation to join for each atom of the body, the
+     *                  one of the first atom is only indexed if it is given.
+     */
+    void buildIndexes(int first, Relation[] relations) {
+        final Plan plan = plans[first];
+        for (int step = 0; step < plan.order.length; step++) {
+            final Relation relation = relations[plan.order[step]];
+            if (relation != null) {
+                relation.index(plan.masks[step]);
+            }
+        }
+    }
+
+    private void join(Plan plan, int step, Relation[] relations, Term[] binding, Consumer<Row> derived) {
+        for (Filter filter : plan.filters[step]) {
+            if (!filter.test(binding)) {
+                return;
+            }
+        }
+        if (step == plan.order.length) {
+            derived.accept(head.instantiate(binding));
+            return;
+        }
+
+        final Atom atom = body[plan.order[step]];
+        final int[] keyPositions = plan.keyPositions[step];
+        final Term[] key = new Term[keyPositions.length];
+        for (int i = 0; i < key.length; i++) {
+            final int variable = atom.getVariable(keyPositions[i]);
+            key[i] = variable < 0 ? atom.getConstant(keyPositions[i]) : binding[variable];
+        }
+
+        for (Row row : relations[plan.order[step]].lookup(plan.masks[step], new Row(key))) {
+            if (plan.bind(step, atom, row, binding)) {
+                join(plan, step + 1, relations, binding, derived);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return clause.toString();
+    }
+
+    private final class Plan {
+        private final int[] order;
+        private final int[] masks;
+        /**
+         * The positions of each step which are bound before, in the order of
+         * the lookup key.
+         */
+        private final int[][] keyPositions;
+        /**
+         * The positions of each step which bind a variable for the first time.
+         */
+        private final int[][] bindPositions;
+        /**
+         * The positions of each step whose variable is bound by an earlier
+         * position of the same atom.
+         */
+        private final int[][] checkPositions;
+        /**
+         * The filters to test before each step and before the head is built.
+         */
+        private final Filter[][] filters;
+        private final int joinMask;
+
+        private Plan(int first, List<Filter> allFilters) {
+            this.order = new int[body.length];
+            for (int step = 0, i = 0; i < body.length; i++) {
+                if (i != first) {
+                    order[++step] = i;
+                }
+            }
+            if (body.length > 0) {
+                order[0] = first;
+            }
+            this.masks = new int[body.length];
+            this.keyPositions = new int[body.length][];
+            this.bindPositions = new int[body.length][];
+            this.checkPositions = new int[body.length][];
+
+            final int[] boundAt = new int[numberOfVariables];
+            Arrays.fill(boundAt, -1);
+            for (int step = 0; step < order.length; step++) {
+                final Atom atom = body[order[step]];
+                final List<Integer> key = new ArrayList<>();
+                final List<Integer> bind = new ArrayList<>();
+                final List<Integer> check = new ArrayList<>();
+                for (int position = 0; position < atom.getArity(); position++) {
+                    final int variable = atom.getVariable(position);
+                    if (variable < 0 || (boundAt[variable] >= 0 && boundAt[variable] < step)) {
+                        masks[step] |= 1 << position;
+                        key.add(position);
+                    } else if (boundAt[variable] == step) {
+                        check.add(position);
+                    } else {
+                        boundAt[variable] = step;
+                        bind.add(position);
+                    }
+                }
+                keyPositions[step] = toArray(key);
+                bindPositions[step] = toArray(bind);
+                checkPositions[step] = toArray(check);
+            }
+
+            int joinMask = 0;
+            if (order.length > 0) {
+                final Atom firstAtom = body[order[0]];
+                for (int position = 0; position < firstAtom.getArity(); position++) {
+                    final int variable = firstAtom.getVariable(position);
+                    if (variable >= 0 && isLookedUpAfterFirstStep(variable)) {
+                        joinMask |= 1 << position;
+                    }
+                }
+            }
+            this.joinMask = joinMask;
+
+            final List<List<Filter>> filtersPerStep = new ArrayList<>();
+            for (int step = 0; step <= order.length; step++) {
+                filtersPerStep.add(new ArrayList<>());
+            }
+            for (Filter filter : allFilters) {
+                filtersPerStep.get(Math.max(filter.stepAfter(filter.operand1, boundAt),
+                        filter.stepAfter(filter.operand2, boundAt))).add(filter);
+            }
+            this.filters = new Filter[order.length + 1][];
+            for (int step = 0; step <= order.length; step++) {
+                filters[step] = filtersPerStep.get(step).toArray(new Filter[0]);
+            }
+        }
+
+        private boolean isLookedUpAfterFirstStep(int variable) {
+            for (int step = 1; step < order.length; step++) {
+                final Atom atom = body[order[step]];
+                for (int position : keyPositions[step]) {
+                    if (atom.getVariable(position) == variable) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean bind(int step, Atom atom, Row row, Term[] binding) {
+            for (int position : bindPositions[step]) {
+                binding[atom.getVariable(position)] = row.get(position);
+            }
+            for (int position : checkPositions[step]) {
+                if (binding[atom.getVariable(position)] != row.get(position)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int[] toArray(List<Integer> list) {
+            return list.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * An argument of a predicate term: a variable or a value.
+     */
+    private static final class Operand {
+        private final Term value;
+        private final int variable;
+
+        private Operand(Term value, int variable) {
+            this.value = value;
+            this.variable = variable;
+        }
+
+        static Operand compile(Term term, Map<Variable, Integer> variables, Values values) {
+            if (term instanceof Variable) {
+                return new Operand(null, variables.computeIfAbsent((Variable) term, v -> variables.size()));
+            }
+            final Term value = values.intern(term);
+            if (value == null) {
+                throw new IllegalArgumentException(String.format("%s is not a Datalog value", term));
+            }
+            return new Operand(value, -1);
+        }
+
+        Term get(Term[] binding) {
+            return variable < 0 ? value : binding[variable];
+        }
+    }
+
+    private static final class Filter {
+        private final PredicateTerm predicateTerm;
+        private final Operand operand1;
+        private final Operand operand2;
+
+        private Filter(PredicateTerm predicateTerm, Operand operand1, Operand operand2) {
+            this.predicateTerm = predicateTerm;
+            this.operand1 = operand1;
+            this.operand2 = operand2;
+        }
+
+        /**
+         * @return The first step before which the operand is bound.
+         */
+        private int stepAfter(Operand operand, int[] boundAt) {
+            return operand.variable < 0 ? 0 : boundAt[operand.variable] + 1;
+        }
+
+        boolean test(Term[] binding) {
+            final Term t1 = operand1.get(binding);
+            final Term t2 = operand2.get(binding);
+            return t1 instanceof IntegerTerm && t2 instanceof IntegerTerm
+                    && predicateTerm.test(((IntegerTerm) t1).getValue(), ((IntegerTerm) t2).getValue());
+        }
+    }
+}
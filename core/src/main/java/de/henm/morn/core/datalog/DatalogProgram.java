@@ -0,0 +1,351 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.datalog;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+import de.henm.morn.core.reasoner.Answer;
+import de.henm.morn.core.reasoner.PredicateKey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * A Datalog program evaluated bottom-up.
+ * <p>
+ * All clauses have to be function-free: the arguments of atoms are variables,
+ * constants, integers or the empty list, and every variable of the head of a
+ * rule or of a predicate term occurs in an atom of the body. Before the next
+ * query all relations are derived by semi-naive evaluation (see
+ * {@link SemiNaiveEvaluation}) and queries are answered from the derived
+ * relations. Unlike resolution every answer is returned once, in the order
+ * the rows were derived. Once derived, the relations are maintained
+ * incrementally when facts are added or removed; adding or removing a rule
+ * derives them again before the next query.
+ * <p>
+ * With {@link #useMagicSets(boolean)} queries with bound arguments are
+ * evaluated on demand instead, deriving only rows relevant to the query.
+ * <p>
+ * The rounds of the evaluation might run on a {@link ForkJoinPool}, see
+ * {@link #evaluateInParallel(ForkJoinPool)}; the order of the rows derived
+ * in the same round is unspecified then. The time each round took is
+ * reported by {@link #getIterations()}.
+ *
+ * @author henm
+ */
+public class DatalogProgram {
+
+    private final Values values;
+    /**
+     * The rows of the facts in the order they were added, with the number of
+     * facts they were added by.
+     */
+    private final Map<PredicateKey, Map<Row, Integer>> facts;
+    private final List<CompiledRule> rules;
+    /**
+     * The derived relations or null if rules were added or removed since.
+     */
+    private Map<PredicateKey, Relation> relations;
+    /**
+     * The relations of the facts alone or null if they have not been needed
+     * yet.
+     */
+    private Map<PredicateKey, Relation> factRelations;
+    private List<Iteration> iterations;
+    private ForkJoinPool pool;
+    private boolean magicSets;
+
+    public DatalogProgram() {
+        this.values = new Values();
+        this.facts = new LinkedHashMap<>();
+        this.rules = new ArrayList<>();
+        this.iterations = Collections.emptyList();
+    }
+
+    public DatalogProgram(List<Clause> clauses) {
+        this();
+        clauses.forEach(this::add);
+    }
+
+    /**
+     * @param clause The clause to add.
+     * @throws IllegalArgumentException Thrown if the clause is no Datalog
+     *                                  clause.
+     */
+    public void add(Clause clause) {
+        if (PredicateKey.of(clause.getHead()) == null) {
+            throw new IllegalArgumentException(String.format("Head of clause %s is not callable", clause));
+        }
+        final CompiledRule rule = CompiledRule.compile(clause, values);
+        if (rule.getBody().length == 0 && clause.getBody().isEmpty()) {
+            final PredicateKey predicate = rule.getHead().getPredicate();
+            final Row row = rule.getHead().instantiate(new Term[0]);
+            if (facts.computeIfAbsent(predicate, p -> new LinkedHashMap<>()).merge(row, 1, Integer::sum) > 1) {
+                // Another fact already added the row
+                return;
+            }
+            if (factRelations != null) {
+                factRelations.computeIfAbsent(predicate, p -> new Relation()).add(row);
+            }
+            if (relations != null) {
+                final SemiNaiveEvaluation evaluation = new SemiNaiveEvaluation(rules, relations, pool);
+                evaluation.insert(singleton(predicate, row));
+                iterations = evaluation.getIterations();
+            }
+        } else {
+            rules.add(rule);
+            relations = null;
+        }
+    }
+
+    /**
+     * Remove a clause. Derived relations are maintained incrementally if a
+     * fact is removed and derived again if a rule is removed.
+     *
+     * @param clause The clause to remove, compared by equality.
+     * @return True iff the clause was contained. Only its first occurrence is
+     * removed, so a fact added twice still holds after removing it once.
+     * @throws IllegalArgumentException Thrown if the clause is no Datalog
+     *                                  clause.
+     */
+    public boolean remove(Clause clause) {
+        if (PredicateKey.of(clause.getHead()) == null) {
+            throw new IllegalArgumentException(String.format("Head of clause %s is not callable", clause));
+        }
+        if (!clause.getBody().isEmpty()) {
+            for (int i = 0; i < rules.size(); i++) {
+                if (rules.get(i).getClause().equals(clause)) {
+                    rules.remove(i);
+                    relations = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        final CompiledRule rule = CompiledRule.compile(clause, values);
+        final PredicateKey predicate = rule.getHead().getPredicate();
+        final Row row = rule.getHead().instantiate(new Term[0]);
+        final Map<Row, Integer> rows = facts.get(predicate);
+        final Integer count = rows == null ? null : rows.get(row);
+        if (count == null) {
+            return false;
+        }
+        if (count > 1) {
+            rows.put(row, count - 1);
+            return true;
+        }
+        rows.remove(row);
+        if (factRelations != null) {
+            factRelations.get(predicate).remove(row);
+        }
+        if (relations != null) {
+            final SemiNaiveEvaluation evaluation = new SemiNaiveEvaluation(rules, relations, pool);
+            evaluation.delete(singleton(predicate, row), factRelations());
+            iterations = evaluation.getIterations();
+        }
+        return true;
+    }
+
+    /**
+     * Evaluate the rules of each round in parallel.
+     *
+     * @param pool The pool to evaluate the rules with or null to evaluate them
+     *             sequentially.
+     */
+    public void evaluateInParallel(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Answer queries with bound arguments goal-directed: instead of deriving
+     * all relations, the program is rewritten for the query with magic sets
+     * (see {@link MagicSets}) and evaluated on the facts, which only derives
+     * rows relevant to the query. Queries without bound arguments are still
+     * answered from all relations.
+     *
+     * @param enabled True to rewrite queries with bound arguments.
+     */
+    public void useMagicSets(boolean enabled) {
+        this.magicSets = enabled;
+    }
+
+    /**
+     * @return The statistics of each round of the last evaluation, empty
+     * before the first query.
+     */
+    public List<Iteration> getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @param goal The goal to query.
+     * @return True iff the goal can be deduced from the program.
+     */
+    public boolean query(Term goal) {
+        return iterator(goal).hasNext();
+    }
+
+    /**
+     * @param goal The goal to query.
+     * @return An iterator over all answers.
+     */
+    public Iterator<Answer> iterator(Term goal) {
+        return answers(goal).iterator();
+    }
+
+    /**
+     * @param goal The goal to query, an atom whose arguments might also be
+     *             compound terms which do not match any row.
+     * @return A sequential stream of all answers in the order the rows were
+     * derived.
+     * @throws IllegalArgumentException Thrown if the goal is not callable.
+     */
+    public Stream<Answer> answers(Term goal) {
+        final PredicateKey predicate = PredicateKey.of(goal);
+        if (predicate == null) {
+            throw new IllegalArgumentException(String.format("Goal %s is not callable", goal));
+        }
+        boolean bound = false;
+        for (Term argument : argumentsOf(goal)) {
+            if (!(argument instanceof Variable)) {
+                if (values.intern(argument) == null) {
+                    // Relations only contain values
+                    return Stream.empty();
+                }
+                bound = true;
+            }
+        }
+
+        if (magicSets && bound && rules.stream().anyMatch(rule -> rule.getHead().getPredicate().equals(predicate))) {
+            return answersOnDemand(goal);
+        }
+        return answers(materialize().get(predicate), goal);
+    }
+
+    private Stream<Answer> answersOnDemand(Term goal) {
+        final List<Clause> ruleClauses = new ArrayList<>();
+        rules.forEach(rule -> ruleClauses.add(rule.getClause()));
+        final MagicSets.Rewriting rewriting = new MagicSets(ruleClauses, facts.keySet()).rewrite(goal);
+
+        final List<CompiledRule> program = new ArrayList<>();
+        program.add(CompiledRule.compile(rewriting.getSeed(), values));
+        rewriting.getRules().forEach(rule -> program.add(CompiledRule.compile(rule, values)));
+
+        // Only relations of adorned and magic predicates are derived, the
+        // ones of the facts are shared
+        final Map<PredicateKey, Relation> derived = new LinkedHashMap<>(factRelations());
+        final SemiNaiveEvaluation evaluation = new SemiNaiveEvaluation(program, derived, pool);
+        evaluation.run();
+        iterations = evaluation.getIterations();
+        return answers(derived.get(PredicateKey.of(rewriting.getQuery())), rewriting.getQuery());
+    }
+
+    private Stream<Answer> answers(Relation relation, Term goal) {
+        if (relation == null) {
+            return Stream.empty();
+        }
+
+        final List<Term> arguments = argumentsOf(goal);
+        final Map<Variable, Integer> variables = new LinkedHashMap<>();
+        final int[] variableNumbers = new int[arguments.size()];
+        final List<Term> key = new ArrayList<>();
+        int mask = 0;
+        for (int i = 0; i < arguments.size(); i++) {
+            final Term argument = arguments.get(i);
+            if (argument instanceof Variable) {
+                // Later occurrences are compared with the first one
+                variableNumbers[i] = variables.computeIfAbsent((Variable) argument, v -> variables.size());
+                continue;
+            }
+            variableNumbers[i] = -1;
+            mask |= 1 << i;
+            key.add(values.intern(argument));
+        }
+
+        final List<Variable> queryVariables = new ArrayList<>(variables.keySet());
+        return relation.lookup(mask, new Row(key.toArray(new Term[0]))).stream()
+                .map(row -> answerOf(row, variableNumbers, queryVariables))
+                .filter(answer -> answer != null);
+    }
+
+    /**
+     * @return The answer for a row or null if the row has different values
+     * for the same variable.
+     */
+    private static Answer answerOf(Row row, int[] variableNumbers, List<Variable> queryVariables) {
+        final Term[] binding = new Term[queryVariables.size()];
+        for (int i = 0; i < variableNumbers.length; i++) {
+            final int number = variableNumbers[i];
+            if (number < 0) {
+                continue;
+            } else if (binding[number] == null) {
+                binding[number] = row.get(i);
+            } else if (binding[number] != row.get(i)) {
+                return null;
+            }
+        }
+        final Map<Variable, Term> answer = new LinkedHashMap<>();
+        for (int i = 0; i < binding.length; i++) {
+            answer.put(queryVariables.get(i), binding[i]);
+        }
+        return new Answer(answer);
+    }
+
+    private static Map<PredicateKey, Relation> singleton(PredicateKey predicate, Row row) {
+        final Relation relation = new Relation();
+        relation.add(row);
+        return Collections.singletonMap(predicate, relation);
+    }
+
+    private static List<Term> argumentsOf(Term goal) {
+        return goal instanceof CompoundTerm ? ((CompoundTerm) goal).getArguments() : Collections.emptyList();
+    }
+
+    private Map<PredicateKey, Relation> factRelations() {
+        if (factRelations == null) {
+            factRelations = new LinkedHashMap<>();
+            facts.forEach((predicate, rows) -> {
+                final Relation relation = new Relation();
+                rows.keySet().forEach(relation::add);
+                factRelations.put(predicate, relation);
+            });
+        }
+        return factRelations;
+    }
+
+    private Map<PredicateKey, Relation> materialize() {
+        if (relations == null) {
+            final Map<PredicateKey, Relation> derived = new LinkedHashMap<>();
+            facts.forEach((predicate, rows) -> {
+                final Relation relation = derived.computeIfAbsent(predicate, p -> new Relation());
+                rows.keySet().forEach(relation::add);
+            });
+            final SemiNaiveEvaluation evaluation = new SemiNaiveEvaluation(rules, derived, pool);
+            evaluation.run();
+            relations = derived;
+            iterations = evaluation.getIterations();
+        }
+        return relations;
+    }
+}
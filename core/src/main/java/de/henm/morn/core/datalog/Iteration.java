@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.datalog;
+
+/**
+ * Statistics of a single round of the bottom-up evaluation or of its
+ * incremental maintenance.
+ *
+ * @author henm
+ */
+public final class Iteration {
+
+    private final int round;
+    private final int derivedRows;
+    private final int deletedRows;
+    private final long nanos;
+
+    Iteration(int round, int derivedRows, int deletedRows, long nanos) {
+        this.round = round;
+        this.derivedRows = derivedRows;
+        this.deletedRows = deletedRows;
+        this.nanos = nanos;
+    }
+
+    /**
+     * @return The number of the round, starting with 1.
+     */
+    public int getRound() {
+        return round;
+    }
+
+    /**
+     * @return The number of rows derived in the round which were not known
+     * before.
+     */
+    public int getDerivedRows() {
+        return derivedRows;
+    }
+
+    /**
+     * @return The number of rows deleted in the round because they were
+     * deleted or derived from deleted rows; some of them might be derived
+     * again later.
+     */
+    public int getDeletedRows() {
+        return deletedRows;
+    }
+
+    /**
+     * @return The wall-clock time of the round in nanoseconds.
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    @Override
+    public String toString() {
+        return deletedRows == 0
+                ? String.format("round %d: %d rows in %.3f ms", round, derivedRows, nanos / 1e6)
+                : String.format("round %d: %d rows deleted in %.3f ms", round, deletedRows, nanos / 1e6);
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.datalog;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.Constant;
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.PredicateTerm;
+import de.henm.morn.core.model.Rule;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+import de.henm.morn.core.reasoner.PredicateKey;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Magic-sets rewriting of a Datalog program for a single query.
+ * <p>
+ * Every predicate defined by rules is adorned with the pattern of bound (b)
+ * and free (f) arguments it is called with, e.g. ancestor(terach, X) calls
+ * ancestor_bf. Bindings are passed from left to right through the bodies of
+ * the rules. For each adorned predicate a magic predicate holds the values of
+ * the bound arguments it is called with: the adorned rules only fire for
+ * them, and a magic rule derives the calls of every adorned atom of a body
+ * from the magic predicate of the head and the literals before the atom. The
+ * query itself becomes the seed of its magic predicate. Evaluating the result
+ * bottom-up thus only derives rows which are relevant to the query.
+ * <p>
+ * Facts of predicates which are also defined by rules are passed on to the
+ * adorned predicates by one more rule per adornment.
+ * <p>
+ * Adorned and magic predicates are named like ancestor_bf and
+ * magic_ancestor_bf, but their symbols are {@link Functor#fresh(String)
+ * fresh}, so they never capture predicates of the program with these names.
+ *
+ * @author henm
+ */
+public final class MagicSets {
+
+    /**
+     * The symbols of adorned and magic predicates, shared by all rewritings so
+     * repeated queries do not grow the symbol table.
+     */
+    private static final Map<List<Object>, Object> FRESH_SYMBOLS = new ConcurrentHashMap<>();
+
+    private final Map<PredicateKey, List<Clause>> rules;
+    private final Set<PredicateKey> predicatesWithFacts;
+    /**
+     * The functor or constant of each predicate defined by rules.
+     */
+    private final Map<PredicateKey, Object> symbols;
+
+    MagicSets(List<Clause> rules, Set<PredicateKey> predicatesWithFacts) {
+        this.rules = new LinkedHashMap<>();
+        this.symbols = new HashMap<>();
+        for (Clause rule : rules) {
+            final Term head = rule.getHead();
+            this.rules.computeIfAbsent(PredicateKey.of(head), p -> new ArrayList<>()).add(rule);
+            symbols.put(PredicateKey.of(head), head instanceof CompoundTerm ? ((CompoundTerm) head).getFunctor() : head);
+        }
+        this.predicatesWithFacts = predicatesWithFacts;
+    }
+
+    /**
+     * Rewrite a program for a query.
+     *
+     * @param clauses The clauses of the program. Facts are left out of the
+     *                rewritten program, they are used as they are.
+     * @param query   The query.
+     * @return The rewritten rules, the seed and the query to ask them.
+     * @throws IllegalArgumentException Thrown if the query is not callable.
+     */
+    public static Rewriting rewrite(List<Clause> clauses, Term query) {
+        final List<Clause> rules = new ArrayList<>();
+        final Set<PredicateKey> predicatesWithFacts = new HashSet<>();
+        for (Clause clause : clauses) {
+            if (clause.getBody().isEmpty()) {
+                predicatesWithFacts.add(PredicateKey.of(clause.getHead()));
+            } else {
+                rules.add(clause);
+            }
+        }
+        return new MagicSets(rules, predicatesWithFacts).rewrite(query);
+    }
+
+    Rewriting rewrite(Term query) {
+        final PredicateKey predicate = PredicateKey.of(query);
+        if (predicate == null) {
+            throw new IllegalArgumentException(String.format("Goal %s is not callable", query));
+        }
+        if (!rules.containsKey(predicate)) {
+            // Nothing to derive
+            return new Rewriting(Collections.emptyList(), null, query);
+        }
+
+        final String adornment = adornment(query, Collections.emptySet());
+        final List<Clause> rewritten = new ArrayList<>();
+        final Map<PredicateKey, Set<String>> done = new HashMap<>();
+        final Deque<Adorned> pending = new ArrayDeque<>();
+        pending.add(new Adorned(predicate, adornment));
+        while (!pending.isEmpty()) {
+            final Adorned next = pending.poll();
+            if (done.computeIfAbsent(next.predicate, p -> new HashSet<>()).add(next.adornment)) {
+                rewritten.addAll(rewrite(next, pending));
+            }
+        }
+
+        return new Rewriting(rewritten,
+                new Fact(magicAtom(predicate, adornment, argumentsOf(query))),
+                adornedAtom(predicate, adornment, argumentsOf(query)));
+    }
+
+    private List<Clause> rewrite(Adorned adorned, Deque<Adorned> pending) {
+        final List<Clause> rewritten = new ArrayList<>();
+        for (Clause rule : rules.get(adorned.predicate)) {
+            final List<Term> headArguments = argumentsOf(rule.getHead());
+            final Term magicHead = magicAtom(adorned.predicate, adorned.adornment, headArguments);
+            final Set<Variable> bound = new HashSet<>();
+            collectVariables(magicHead, bound);
+
+            final List<Term> body = new ArrayList<>();
+            body.add(magicHead);
+            for (Term literal : rule.getBody()) {
+                final PredicateKey predicate = literal instanceof PredicateTerm ? null : PredicateKey.of(literal);
+                if (predicate != null && rules.containsKey(predicate)) {
+                    final String adornment = adornment(literal, bound);
+                    final List<Term> arguments = argumentsOf(literal);
+                    // The calls of the atom follow from the literals before it
+                    rewritten.add(new Rule(magicAtom(predicate, adornment, arguments), rangeRestricted(body)));
+                    pending.add(new Adorned(predicate, adornment));
+                    body.add(adornedAtom(predicate, adornment, arguments));
+                } else {
+                    body.add(literal);
+                }
+                if (!(literal instanceof PredicateTerm)) {
+                    collectVariables(literal, bound);
+                }
+            }
+            rewritten.add(new Rule(adornedAtom(adorned.predicate, adorned.adornment, headArguments), body));
+        }
+
+        if (predicatesWithFacts.contains(adorned.predicate)) {
+            final List<Term> variables = new ArrayList<>();
+            for (int i = 0; i < adorned.predicate.getArity(); i++) {
+                variables.add(new Variable("V" + i));
+            }
+            final Term original = atom(symbols.get(adorned.predicate), variables);
+            rewritten.add(new Rule(adornedAtom(adorned.predicate, adorned.adornment, variables),
+                    magicAtom(adorned.predicate, adorned.adornment, variables), original));
+        }
+        return rewritten;
+    }
+
+    /**
+     * @return The literals leaving out predicate terms whose variables are not
+     * bound by the atoms.
+     */
+    private static List<Term> rangeRestricted(List<Term> literals) {
+        final Set<Variable> bound = new HashSet<>();
+        for (Term literal : literals) {
+            if (!(literal instanceof PredicateTerm)) {
+                collectVariables(literal, bound);
+            }
+        }
+        final List<Term> result = new ArrayList<>();
+        for (Term literal : literals) {
+            if (literal instanceof PredicateTerm) {
+                final Set<Variable> variables = new HashSet<>();
+                collectVariables(literal, variables);
+                if (!bound.containsAll(variables)) {
+                    continue;
+                }
+            }
+            result.add(literal);
+        }
+        return result;
+    }
+
+    private static String adornment(Term atom, Set<Variable> bound) {
+        final StringBuilder adornment = new StringBuilder();
+        for (Term argument : argumentsOf(atom)) {
+            adornment.append(argument instanceof Variable && !bound.contains(argument) ? 'f' : 'b');
+        }
+        return adornment.toString();
+    }
+
+    private Term adornedAtom(PredicateKey predicate, String adornment, List<Term> arguments) {
+        return atom(symbol("", predicate, adornment, arguments.size()), arguments);
+    }
+
+    private Term magicAtom(PredicateKey predicate, String adornment, List<Term> arguments) {
+        final List<Term> boundArguments = new ArrayList<>();
+        for (int i = 0; i < arguments.size(); i++) {
+            if (adornment.charAt(i) == 'b') {
+                boundArguments.add(arguments.get(i));
+            }
+        }
+        return atom(symbol("magic_", predicate, adornment, boundArguments.size()), boundArguments);
+    }
+
+    private Object symbol(String prefix, PredicateKey predicate, String adornment, int arity) {
+        return FRESH_SYMBOLS.computeIfAbsent(Arrays.asList(prefix, predicate, adornment), key -> {
+            final String name = prefix + symbols.get(predicate) + "_" + adornment;
+            return arity == 0 ? Constant.fresh(name) : Functor.fresh(name);
+        });
+    }
+
+    private static Term atom(Object symbol, List<Term> arguments) {
+        return arguments.isEmpty()
+                ? (Constant) symbol
+                : ((Functor) symbol).apply(arguments.toArray(new Term[0]));
+    }
+
+    private static List<Term> argumentsOf(Term atom) {
+        return atom instanceof CompoundTerm ? ((CompoundTerm) atom).getArguments() : Collections.emptyList();
+    }
+
+    private static void collectVariables(Term atom, Set<Variable> variables) {
+        final List<Term> arguments = atom instanceof PredicateTerm
+                ? Arrays.asList(((PredicateTerm) atom).getT1(), ((PredicateTerm) atom).getT2())
+                : argumentsOf(atom);
+        for (Term argument : arguments) {
+            if (argument instanceof Variable) {
+                variables.add((Variable) argument);
+            }
+        }
+    }
+
+    /**
+     * The result of rewriting a program for a query.
+     */
+    public static final class Rewriting {
+        private final List<Clause> rules;
+        private final Fact seed;
+        private final Term query;
+
+        private Rewriting(List<Clause> rules, Fact seed, Term query) {
+            this.rules = Collections.unmodifiableList(rules);
+            this.seed = seed;
+            this.query = query;
+        }
+
+        /**
+         * @return The adorned rules and the magic rules.
+         */
+        public List<Clause> getRules() {
+            return rules;
+        }
+
+        /**
+         * @return The fact holding the bound arguments of the query for its
+         * magic predicate or null if the predicate of the query is not defined
+         * by rules.
+         */
+        public Fact getSeed() {
+            return seed;
+        }
+
+        /**
+         * @return The query to ask the rewritten program.
+         */
+        public Term getQuery() {
+            return query;
+        }
+    }
+
+    private static final class Adorned {
+        private final PredicateKey predicate;
+        private final String adornment;
+
+        private Adorned(PredicateKey predicate, String adornment) {
+            this.predicate = predicate;
+            this.adornment = adornment;
+        }
+    }
+}
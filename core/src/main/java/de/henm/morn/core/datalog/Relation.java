@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.datalog;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The set of rows of a predicate in the order they were derived.
+ * <p>
+ * Lookups on bound positions build a hash index over these positions the
+ * first time they are used; indexes are kept up to date when rows are added
+ * or removed. The rows of a bucket are a set as well, so removing a row
+ * takes constant time.
+ *
+ * @author henm
+ */
+final class Relation {
+
+    private final Set<Row> rows;
+    private final Map<Integer, Map<Row, Set<Row>>> indexes;
+
+    Relation() {
+        this.rows = new LinkedHashSet<>();
+        this.indexes = new HashMap<>();
+    }
+
+    /**
+     * @return True iff the row was not contained before.
+     */
+    boolean add(Row row) {
+        if (!rows.add(row)) {
+            return false;
+        }
+        indexes.forEach((mask, index) -> index.computeIfAbsent(row.project(mask), k -> new LinkedHashSet<>()).add(row));
+        return true;
+    }
+
+    /**
+     * @return True iff the row was contained.
+     */
+    boolean remove(Row row) {
+        if (!rows.remove(row)) {
+            return false;
+        }
+        indexes.forEach((mask, index) -> {
+            final Row key = row.project(mask);
+            final Set<Row> bucket = index.get(key);
+            bucket.remove(row);
+            if (bucket.isEmpty()) {
+                index.remove(key);
+            }
+        });
+        return true;
+    }
+
+    boolean contains(Row row) {
+        return rows.contains(row);
+    }
+
+    boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    int size() {
+        return rows.size();
+    }
+
+    Collection<Row> getRows() {
+        return Collections.unmodifiableSet(rows);
+    }
+
+    /**
+     * @param mask The bound positions, bit i standing for position i.
+     * @param key  The values of the bound positions, see {@link Row#project(int)}.
+     * @return All rows with the given values at the bound positions.
+     */
+    Collection<Row> lookup(int mask, Row key) {
+        if (mask == 0) {
+            return rows;
+        }
+        return index(mask).getOrDefault(key, Collections.emptySet());
+    }
+
+    /**
+     * Build the index on the given positions unless it exists. Lookups only
+     * read a relation once all indexes they use have been built, so they
+     * might run concurrently.
+     *
+     * @param mask The positions to index, bit i standing for position i.
+     * @return The index mapping the values at these positions to the rows.
+     */
+    Map<Row, Set<Row>> index(int mask) {
+        Map<Row, Set<Row>> index = indexes.get(mask);
+        if (index == null && mask != 0) {
+            index = new HashMap<>();
+            for (Row row : rows) {
+                index.computeIfAbsent(row.project(mask), k -> new LinkedHashSet<>()).add(row);
+            }
+            indexes.put(mask, index);
+        }
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return rows.toString();
+    }
+}
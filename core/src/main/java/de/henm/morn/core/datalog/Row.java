@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.datalog;
+
+import de.henm.morn.core.model.Term;
+
+import java.util.Arrays;
+
+/**
+ * A tuple of a relation. Values are interned (see {@link Values}), so rows
+ * are compared element by element.
+ *
+ * @author henm
+ */
+final class Row {
+
+    private final Term[] values;
+    private final int hashCode;
+
+    Row(Term[] values) {
+        this.values = values;
+        this.hashCode = Arrays.hashCode(values);
+    }
+
+    Term get(int position) {
+        return values[position];
+    }
+
+    int size() {
+        return values.length;
+    }
+
+    /**
+     * @param mask The positions to keep, bit i standing for position i.
+     * @return A row of the values at the given positions.
+     */
+    Row project(int mask) {
+        final Term[] projection = new Term[Integer.bitCount(mask)];
+        for (int position = 0, i = 0; i < projection.length; position++) {
+            if ((mask & (1 << position)) != 0) {
+                projection[i++] = values[position];
+            }
+        }
+        return new Row(projection);
+    }
+
+    /**
+     * @param mask The positions to hash, bit i standing for position i.
+     * @return The hash code of {@link #project(int)} without building it.
+     */
+    int hashCode(int mask) {
+        int result = 1;
+        for (int position = 0; position < values.length; position++) {
+            if ((mask & (1 << position)) != 0) {
+                result = 31 * result + values[position].hashCode();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final Row row = (Row) o;
+        return hashCode == row.hashCode && Arrays.equals(values, row.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.datalog;
+
+import de.henm.morn.core.reasoner.PredicateKey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Bottom-up evaluation of a Datalog program to its least model.
+ * <p>
+ * The first round applies every rule to the facts. Each further round only
+ * joins the rows derived in the round before (the delta) with the complete
+ * relations: a rule is evaluated once per atom of its body whose delta is not
+ * empty, joining the delta of this atom and the complete relations of the
+ * others. Rows which are derived again are dropped, so the evaluation stops
+ * as soon as a round derives nothing new.
+ * <p>
+ * Given a pool, the rule evaluations of a round run in parallel. The
+ * relation joined first is split into partitions by the hash of its join key
+ * and every partition is evaluated by a task of its own. All indexes the
+ * tasks use are built before, so the tasks only read the shared relations;
+ * derived rows are collected in concurrent sets and added once all tasks are
+ * done. The rows are the same as the ones of the sequential evaluation, only
+ * the order they were derived in might differ.
+ * <p>
+ * Evaluated relations are maintained incrementally. Inserted rows become the
+ * delta of the first round, so only their consequences are joined. Deleted
+ * rows are handled by delete and rederive (DRed): first every row with a
+ * derivation using a deleted row is deleted as well, again round by round
+ * joining only the rows deleted in the round before. Some of these rows
+ * might have another derivation; they are rederived by evaluating each rule
+ * on the rows deleted from its head, joined first, and the rows left, and
+ * inserted again together with all their consequences. The cost depends on
+ * the rows affected by the change instead of the size of the relations.
+ *
+ * @author henm
+ */
+final class SemiNaiveEvaluation {
+
+    /**
+     * Relations with fewer rows are not partitioned.
+     */
+    static final int MIN_PARTITION_SIZE = 256;
+
+    private final List<CompiledRule> rules;
+    private final Map<PredicateKey, Relation> relations;
+    private final ForkJoinPool pool;
+    private final List<Iteration> iterations;
+
+    /**
+     * @param rules     The rules of the program.
+     * @param relations The facts of the program, the derived rows are added.
+     * @param pool      The pool to evaluate the rules with or null to evaluate
+     *                  them sequentially.
+     */
+    SemiNaiveEvaluation(List<CompiledRule> rules, Map<PredicateKey, Relation> relations, ForkJoinPool pool) {
+        this.rules = rules;
+        this.relations = relations;
+        this.pool = pool;
+        this.iterations = new ArrayList<>();
+    }
+
+    SemiNaiveEvaluation(List<CompiledRule> rules, Map<PredicateKey, Relation> relations) {
+        this(rules, relations, null);
+    }
+
+    /**
+     * Derive all rows from the relations.
+     */
+    void run() {
+        // The first round joins the complete relations
+        derive(null);
+    }
+
+    /**
+     * Add rows to relations which have been evaluated before and derive their
+     * consequences.
+     *
+     * @param inserted The rows to add per predicate.
+     */
+    void insert(Map<PredicateKey, Relation> inserted) {
+        final long start = System.nanoTime();
+        final Map<PredicateKey, Relation> delta = new LinkedHashMap<>();
+        inserted.forEach((predicate, rows) -> {
+            final Relation relation = relation(predicate);
+            for (Row row : rows.getRows()) {
+                if (relation.add(row)) {
+                    delta.computeIfAbsent(predicate, p -> new Relation()).add(row);
+                }
+            }
+        });
+        iterations.add(new Iteration(iterations.size() + 1, size(delta), 0, System.nanoTime() - start));
+        if (!delta.isEmpty()) {
+            derive(delta);
+        }
+    }
+
+    /**
+     * Remove rows from relations which have been evaluated before, together
+     * with all rows which can no longer be derived.
+     *
+     * @param deleted The rows to remove per predicate.
+     * @param facts   The facts left, they are never removed.
+     */
+    void delete(Map<PredicateKey, Relation> deleted, Map<PredicateKey, Relation> facts) {
+        final Map<PredicateKey, Relation> removed = new LinkedHashMap<>();
+        deleted.forEach((predicate, rows) -> {
+            final Relation relation = relation(predicate);
+            for (Row row : rows.getRows()) {
+                if (relation.contains(row)) {
+                    removed.computeIfAbsent(predicate, p -> new Relation()).add(row);
+                }
+            }
+        });
+        Map<PredicateKey, Relation> delta = new LinkedHashMap<>(removed);
+
+        // Delete everything derived from a deleted row, the joins still see
+        // the relations before the deletion
+        while (!delta.isEmpty()) {
+            final long start = System.nanoTime();
+            final Map<PredicateKey, Relation> next = evaluate(jobs(delta), predicate -> {
+                final Relation known = relation(predicate);
+                final Relation gone = removed.computeIfAbsent(predicate, p -> new Relation());
+                return row -> known.contains(row) && !gone.contains(row);
+            });
+            next.forEach((predicate, rows) -> rows.getRows().forEach(removed.get(predicate)::add));
+            iterations.add(new Iteration(iterations.size() + 1, 0, size(delta), System.nanoTime() - start));
+            delta = next;
+        }
+        removed.forEach((predicate, rows) -> rows.getRows().forEach(relation(predicate)::remove));
+
+        // Rederive the rows which are facts or still have a derivation
+        final Map<PredicateKey, Relation> rederived = new LinkedHashMap<>();
+        final List<Job> jobs = new ArrayList<>();
+        removed.forEach((predicate, rows) -> {
+            final Relation predicateFacts = facts.get(predicate);
+            if (predicateFacts != null) {
+                rows.getRows().stream().filter(predicateFacts::contains)
+                        .forEach(rederived.computeIfAbsent(predicate, p -> new Relation())::add);
+            }
+        });
+        for (CompiledRule rule : rules) {
+            final Relation rows = removed.get(rule.getHead().getPredicate());
+            if (rows != null && !rows.isEmpty()) {
+                jobs.add(new Job(rule.getRederivation(), 0, rows));
+            }
+        }
+        evaluate(jobs, predicate -> row -> true).forEach((predicate, rows) ->
+                rows.getRows().forEach(rederived.computeIfAbsent(predicate, p -> new Relation())::add));
+
+        if (!rederived.isEmpty()) {
+            insert(rederived);
+        }
+    }
+
+    /**
+     * Evaluate rounds until no new row is derived.
+     *
+     * @param delta The rows new to the relations or null to start with the
+     *              complete relations.
+     */
+    private void derive(Map<PredicateKey, Relation> delta) {
+        do {
+            final long start = System.nanoTime();
+            delta = evaluate(jobs(delta), predicate -> {
+                final Relation known = relation(predicate);
+                return row -> !known.contains(row);
+            });
+            for (Map.Entry<PredicateKey, Relation> derived : delta.entrySet()) {
+                derived.getValue().getRows().forEach(relation(derived.getKey())::add);
+            }
+            iterations.add(new Iteration(iterations.size() + 1, size(delta), 0, System.nanoTime() - start));
+        } while (!delta.isEmpty());
+    }
+
+    private static int size(Map<PredicateKey, Relation> relations) {
+        return relations.values().stream().mapToInt(Relation::size).sum();
+    }
+
+    /**
+     * @return The number of rounds, including the last one deriving nothing.
+     */
+    int getRounds() {
+        return iterations.size();
+    }
+
+    List<Iteration> getIterations() {
+        return Collections.unmodifiableList(iterations);
+    }
+
+    private List<Job> jobs(Map<PredicateKey, Relation> delta) {
+        final List<Job> jobs = new ArrayList<>();
+        for (CompiledRule rule : rules) {
+            final Atom[] body = rule.getBody();
+            if (delta == null) {
+                jobs.add(new Job(rule, 0, body.length == 0 ? null : relation(body[0].getPredicate())));
+                continue;
+            }
+            for (int i = 0; i < body.length; i++) {
+                final Relation changed = delta.get(body[i].getPredicate());
+                if (changed != null) {
+                    jobs.add(new Job(rule, i, changed));
+                }
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * @param accepts Yields for each predicate which derived rows to collect,
+     *                the tests might run concurrently.
+     * @return The rows derived by the jobs and accepted, per predicate.
+     */
+    private Map<PredicateKey, Relation> evaluate(List<Job> jobs,
+                                                 Function<PredicateKey, Predicate<Row>> accepts) {
+        return pool == null ? evaluateSequentially(jobs, accepts) : evaluateInParallel(jobs, accepts);
+    }
+
+    private Map<PredicateKey, Relation> evaluateSequentially(List<Job> jobs,
+                                                             Function<PredicateKey, Predicate<Row>> accepts) {
+        final Map<PredicateKey, Relation> derived = new LinkedHashMap<>();
+        for (Job job : jobs) {
+            final PredicateKey predicate = job.rule.getHead().getPredicate();
+            final Predicate<Row> accepted = accepts.apply(predicate);
+            job.rule.evaluate(job.first, relationsOf(job, job.relation), row -> {
+                if (accepted.test(row)) {
+                    derived.computeIfAbsent(predicate, p -> new Relation()).add(row);
+                }
+            });
+        }
+        return derived;
+    }
+
+    private Map<PredicateKey, Relation> evaluateInParallel(List<Job> jobs,
+                                                           Function<PredicateKey, Predicate<Row>> accepts) {
+        final Map<PredicateKey, Set<Row>> derived = new ConcurrentHashMap<>();
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (Job job : jobs) {
+            final PredicateKey predicate = job.rule.getHead().getPredicate();
+            final Predicate<Row> accepted = accepts.apply(predicate);
+            final Set<Row> rows = derived.computeIfAbsent(predicate, p -> ConcurrentHashMap.newKeySet());
+
+            for (Relation partition : partition(job)) {
+                final Relation[] bodyRelations = relationsOf(job, partition);
+                job.rule.buildIndexes(job.first, bodyRelations);
+                tasks.add(ForkJoinTask.adapt(() -> job.rule.evaluate(job.first, bodyRelations, row -> {
+                    if (accepted.test(row)) {
+                        rows.add(row);
+                    }
+                })));
+            }
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+
+        final Map<PredicateKey, Relation> result = new LinkedHashMap<>();
+        derived.forEach((predicate, rows) -> {
+            if (!rows.isEmpty()) {
+                final Relation relation = new Relation();
+                rows.forEach(relation::add);
+                result.put(predicate, relation);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return The relation the job joins first split by the hash of the join
+     * key, or the relation itself if it is small.
+     */
+    private List<Relation> partition(Job job) {
+        if (job.relation == null || job.relation.size() < MIN_PARTITION_SIZE) {
+            return Collections.singletonList(job.relation);
+        }
+        final int numberOfPartitions = Math.min(4 * pool.getParallelism(), job.relation.size() / MIN_PARTITION_SIZE);
+        final List<Relation> partitions = new ArrayList<>(numberOfPartitions);
+        for (int i = 0; i < numberOfPartitions; i++) {
+            partitions.add(new Relation());
+        }
+        final int mask = job.rule.getJoinMask(job.first);
+        for (Row row : job.relation.getRows()) {
+            final int hash = mask == 0 ? row.hashCode() : row.hashCode(mask);
+            partitions.get(Math.floorMod(hash, numberOfPartitions)).add(row);
+        }
+        return partitions;
+    }
+
+    /**
+     * @return The relations of the body of the job's rule, using the given
+     * relation for the atom joined first.
+     */
+    private Relation[] relationsOf(Job job, Relation first) {
+        final Atom[] body = job.rule.getBody();
+        final Relation[] bodyRelations = new Relation[body.length];
+        for (int i = 0; i < body.length; i++) {
+            bodyRelations[i] = i == job.first ? first : relation(body[i].getPredicate());
+        }
+        return bodyRelations;
+    }
+
+    private Relation relation(PredicateKey predicate) {
+        return relations.computeIfAbsent(predicate, p -> new Relation());
+    }
+
+    /**
+     * A rule to evaluate starting with the given relation for one atom.
+     */
+    private static final class Job {
+        private final CompiledRule rule;
+        private final int first;
+        private final Relation relation;
+
+        private Job(CompiledRule rule, int first, Relation relation) {
+            this.rule = rule;
+            this.first = first;
+            this.relation = relation;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.datalog;
+
+import de.henm.morn.core.model.Constant;
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.L;
+import de.henm.morn.core.model.Term;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The values stored in relations: constants, the empty list and integers.
+ * Constants and integers are interned, so two values are equal iff they are
+ * identical.
+ *
+ * @author henm
+ */
+final class Values {
+
+    private final Map<Constant, Constant> constants;
+    private final Map<Integer, IntegerTerm> integers;
+
+    Values() {
+        this.constants = new HashMap<>();
+        this.integers = new HashMap<>();
+    }
+
+    /**
+     * @param term A term.
+     * @return The canonical instance of the value or null if the term is no
+     * value, e.g. a variable or a compound term.
+     */
+    Term intern(Term term) {
+        if (term instanceof Constant) {
+            // Constants with the same name are equal but might be different
+            // instances
+            return constants.computeIfAbsent((Constant) term, c -> c);
+        } else if (term == L.EMPTY) {
+            return term;
+        } else if (term instanceof IntegerTerm) {
+            return integers.computeIfAbsent(((IntegerTerm) term).getValue(), v -> (IntegerTerm) term);
+        } else {
+            return null;
+        }
+    }
+}
@@ -57,7 +57,7 @@ public class CompoundTerm4 implements CompoundTerm {
         if (!arg1.equals(that.arg1)) return false;
         if (!arg2.equals(that.arg2)) return false;
         if (!arg3.equals(that.arg3)) return false;
-        return arg3.equals(that.arg4);
+        return arg4.equals(that.arg4);
     }
 
     @Override
@@ -15,6 +15,9 @@
 package de.henm.morn.core.model;
 
 /**
+ * An atom. Constants are equal iff they have the same name, see
+ * {@link Symbols}, unless they are {@link #fresh(String) fresh}.
+ *
  * @author henm
  */
 public class Constant implements Term {
@@ -24,10 +27,31 @@ public class Constant implements Term {
     public static Constant b = new Constant("b");
     public static Constant c = new Constant("c");
 
-    private final String name;
+    private final int id;
 
     public Constant(String name) {
-        this.name = name;
+        this(Symbols.intern(name));
+    }
+
+    private Constant(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @param name The name to print.
+     * @return A constant which is only equal to itself, even if other constants
+     * have the same name. Used for symbols introduced by program
+     * transformations, which must not capture the ones of a program.
+     */
+    public static Constant fresh(String name) {
+        return new Constant(Symbols.fresh(name));
+    }
+
+    /**
+     * @return The id of the name in the {@link Symbols symbol table}.
+     */
+    public int getId() {
+        return id;
     }
 
     @Override
@@ -35,9 +59,19 @@ public class Constant implements Term {
         return true;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Constant && ((Constant) o).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
     @Override
     public String toString() {
-        return name;
+        return Symbols.nameOf(id);
     }
 
     @Override
@@ -15,23 +15,57 @@
 package de.henm.morn.core.model;
 
 /**
+ * The name of compound terms. Functors are equal iff they have the same
+ * name, see {@link Symbols}, unless they are {@link #fresh(String) fresh}.
+ *
  * @author henm
  */
 public class Functor {
 
-    private final String name;
+    private final int id;
 
     public Functor(String name) {
-        this.name = name;
+        this(Symbols.intern(name));
+    }
+
+    private Functor(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @param name The name to print.
+     * @return A functor which is only equal to itself, even if other functors
+     * have the same name. Used for symbols introduced by program
+     * transformations, which must not capture the ones of a program.
+     */
+    public static Functor fresh(String name) {
+        return new Functor(Symbols.fresh(name));
+    }
+
+    /**
+     * @return The id of the name in the {@link Symbols symbol table}.
+     */
+    public int getId() {
+        return id;
     }
 
     public Term apply(Term... terms) {
         return new CompoundTermFactory().build(this, terms);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Functor && ((Functor) o).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
     @Override
     public String toString() {
-        return name;
+        return Symbols.nameOf(id);
     }
 
 }
\ No newline at end of file
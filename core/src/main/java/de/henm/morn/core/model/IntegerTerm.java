@@ -41,6 +41,16 @@ public class IntegerTerm implements Term {
         return false;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IntegerTerm && ((IntegerTerm) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+        return value;
+    }
+
     @Override
     public String toString() {
         return Integer.toString(value);
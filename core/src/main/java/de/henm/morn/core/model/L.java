@@ -117,6 +117,40 @@ public class L implements Term {
         return tail;
     }
 
+    /**
+     * Lists are equal iff their elements are equal. The tails are compared
+     * iteratively, so long lists do not overflow the stack.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof L)) return false;
+
+        Term l1 = this;
+        Term l2 = (L) o;
+        while (l1 instanceof L && l2 instanceof L && l1 != l2) {
+            final L that1 = (L) l1;
+            final L that2 = (L) l2;
+            if (that1.isEmpty() || that2.isEmpty() || !that1.head.equals(that2.head)) {
+                return false;
+            }
+            l1 = that1.tail;
+            l2 = that2.tail;
+        }
+        return l1 == l2 || !(l1 instanceof L) && l1.equals(l2);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        Term l = this;
+        while (l instanceof L && !((L) l).isEmpty()) {
+            result = 31 * result + ((L) l).head.hashCode();
+            l = ((L) l).tail;
+        }
+        return 31 * result + (l instanceof L ? 0 : l.hashCode());
+    }
+
     @Override
     public String toString() {
         if (isEmpty()) {
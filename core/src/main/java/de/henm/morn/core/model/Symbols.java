@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global symbol table numbering the names of constants and functors.
+ * <p>
+ * Every name gets a dense int id the first time it is used, and every
+ * functor with an arity (like father/2) gets another one. Constants and
+ * functors with the same name thus compare and hash like ints, no matter
+ * which instance is used, and indexes might key on the ids. Constants and
+ * functors only hold their id, each name is stored once.
+ * <p>
+ * Symbols introduced by program transformations get {@link #fresh(String)
+ * fresh} ids instead, so they never capture symbols of the same name.
+ * <p>
+ * Looking up a known symbol takes no lock; only new symbols are added one
+ * at a time. Symbols are never removed.
+ *
+ * @author henm
+ */
+public final class Symbols {
+
+    private static final Map<String, Integer> NAME_IDS = new ConcurrentHashMap<>();
+    private static final Map<Long, Integer> FUNCTOR_IDS = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[256];
+    private static int numberOfNames = 0;
+
+    private Symbols() {
+    }
+
+    /**
+     * @param name The name of a constant or a functor.
+     * @return The id of the name.
+     */
+    public static int intern(String name) {
+        final Integer id = NAME_IDS.get(name);
+        return id != null ? id : add(name);
+    }
+
+    private static synchronized int add(String name) {
+        final Integer id = NAME_IDS.get(name);
+        if (id != null) {
+            return id;
+        }
+        final int newId = append(name);
+        NAME_IDS.put(name, newId);
+        return newId;
+    }
+
+    /**
+     * @param name The name of a constant or a functor.
+     * @return A new id which is not returned by {@link #intern(String)} for
+     * any name, though {@link #nameOf(int)} returns the given name for it.
+     */
+    public static synchronized int fresh(String name) {
+        return append(name);
+    }
+
+    private static int append(String name) {
+        if (numberOfNames == names.length) {
+            names = Arrays.copyOf(names, 2 * names.length);
+        }
+        names[numberOfNames] = name;
+        return numberOfNames++;
+    }
+
+    /**
+     * @param id The id of a name.
+     * @return The name.
+     * @throws IllegalArgumentException Thrown if the id is unknown.
+     */
+    public static String nameOf(int id) {
+        final String[] names = Symbols.names;
+        if (id < 0 || id >= names.length || names[id] == null) {
+            throw new IllegalArgumentException(String.format("Unknown symbol %d", id));
+        }
+        return names[id];
+    }
+
+    /**
+     * @param nameId The id of the name of a functor.
+     * @param arity  The number of arguments.
+     * @return The id of the functor with the arity, e.g. of father/2. Ids
+     * are dense as well, but independent of the ids of the names.
+     */
+    public static int functor(int nameId, int arity) {
+        final long key = ((long) nameId << 32) | arity;
+        final Integer id = FUNCTOR_IDS.get(key);
+        return id != null ? id : addFunctor(key);
+    }
+
+    private static synchronized int addFunctor(long key) {
+        return FUNCTOR_IDS.computeIfAbsent(key, k -> FUNCTOR_IDS.size());
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.L;
+import de.henm.morn.core.model.PredicateTerm;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Independent AND-parallelism: goals of a rule body which share no unbound
+ * variable are proven concurrently.
+ * <p>
+ * The body is split into segments of consecutive goals such that no unbound
+ * variable occurs in two segments, e.g. eligible(X) :- credit_ok(X),
+ * address_ok(X) yields two segments once X is bound. Segments are
+ * contiguous, so the answers are found in the same order as by the
+ * sequential search. Segments only consisting of comparisons are cheap and
+ * join the segment before them.
+ * <p>
+ * The analysis is done twice. When a rule is compiled, the body is split
+ * assuming that all variables of the head are bound
+ * ({@link #mightBeIndependent(ClauseTemplate)}); rules whose body cannot be
+ * split are never looked at again. When such a rule is resolved, the
+ * instantiated body is split by the variable cells which are actually
+ * unbound ({@link #segments(List)}).
+ * <p>
+ * Segments which only look up facts or compare are not worth a task, they
+ * stay in the body as they are. If at least {@link #MIN_FORKED_SEGMENTS}
+ * others are left, the first answer of each of them is searched in parallel,
+ * each segment with its own {@link Solutions}; a segment without an answer
+ * stops the others. The segments are replaced by joined goals which are
+ * resolved with the answers of their segment like with facts, so
+ * backtracking over the joined goals enumerates the combinations of answers.
+ * Further answers are only searched, by the thread of the caller, when the
+ * caller backtracks into a joined goal. A proof thus terminates whenever the
+ * sequential one does, and segments might have infinitely many answers.
+ *
+ * @author henm
+ */
+final class AndParallelism {
+
+    /**
+     * Bodies with fewer segments worth a task are proven sequentially.
+     */
+    static final int MIN_FORKED_SEGMENTS = 2;
+
+    private static final Functor JOIN = Functor.fresh("$join");
+
+    private AndParallelism() {
+    }
+
+    /**
+     * @return True iff the body of the template splits into at least two
+     * segments when all variables of the head are bound.
+     */
+    static boolean mightBeIndependent(ClauseTemplate template) {
+        final Set<Term> headSlots = Collections.newSetFromMap(new IdentityHashMap<>());
+        headSlots.addAll(variablesOf(template.getHead(), t -> t instanceof Slot ? t : null));
+        return split(template.getBody(),
+                t -> t instanceof Slot && !headSlots.contains(t) ? t : null).size() > 1;
+    }
+
+    /**
+     * @param goals The instantiated goals of a body.
+     * @return The goals split by the unbound variable cells they share.
+     */
+    static List<List<Term>> segments(List<Term> goals) {
+        return split(goals, t -> {
+            t = Bindings.deref(t);
+            return t instanceof Ref ? t : null;
+        });
+    }
+
+    /**
+     * Search the first answers of the segments in parallel.
+     *
+     * @param predicateTable The clauses.
+     * @param segments       The segments of the instantiated body.
+     * @param pool           The pool to prove the segments with.
+     * @return The body with a joined goal for every segment worth a task, the
+     * body as it is if there are too few of them, or null if a segment has no
+     * answer.
+     */
+    static List<Term> join(PredicateTable predicateTable, List<List<Term>> segments, ForkJoinPool pool) {
+        int forked = 0;
+        for (List<Term> segment : segments) {
+            if (!isCheap(predicateTable, segment)) {
+                forked++;
+            }
+        }
+
+        final List<Term> body = new ArrayList<>();
+        if (forked < MIN_FORKED_SEGMENTS) {
+            segments.forEach(body::addAll);
+            return body;
+        }
+
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(forked);
+        for (List<Term> segment : segments) {
+            if (isCheap(predicateTable, segment)) {
+                body.addAll(segment);
+                continue;
+            }
+            final JoinedGoal joinedGoal = new JoinedGoal(segment, predicateTable, failed, pool);
+            body.add(joinedGoal);
+            tasks.add(ForkJoinTask.adapt(() -> {
+                if (joinedGoal.getAnswer(0) == null) {
+                    failed.set(true);
+                }
+            }));
+        }
+
+        if (ForkJoinTask.getPool() == pool) {
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        }
+        return failed.get() ? null : body;
+    }
+
+    /**
+     * @return True iff the segment only compares or calls predicates without
+     * rules, which is not worth a task.
+     */
+    private static boolean isCheap(PredicateTable predicateTable, List<Term> segment) {
+        for (Term goal : segment) {
+            if (goal instanceof PredicateTerm) {
+                continue;
+            }
+            final PredicateKey key = PredicateKey.of(Bindings.deref(goal));
+            final Predicate predicate = key == null ? null : predicateTable.getPredicate(key);
+            if (key == null || predicate != null && predicate.hasRules()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split goals into contiguous segments which do not share variables.
+     *
+     * @param variable Returns the variable a subterm is, null if it is none.
+     */
+    private static List<List<Term>> split(List<Term> goals, Function<Term, Term> variable) {
+        final List<List<Term>> variables = new ArrayList<>(goals.size());
+        final Map<Term, Integer> lastOccurrences = new IdentityHashMap<>();
+        for (int i = 0; i < goals.size(); i++) {
+            final List<Term> goalVariables = variablesOf(goals.get(i), variable);
+            variables.add(goalVariables);
+            for (Term v : goalVariables) {
+                lastOccurrences.put(v, i);
+            }
+        }
+
+        final List<Integer> starts = new ArrayList<>();
+        int start = 0;
+        int reach = 0;
+        for (int i = 0; i < goals.size(); i++) {
+            for (Term v : variables.get(i)) {
+                reach = Math.max(reach, lastOccurrences.get(v));
+            }
+            if (reach <= i) {
+                // Comparisons are cheap, they join the segment before them
+                // or, at the start, the segment after them
+                final boolean cheap = isComparison(goals.subList(start, i + 1))
+                        || starts.size() == 1 && isComparison(goals.subList(0, start));
+                if (starts.isEmpty() || !cheap) {
+                    starts.add(start);
+                }
+                start = i + 1;
+            }
+        }
+
+        final List<List<Term>> segments = new ArrayList<>(starts.size());
+        for (int i = 0; i < starts.size(); i++) {
+            segments.add(goals.subList(starts.get(i), i + 1 < starts.size() ? starts.get(i + 1) : goals.size()));
+        }
+        return segments;
+    }
+
+    private static boolean isComparison(List<Term> segment) {
+        return segment.stream().allMatch(goal -> goal instanceof PredicateTerm);
+    }
+
+    private static List<Term> variablesOf(Term term, Function<Term, Term> variable) {
+        final List<Term> variables = new ArrayList<>();
+        final Deque<Term> pending = new ArrayDeque<>();
+        pending.push(term);
+        while (!pending.isEmpty()) {
+            final Term next = Bindings.deref(pending.pop());
+            final Term v = variable.apply(next);
+            if (v != null) {
+                variables.add(v);
+            } else {
+                TermTraversal.subterms(next).forEach(pending::push);
+            }
+        }
+        return variables;
+    }
+
+    /**
+     * Stands for a segment of a body. Its argument is the list of the unbound
+     * variable cells of the segment, which are bound by its answers.
+     */
+    static final class JoinedGoal implements CompoundTerm {
+
+        private final List<Term> goals;
+        private final Map<Ref, Variable> variables;
+        private final List<Term> arguments;
+        private final List<ClauseEntry> answers;
+        /**
+         * The search for further answers, null once all have been found.
+         */
+        private Solutions solutions;
+
+        /**
+         * Must be created by the thread owning the bindings of the goals.
+         *
+         * @param failed Stops the search once it is set.
+         */
+        private JoinedGoal(List<Term> segment, PredicateTable predicateTable, AtomicBoolean failed,
+                           ForkJoinPool pool) {
+            this.variables = new LinkedHashMap<>();
+            this.goals = new ArrayList<>(segment.size());
+            for (Term goal : segment) {
+                goals.add(TermTraversal.resolve(goal, t -> {
+                    t = Bindings.deref(t);
+                    return t instanceof Ref
+                            ? variables.computeIfAbsent((Ref) t, r -> new Variable("_J" + variables.size()))
+                            : t;
+                }));
+            }
+            this.arguments = Collections.singletonList(L.list(variables.keySet().toArray(new Term[0])));
+            this.answers = new ArrayList<>();
+            this.solutions = new Solutions(predicateTable, goals, failed, pool);
+        }
+
+        /**
+         * Get an answer of the segment, searching for it if it has not been
+         * found yet. Must only be called by one thread at a time.
+         *
+         * @param i The number of the answer.
+         * @return The answer as a fact or null if there are fewer answers.
+         */
+        ClauseEntry getAnswer(int i) {
+            while (answers.size() <= i && solutions != null) {
+                if (solutions.hasNext()) {
+                    answers.add(toFact(solutions.next()));
+                } else {
+                    solutions = null;
+                }
+            }
+            return i < answers.size() ? answers.get(i) : null;
+        }
+
+        /**
+         * @return False iff it is known that there are no more than i answers.
+         */
+        boolean mightHaveAnswer(int i) {
+            return i < answers.size() || solutions != null;
+        }
+
+        private ClauseEntry toFact(Answer answer) {
+            final Map<Ref, Variable> unbound = new IdentityHashMap<>();
+            final List<Term> values = new ArrayList<>(variables.size());
+            for (Variable v : variables.values()) {
+                // Cells left unbound by the proof become variables of the
+                // answer
+                values.add(TermTraversal.resolve(answer.get(v).orElse(v), t -> t instanceof Ref
+                        ? unbound.computeIfAbsent((Ref) t, r -> new Variable("_A" + unbound.size()))
+                        : t));
+            }
+            return new ClauseEntry(new Fact(JOIN.apply(L.list(values.toArray(new Term[0])))), answers.size());
+        }
+
+        @Override
+        public Functor getFunctor() {
+            return JOIN;
+        }
+
+        @Override
+        public List<Term> getArguments() {
+            return arguments;
+        }
+
+        @Override
+        public String toString() {
+            return goals.toString();
+        }
+    }
+}
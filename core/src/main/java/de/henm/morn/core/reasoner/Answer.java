@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A single answer to a query: the values of the variables of the query for one
+ * proof. Variables which are not bound by the proof have no value.
+ *
+ * @author henm
+ */
+public final class Answer {
+
+    private final Map<Variable, Term> bindings;
+
+    public Answer(Map<Variable, Term> bindings) {
+        this.bindings = Collections.unmodifiableMap(new LinkedHashMap<>(bindings));
+    }
+
+    /**
+     * @param variable A variable of the query.
+     * @return The value of the variable in this answer.
+     */
+    public Optional<Term> get(Variable variable) {
+        return Optional.ofNullable(bindings.get(variable));
+    }
+
+    /**
+     * @return The values of all bound variables of the query, in the order of
+     * their first occurrence.
+     */
+    public Map<Variable, Term> getBindings() {
+        return bindings;
+    }
+
+    Substitution toSubstitution() {
+        final Substitution substitution = new Substitution();
+        bindings.forEach(substitution::add);
+        return substitution;
+    }
+
+    @Override
+    public String toString() {
+        return bindings.toString();
+    }
+}
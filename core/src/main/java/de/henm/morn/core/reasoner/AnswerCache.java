@@ -0,0 +1,363 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.PredicateTerm;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Cache of the answers of goals, shared by all variants of a goal.
+ * <p>
+ * A goal which is not cached yet is evaluated lazily: the answers are
+ * recorded as they are consumed, so a later lookup of a variant first reads
+ * the recorded answers and only evaluates further if it consumes more of
+ * them. Answers of a variant are renamed to the variables of the goal
+ * looked up.
+ * <p>
+ * Every entry depends on the predicates its goal might call, i.e. the
+ * predicate of the goal and all predicates reachable from it through the
+ * bodies of their clauses. Adding or removing a clause only invalidates the
+ * entries depending on its predicate; entries of goals which might call any
+ * predicate, like rules with variable goals, are invalidated on every change.
+ * The least recently used entry is evicted once the cache is full.
+ * <p>
+ * The cache is thread-safe. Goals are evaluated without holding its lock; an
+ * evaluation which raced with an invalidation is not cached.
+ *
+ * @author henm
+ */
+public class AnswerCache {
+
+    private final PredicateTable predicateTable;
+    private final int maximumSize;
+    private final Map<List<Object>, Entry> entries;
+    private final Map<PredicateKey, Set<List<Object>>> dependents;
+    private final Set<List<Object>> dependentsOfAll;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+    /**
+     * Counts the invalidations, guards against caching evaluations which
+     * started before one.
+     */
+    private long version;
+
+    /**
+     * @param predicateTable The clauses the answers are derived from.
+     * @param maximumSize    The maximum number of goals to cache.
+     * @throws IllegalArgumentException Thrown if the size is not positive.
+     */
+    public AnswerCache(PredicateTable predicateTable, int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException(String.format("Cache size %d is not positive", maximumSize));
+        }
+        this.predicateTable = predicateTable;
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+                if (size() <= AnswerCache.this.maximumSize) {
+                    return false;
+                }
+                forget(eldest.getKey(), eldest.getValue());
+                evictions++;
+                return true;
+            }
+        };
+        this.dependents = new HashMap<>();
+        this.dependentsOfAll = new HashSet<>();
+    }
+
+    /**
+     * Get the answers of a goal from the cache, evaluating the goal only if
+     * no variant of it is cached or more answers are consumed than recorded.
+     *
+     * @param goal       The goal.
+     * @param evaluation Evaluates a goal which is not cached yet.
+     * @return A lazy stream of the answers.
+     */
+    public Stream<Answer> answers(Term goal, Function<Term, Iterator<Answer>> evaluation) {
+        final List<Object> key = Tables.keyOf(goal);
+        final Entry entry = lookup(key, goal, evaluation);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                new Reader(entry, variablesOf(goal)), Spliterator.ORDERED), false);
+    }
+
+    private Entry lookup(List<Object> key, Term goal, Function<Term, Iterator<Answer>> evaluation) {
+        final long versionBefore;
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return entry;
+            }
+            misses++;
+            versionBefore = version;
+        }
+
+        final Entry entry = new Entry(goal, evaluation.apply(goal), dependenciesOf(goal));
+        synchronized (this) {
+            final Entry cached = entries.get(key);
+            if (cached != null) {
+                // Another thread evaluated a variant meanwhile
+                return cached;
+            } else if (version == versionBefore) {
+                entries.put(key, entry);
+                if (entry.dependencies == null) {
+                    dependentsOfAll.add(key);
+                } else {
+                    for (PredicateKey predicate : entry.dependencies) {
+                        dependents.computeIfAbsent(predicate, p -> new HashSet<>()).add(key);
+                    }
+                }
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Invalidate all entries depending on a predicate, e.g. because a clause
+     * of it was added or removed.
+     *
+     * @param predicate The changed predicate.
+     */
+    public synchronized void invalidate(PredicateKey predicate) {
+        version++;
+        final Set<List<Object>> keys = new HashSet<>(dependentsOfAll);
+        keys.addAll(dependents.getOrDefault(predicate, Collections.emptySet()));
+        for (List<Object> key : keys) {
+            final Entry entry = entries.remove(key);
+            if (entry != null) {
+                forget(key, entry);
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Invalidate all entries.
+     */
+    public synchronized void clear() {
+        version++;
+        invalidations += entries.size();
+        entries.clear();
+        dependents.clear();
+        dependentsOfAll.clear();
+    }
+
+    /**
+     * @return The number of cached goals.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of lookups which found a variant of their goal.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of lookups which had to evaluate their goal.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of entries evicted because the cache was full.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return The number of entries invalidated because a predicate they
+     * depend on changed.
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("AnswerCache[size=%d, hits=%d, misses=%d, evictions=%d, invalidations=%d]",
+                entries.size(), hits, misses, evictions, invalidations);
+    }
+
+    private void forget(List<Object> key, Entry entry) {
+        if (entry.dependencies == null) {
+            dependentsOfAll.remove(key);
+            return;
+        }
+        for (PredicateKey predicate : entry.dependencies) {
+            final Set<List<Object>> keys = dependents.get(predicate);
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                dependents.remove(predicate);
+            }
+        }
+    }
+
+    /**
+     * @return The predicates the goal might call or null if it might call any
+     * predicate.
+     */
+    private Set<PredicateKey> dependenciesOf(Term goal) {
+        final Set<PredicateKey> dependencies = new HashSet<>();
+        final Deque<Term> pending = new ArrayDeque<>();
+        pending.push(goal);
+        while (!pending.isEmpty()) {
+            final Term next = pending.pop();
+            if (next instanceof Variable) {
+                return null;
+            } else if (next instanceof PredicateTerm) {
+                continue;
+            }
+            final PredicateKey key = PredicateKey.of(next);
+            if (key == null || !dependencies.add(key)) {
+                continue;
+            }
+            final Predicate predicate = predicateTable.getPredicate(key);
+            if (predicate != null) {
+                for (ClauseEntry entry : predicate.getEntries()) {
+                    entry.getClause().getBody().forEach(pending::push);
+                }
+            }
+        }
+        return dependencies;
+    }
+
+    /**
+     * @return The variables of the term in the order of their first
+     * occurrence, which is the order {@link Tables#keyOf(Term)} numbers them.
+     */
+    private static List<Variable> variablesOf(Term term) {
+        final List<Variable> variables = new ArrayList<>();
+        final Deque<Term> pending = new ArrayDeque<>();
+        pending.push(term);
+        while (!pending.isEmpty()) {
+            final Term next = pending.pop();
+            if (next instanceof Variable) {
+                if (!variables.contains(next)) {
+                    variables.add((Variable) next);
+                }
+                continue;
+            }
+            final List<Term> subterms = TermTraversal.subterms(next);
+            for (int i = subterms.size() - 1; i >= 0; i--) {
+                pending.push(subterms.get(i));
+            }
+        }
+        return variables;
+    }
+
+    /**
+     * The answers of a goal recorded so far and the evaluation producing the
+     * others.
+     */
+    private static final class Entry {
+        private final List<Variable> variables;
+        private final List<Answer> answers;
+        private final Set<PredicateKey> dependencies;
+        private Iterator<Answer> evaluation;
+
+        private Entry(Term goal, Iterator<Answer> evaluation, Set<PredicateKey> dependencies) {
+            this.variables = variablesOf(goal);
+            this.answers = new ArrayList<>();
+            this.evaluation = evaluation;
+            this.dependencies = dependencies;
+        }
+
+        /**
+         * @return The answer with the given index or null if there are fewer
+         * answers.
+         */
+        private synchronized Answer get(int index) {
+            while (answers.size() <= index && evaluation != null) {
+                if (evaluation.hasNext()) {
+                    answers.add(evaluation.next());
+                } else {
+                    evaluation = null;
+                }
+            }
+            return index < answers.size() ? answers.get(index) : null;
+        }
+    }
+
+    /**
+     * Reads the answers of an entry, renamed to the variables of a variant.
+     */
+    private static final class Reader implements Iterator<Answer> {
+        private final Entry entry;
+        private final List<Variable> variables;
+        private int index;
+
+        private Reader(Entry entry, List<Variable> variables) {
+            this.entry = entry;
+            this.variables = variables;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entry.get(index) != null;
+        }
+
+        @Override
+        public Answer next() {
+            final Answer answer = entry.get(index);
+            if (answer == null) {
+                throw new NoSuchElementException();
+            }
+            index++;
+            return variables.equals(entry.variables) ? answer : rename(answer);
+        }
+
+        private Answer rename(Answer answer) {
+            final Map<Variable, Term> bindings = new LinkedHashMap<>();
+            for (int i = 0; i < variables.size(); i++) {
+                final Variable variable = variables.get(i);
+                // Values might contain the variables of the cached goal
+                answer.get(entry.variables.get(i)).ifPresent(value -> bindings.put(variable,
+                        TermTraversal.replace(value, t -> t instanceof Variable && entry.variables.contains(t)
+                                ? variables.get(entry.variables.indexOf(t))
+                                : t)));
+            }
+            return new Answer(bindings);
+        }
+    }
+}
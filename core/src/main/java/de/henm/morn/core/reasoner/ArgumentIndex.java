@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.Constant;
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.L;
+import de.henm.morn.core.model.Term;
+
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hash index over one or more arguments of the clause heads of a predicate.
+ * <p>
+ * Clauses are grouped by the principal symbols of the indexed arguments.
+ * Clauses with a variable at one of these positions might match any call and
+ * are kept in a separate list which is merged into every lookup.
+ * <p>
+ * The index is immutable; adding or removing a clause yields a new index
+ * sharing most of its structure with the old one.
+ *
+ * @author henm
+ */
+final class ArgumentIndex {
+
+    static final Object NON_EMPTY_LIST = new Object() {
+        @Override
+        public String toString() {
+            return "[|]";
+        }
+    };
+
+    private final int[] positions;
+    private final Map<Object, ClauseList> clausesByKey;
+    private final ClauseList clausesWithVariable;
+
+    /**
+     * Create an empty index.
+     *
+     * @param positions The positions of the indexed arguments.
+     */
+    ArgumentIndex(int... positions) {
+        this(positions, HashMap.empty(), ClauseList.EMPTY);
+    }
+
+    private ArgumentIndex(int[] positions, Map<Object, ClauseList> clausesByKey, ClauseList clausesWithVariable) {
+        this.positions = positions;
+        this.clausesByKey = clausesByKey;
+        this.clausesWithVariable = clausesWithVariable;
+    }
+
+    /**
+     * @return The index with the entry added.
+     */
+    ArgumentIndex add(ClauseEntry entry) {
+        final Object key = keyOfArguments(entry.getClause().getHead());
+        if (key == null) {
+            return new ArgumentIndex(positions, clausesByKey, clausesWithVariable.add(entry));
+        }
+        return new ArgumentIndex(positions,
+                clausesByKey.put(key, clausesByKey.get(key).getOrElse(ClauseList.EMPTY).add(entry)),
+                clausesWithVariable);
+    }
+
+    /**
+     * @return The index without the entry.
+     */
+    ArgumentIndex remove(ClauseEntry entry) {
+        final Object key = keyOfArguments(entry.getClause().getHead());
+        if (key == null) {
+            return new ArgumentIndex(positions, clausesByKey, clausesWithVariable.remove(entry));
+        }
+        final ClauseList clauses = clausesByKey.get(key).getOrElse(ClauseList.EMPTY).remove(entry);
+        return new ArgumentIndex(positions,
+                clauses.size() == 0 ? clausesByKey.remove(key) : clausesByKey.put(key, clauses),
+                clausesWithVariable);
+    }
+
+    /**
+     * @param goal The goal to resolve.
+     * @return The entries matching the goal at the indexed positions or null if
+     * the goal is not bound at all of these positions.
+     */
+    List<ClauseEntry> getEntries(Term goal) {
+        final Object key = keyOfArguments(goal);
+        if (key == null) {
+            return null;
+        }
+
+        final ClauseList clauses = clausesByKey.get(key).getOrNull();
+        if (clauses == null) {
+            return clausesWithVariable.getEntries();
+        } else {
+            return ClauseList.merge(clauses, clausesWithVariable);
+        }
+    }
+
+    /**
+     * @param head The head of a clause.
+     * @return The entries of the clauses with the same key as the head, i.e.
+     * the only ones which might be equal to the clause.
+     */
+    List<ClauseEntry> getEntriesWithKeyOf(Term head) {
+        final Object key = keyOfArguments(head);
+        if (key == null) {
+            return clausesWithVariable.getEntries();
+        }
+        return clausesByKey.get(key).map(ClauseList::getEntries).getOrElse(Collections.emptyList());
+    }
+
+    /**
+     * @param goal The goal to resolve.
+     * @return The number of clauses a lookup for the goal yields or -1 if the
+     * goal is not bound at all indexed positions.
+     */
+    int count(Term goal) {
+        final Object key = keyOfArguments(goal);
+        if (key == null) {
+            return -1;
+        }
+
+        return clausesWithVariable.size() + clausesByKey.get(key).map(ClauseList::size).getOrElse(0);
+    }
+
+    /**
+     * @return The average number of clauses a lookup for a bound goal yields.
+     */
+    double getAverageLookupSize() {
+        final int indexedClauses = clausesByKey.values().map(ClauseList::size).sum().intValue();
+        final double averageBucketSize = clausesByKey.isEmpty() ? 0 : (double) indexedClauses / clausesByKey.size();
+        return averageBucketSize + clausesWithVariable.size();
+    }
+
+    int[] getPositions() {
+        return positions;
+    }
+
+    private Object keyOfArguments(Term term) {
+        final List<Term> arguments = ((CompoundTerm) term).getArguments();
+        if (positions.length == 1) {
+            return keyOf(arguments.get(positions[0]));
+        }
+
+        final List<Object> keys = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            final Object key = keyOf(arguments.get(position));
+            if (key == null) {
+                return null;
+            }
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ArgumentIndex%s", Arrays.toString(positions));
+    }
+
+    /**
+     * Terms with the same key might unify, terms with different keys never do.
+     *
+     * @param term The term to get the key for, bound variables are followed.
+     * @return The key of the term or null if the term might unify with terms
+     * of any key.
+     */
+    static Object keyOf(Term term) {
+        term = Bindings.deref(term);
+        if (term instanceof Constant) {
+            return term;
+        } else if (term instanceof IntegerTerm) {
+            return ((IntegerTerm) term).getValue();
+        } else if (term instanceof CompoundTerm) {
+            return PredicateKey.of(term);
+        } else if (term instanceof L) {
+            return ((L) term).isEmpty() ? L.EMPTY : NON_EMPTY_LIST;
+        } else {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Destructive binding store: variables are {@link Ref} cells which are bound
+ * in place. Bindings are recorded on a trail, so all bindings made after a
+ * mark can be undone when the reasoner backtracks.
+ * <p>
+ * Only bindings of cells older than the most recent choice point are
+ * recorded: a younger cell cannot be reached any more once the reasoner has
+ * backtracked to that choice point. Without choice points, deterministic
+ * programs therefore do not fill the trail at all.
+ * <p>
+ * Every query owns its bindings: they number the fresh cells of the query and
+ * hold the scratch stacks reused by unification and the occurs check. As all
+ * other state of a query lives in its {@link Solutions}, queries of one
+ * program share no mutable state apart from the answer tables of tabled
+ * predicates and can run in parallel.
+ *
+ * @author henm
+ */
+class Bindings {
+
+    private final List<Ref> trail;
+    private final Deque<Term> unificationStack;
+    private final Deque<Term> occursStack;
+    private int refCounter;
+    private int trailBoundary;
+
+    Bindings() {
+        this.trail = new ArrayList<>();
+        this.unificationStack = new ArrayDeque<>();
+        this.occursStack = new ArrayDeque<>();
+        this.refCounter = 0;
+        this.trailBoundary = Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return A fresh, unbound variable cell.
+     */
+    Ref newRef() {
+        return new Ref(refCounter++);
+    }
+
+    void bind(Ref ref, Term value) {
+        ref.value = value;
+        if (ref.getId() < trailBoundary) {
+            trail.add(ref);
+        }
+    }
+
+    /**
+     * @return The number of cells created so far. Cells created afterwards are
+     * younger than this number.
+     */
+    int getNumberOfRefs() {
+        return refCounter;
+    }
+
+    /**
+     * Only record bindings of cells created before the given number. By
+     * default all bindings are recorded.
+     *
+     * @param numberOfRefs The number of cells when the most recent choice
+     *                     point was created.
+     */
+    void setTrailBoundary(int numberOfRefs) {
+        this.trailBoundary = numberOfRefs;
+    }
+
+    /**
+     * @return A mark to undo all bindings made afterwards.
+     */
+    int mark() {
+        return trail.size();
+    }
+
+    /**
+     * Undo all bindings made after the mark was taken.
+     *
+     * @param mark The mark.
+     */
+    void undo(int mark) {
+        for (int i = trail.size() - 1; i >= mark; i--) {
+            trail.remove(i).value = null;
+        }
+    }
+
+    /**
+     * Follow the bindings of a term.
+     *
+     * @param term The term to dereference.
+     * @return The term itself if it is not a bound variable, otherwise the
+     * dereferenced value of the variable.
+     */
+    static Term deref(Term term) {
+        while (term instanceof Ref && ((Ref) term).isBound()) {
+            term = ((Ref) term).value;
+        }
+        return term;
+    }
+
+    /**
+     * @return The stack of pending pairs of terms to unify. Callers have to
+     * leave it as they found it.
+     */
+    Deque<Term> getUnificationStack() {
+        return unificationStack;
+    }
+
+    /**
+     * @return True iff the (unbound) variable occurs in the term.
+     */
+    boolean occurs(Ref ref, Term term) {
+        final Deque<Term> stack = occursStack;
+        stack.push(term);
+        while (!stack.isEmpty()) {
+            final Term t = deref(stack.pop());
+            if (t == ref) {
+                stack.clear();
+                return true;
+            }
+            TermTraversal.subterms(t).forEach(stack::push);
+        }
+        return false;
+    }
+
+    /**
+     * Replace the (non-cell) variables of a term by variable cells.
+     *
+     * @param term      The term.
+     * @param variables Cells already assigned to variables, new cells are added.
+     * @return The term with variable cells.
+     */
+    Term importTerm(Term term, Map<Variable, Ref> variables) {
+        return TermTraversal.replace(term, t -> t instanceof Variable && !(t instanceof Ref)
+                ? variables.computeIfAbsent((Variable) t, v -> newRef())
+                : t);
+    }
+
+    /**
+     * Build a term with all bound variables replaced by their values.
+     *
+     * @param term      The term to resolve.
+     * @param variables Unbound cells contained in this map are replaced by the
+     *                  variable they were imported for.
+     * @return The resolved term.
+     */
+    Term resolve(Term term, Map<Ref, Variable> variables) {
+        return TermTraversal.resolve(term, t -> {
+            t = deref(t);
+            return t instanceof Ref ? variables.getOrDefault(t, (Ref) t) : t;
+        });
+    }
+
+    /**
+     * Resolve the current bindings of imported variables.
+     *
+     * @param variables The cells assigned to variables by {@link #importTerm}.
+     * @return The resolved value of each variable whose cell is bound, in the
+     * order of the given map.
+     */
+    Map<Variable, Term> valuesOf(Map<Variable, Ref> variables) {
+        final Map<Ref, Variable> importedVariables = new IdentityHashMap<>();
+        variables.forEach((variable, ref) -> importedVariables.put(ref, variable));
+
+        final Map<Variable, Term> values = new LinkedHashMap<>();
+        for (Map.Entry<Variable, Ref> entry : variables.entrySet()) {
+            if (entry.getValue().isBound()) {
+                values.put(entry.getKey(), resolve(entry.getValue(), importedVariables));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Build a substitution from the current bindings of imported variables.
+     *
+     * @param variables The cells assigned to variables by {@link #importTerm}.
+     * @return A substitution mapping each variable whose cell is bound to its
+     * resolved value.
+     */
+    Substitution toSubstitution(Map<Variable, Ref> variables) {
+        final Substitution substitution = new Substitution();
+        valuesOf(variables).forEach(substitution::add);
+        return substitution;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import java.util.List;
+
+/**
+ * The clauses which are left to resolve a goal with, together with the state
+ * to restore before the next one is tried.
+ *
+ * @author henm
+ */
+class ChoicePoint {
+
+    private final Goals goals;
+    private final List<ClauseEntry> entries;
+    /**
+     * The joined goal whose answers are the clauses, might be null.
+     */
+    private final AndParallelism.JoinedGoal joinedGoal;
+    private final int mark;
+    private final int numberOfRefs;
+    private int next;
+
+    /**
+     * @param goals    The goals to prove, starting with the goal to resolve.
+     * @param entries  The clauses the goal might be resolved with.
+     * @param bindings The binding store when the goal is called.
+     */
+    ChoicePoint(Goals goals, List<ClauseEntry> entries, Bindings bindings) {
+        this(goals, entries, null, bindings);
+    }
+
+    /**
+     * @param joinedGoal The joined goal to resolve with its answers, which
+     *                   are searched when they are needed.
+     */
+    ChoicePoint(Goals goals, AndParallelism.JoinedGoal joinedGoal, Bindings bindings) {
+        this(goals, null, joinedGoal, bindings);
+    }
+
+    private ChoicePoint(Goals goals, List<ClauseEntry> entries, AndParallelism.JoinedGoal joinedGoal,
+                        Bindings bindings) {
+        this.goals = goals;
+        this.entries = entries;
+        this.joinedGoal = joinedGoal;
+        this.mark = bindings.mark();
+        this.numberOfRefs = bindings.getNumberOfRefs();
+        this.next = 0;
+    }
+
+    Goals getGoals() {
+        return goals;
+    }
+
+    int getMark() {
+        return mark;
+    }
+
+    int getNumberOfRefs() {
+        return numberOfRefs;
+    }
+
+    /**
+     * @return False iff there are no clauses left. For a joined goal it might
+     * only turn out by {@link #next()}.
+     */
+    boolean hasNext() {
+        return joinedGoal == null ? next < entries.size() : joinedGoal.mightHaveAnswer(next);
+    }
+
+    /**
+     * @return The next clause or null if a joined goal has no more answers.
+     */
+    ClauseEntry next() {
+        return joinedGoal == null ? entries.get(next++) : joinedGoal.getAnswer(next++);
+    }
+}
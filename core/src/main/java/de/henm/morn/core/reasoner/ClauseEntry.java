@@ -0,0 +1,64 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.Fact;
+
+/**
+ * A clause as stored in a predicate together with its precompiled template and
+ * the closures compiled from it.
+ * <p>
+ * Entries are ordered the way the reasoner tries them: facts before rules and
+ * otherwise by the order of insertion.
+ *
+ * @author henm
+ */
+class ClauseEntry implements Comparable<ClauseEntry> {
+
+    private final Clause clause;
+    private final CompiledClause code;
+    private final int sequenceNumber;
+
+    ClauseEntry(Clause clause, int sequenceNumber) {
+        this.clause = clause;
+        this.code = CompiledClause.compile(ClauseTemplate.compile(clause));
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    Clause getClause() {
+        return clause;
+    }
+
+    ClauseTemplate getTemplate() {
+        return code.getTemplate();
+    }
+
+    CompiledClause getCode() {
+        return code;
+    }
+
+    boolean isFact() {
+        return clause instanceof Fact;
+    }
+
+    @Override
+    public int compareTo(ClauseEntry other) {
+        if (isFact() != other.isFact()) {
+            return isFact() ? -1 : 1;
+        }
+        return Integer.compare(sequenceNumber, other.sequenceNumber);
+    }
+}
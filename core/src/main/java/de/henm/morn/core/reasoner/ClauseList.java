@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import io.vavr.collection.Vector;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list of clause entries which is kept in the order the entries
+ * are tried by the reasoner.
+ * <p>
+ * Facts and rules are kept in persistent vectors, so adding or removing an
+ * entry shares almost all of the structure with the original list. Short
+ * lists, like most buckets of indexes, are also copied into an array which
+ * is faster to read.
+ *
+ * @author henm
+ */
+final class ClauseList {
+
+    static final ClauseList EMPTY = new ClauseList(Vector.empty(), Vector.empty());
+
+    /**
+     * Lists up to this size are copied into an array.
+     */
+    private static final int MAX_ARRAY_SIZE = 16;
+
+    private final Vector<ClauseEntry> facts;
+    private final Vector<ClauseEntry> rules;
+    private final List<ClauseEntry> entries;
+
+    private ClauseList(Vector<ClauseEntry> facts, Vector<ClauseEntry> rules) {
+        this.facts = facts;
+        this.rules = rules;
+        this.entries = size() <= MAX_ARRAY_SIZE
+                ? Collections.unmodifiableList(Arrays.asList(facts.appendAll(rules).toJavaArray(ClauseEntry.class)))
+                : new Entries();
+    }
+
+    /**
+     * Entries are expected to be added in the order of their sequence numbers.
+     *
+     * @param entry The entry to add.
+     * @return The list with the entry added.
+     */
+    ClauseList add(ClauseEntry entry) {
+        return entry.isFact()
+                ? new ClauseList(facts.append(entry), rules)
+                : new ClauseList(facts, rules.append(entry));
+    }
+
+    /**
+     * @param entry The entry to remove.
+     * @return The list without the entry, this list if it does not contain
+     * the entry.
+     */
+    ClauseList remove(ClauseEntry entry) {
+        if (entry.isFact()) {
+            final int i = indexOf(facts, entry);
+            return i < 0 ? this : new ClauseList(facts.removeAt(i), rules);
+        }
+        final int i = indexOf(rules, entry);
+        return i < 0 ? this : new ClauseList(facts, rules.removeAt(i));
+    }
+
+    /**
+     * Entries are sorted by their sequence numbers, so they are found by
+     * binary search instead of comparing them one by one.
+     *
+     * @return The position of the entry or -1 if it is not contained.
+     */
+    private static int indexOf(Vector<ClauseEntry> entries, ClauseEntry entry) {
+        int low = 0;
+        int high = entries.size() - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = entries.get(middle).compareTo(entry);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return entries.get(middle) == entry ? middle : -1;
+            }
+        }
+        return -1;
+    }
+
+    int size() {
+        return facts.size() + rules.size();
+    }
+
+    boolean hasRules() {
+        return !rules.isEmpty();
+    }
+
+    /**
+     * @return An unmodifiable view of the entries, facts first.
+     */
+    List<ClauseEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Merge the entries of two lists preserving the order of the reasoner.
+     *
+     * @param l1 First list.
+     * @param l2 Second list.
+     * @return The entries of both lists.
+     */
+    static List<ClauseEntry> merge(ClauseList l1, ClauseList l2) {
+        final List<ClauseEntry> entries1 = l1.entries;
+        final List<ClauseEntry> entries2 = l2.entries;
+        final List<ClauseEntry> entries = new ArrayList<>(entries1.size() + entries2.size());
+
+        int i = 0;
+        int j = 0;
+        while (i < entries1.size() && j < entries2.size()) {
+            if (entries1.get(i).compareTo(entries2.get(j)) <= 0) {
+                entries.add(entries1.get(i++));
+            } else {
+                entries.add(entries2.get(j++));
+            }
+        }
+        while (i < entries1.size()) {
+            entries.add(entries1.get(i++));
+        }
+        while (j < entries2.size()) {
+            entries.add(entries2.get(j++));
+        }
+
+        return entries;
+    }
+
+    private final class Entries extends AbstractList<ClauseEntry> implements RandomAccess {
+        @Override
+        public ClauseEntry get(int index) {
+            return index < facts.size() ? facts.get(index) : rules.get(index - facts.size());
+        }
+
+        @Override
+        public int size() {
+            return facts.size() + rules.size();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A clause compiled once when it is stored: its variables are replaced by
+ * slots numbered 0..n-1.
+ * <p>
+ * Instead of renaming the variables of a clause on every call, the reasoner
+ * allocates a frame with n empty slots and matches the goal against the
+ * template. Only slots which are still empty when a term of the template has
+ * to be built are filled with fresh variables (see {@link Frame}).
+ *
+ * @author henm
+ */
+class ClauseTemplate {
+
+    private final Term head;
+    private final List<Term> body;
+    private final int numberOfSlots;
+
+    private ClauseTemplate(Term head, List<Term> body, int numberOfSlots) {
+        this.head = head;
+        this.body = body;
+        this.numberOfSlots = numberOfSlots;
+    }
+
+    static ClauseTemplate compile(Clause clause) {
+        final Map<Variable, Slot> slots = new LinkedHashMap<>();
+
+        final Term head = compile(clause.getHead(), slots);
+        final List<Term> body = new ArrayList<>(clause.getBody().size());
+        for (Term term : clause.getBody()) {
+            body.add(compile(term, slots));
+        }
+
+        return new ClauseTemplate(head, Collections.unmodifiableList(body), slots.size());
+    }
+
+    private static Term compile(Term term, Map<Variable, Slot> slots) {
+        return TermTraversal.replace(term, t -> t instanceof Variable
+                ? slots.computeIfAbsent((Variable) t, v -> new Slot(slots.size()))
+                : t);
+    }
+
+    Term getHead() {
+        return head;
+    }
+
+    List<Term> getBody() {
+        return body;
+    }
+
+    int getNumberOfSlots() {
+        return numberOfSlots;
+    }
+
+    @Override
+    public String toString() {
+        return body.isEmpty() ? String.format("%s.", head) : String.format("%s :- %s.", head, body);
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.*;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A clause template compiled into closures.
+ * <p>
+ * The head becomes a tree of matchers and every goal of the body a tree of
+ * builders, each specialized on one subterm of the template. Matching a goal
+ * only dispatches on the goal, the template is never inspected again: it is
+ * known in advance which kind of term each matcher expects, whether a slot is
+ * met for the first time and which subterms are ground and can be shared.
+ * <p>
+ * Closures call each other recursively, so templates nested deeper than
+ * {@link #MAX_DEPTH} are left to {@link TemplateUnification} and
+ * {@link Frame#instantiate(Term)}, which work on an explicit stack.
+ *
+ * @author henm
+ */
+final class CompiledClause {
+
+    static final int MAX_DEPTH = 64;
+
+    private static final CompoundTermFactory COMPOUND_TERM_FACTORY = new CompoundTermFactory();
+    private static final Unification UNIFICATION = new Unification();
+    private static final TemplateUnification TEMPLATE_UNIFICATION = new TemplateUnification();
+
+    /**
+     * Matches a part of the goal against a subterm of the template. On failure
+     * some bindings might have been made, the caller is responsible to undo them.
+     */
+    @FunctionalInterface
+    interface Matcher {
+        boolean match(Term term, Frame frame, Bindings bindings);
+    }
+
+    /**
+     * Builds a subterm of the template from the bindings of the slots.
+     */
+    @FunctionalInterface
+    interface Builder {
+        Term build(Frame frame);
+    }
+
+    private final ClauseTemplate template;
+    private final Matcher head;
+    private final Builder[] body;
+    private final boolean independentGoals;
+
+    private CompiledClause(ClauseTemplate template, Matcher head, Builder[] body) {
+        this.template = template;
+        this.head = head;
+        this.body = body;
+        this.independentGoals = AndParallelism.mightBeIndependent(template);
+    }
+
+    static CompiledClause compile(ClauseTemplate template) {
+        final List<Term> bodyTerms = template.getBody();
+        final Builder[] body = new Builder[bodyTerms.size()];
+
+        if (depthOf(template.getHead()) > MAX_DEPTH) {
+            final Term headTerm = template.getHead();
+            for (int i = 0; i < body.length; i++) {
+                final Term term = bodyTerms.get(i);
+                body[i] = frame -> frame.instantiate(term);
+            }
+            return new CompiledClause(template,
+                    (goal, frame, bindings) -> TEMPLATE_UNIFICATION.unify(goal, headTerm, frame, bindings), body);
+        }
+
+        final boolean[] seen = new boolean[template.getNumberOfSlots()];
+        final Matcher head = matcher(template.getHead(), seen);
+        for (int i = 0; i < body.length; i++) {
+            final Term term = bodyTerms.get(i);
+            if (depthOf(term) > MAX_DEPTH) {
+                markSlots(term, seen);
+                body[i] = frame -> frame.instantiate(term);
+            } else {
+                body[i] = bodyBuilder(term, seen);
+            }
+        }
+        return new CompiledClause(template, head, body);
+    }
+
+    ClauseTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return True iff the body might contain goals which can be proven in
+     * parallel, see {@link AndParallelism}.
+     */
+    boolean hasIndependentGoals() {
+        return independentGoals;
+    }
+
+    /**
+     * Unify a goal with the head of the clause, filling the slots of the frame.
+     *
+     * @see TemplateUnification#unify(Term, Term, Frame, Bindings)
+     */
+    boolean unifyHead(Term goal, Frame frame, Bindings bindings) {
+        return head.match(goal, frame, bindings);
+    }
+
+    /**
+     * @return The goals of the body with the slots replaced by their bindings.
+     * Must only be called after the head has been unified.
+     */
+    List<Term> instantiateBody(Frame frame) {
+        final List<Term> goals = new ArrayList<>(body.length);
+        for (Builder builder : body) {
+            goals.add(builder.build(frame));
+        }
+        return goals;
+    }
+
+    private static Matcher matcher(Term term, boolean[] seen) {
+        if (term instanceof Slot) {
+            final Slot slot = (Slot) term;
+            if (seen[slot.getIndex()]) {
+                return (t, frame, bindings) -> UNIFICATION.unify(t, frame.get(slot), bindings);
+            }
+            seen[slot.getIndex()] = true;
+            return (t, frame, bindings) -> {
+                frame.set(slot, Bindings.deref(t));
+                return true;
+            };
+        }
+
+        final Builder builder = headBuilder(term);
+        final boolean ground = isGround(term);
+
+        if (term instanceof IntegerTerm) {
+            final int value = ((IntegerTerm) term).getValue();
+            return (t, frame, bindings) -> {
+                t = Bindings.deref(t);
+                if (t instanceof Ref) {
+                    bindings.bind((Ref) t, term);
+                    return true;
+                }
+                return t instanceof IntegerTerm && ((IntegerTerm) t).getValue() == value;
+            };
+
+        } else if (term instanceof L && !((L) term).isEmpty()) {
+            final Matcher head = matcher(((L) term).getHead(), seen);
+            final Matcher tail = matcher(((L) term).getTail(), seen);
+            return (t, frame, bindings) -> {
+                t = Bindings.deref(t);
+                if (t instanceof L) {
+                    final L list = (L) t;
+                    return !list.isEmpty()
+                            && head.match(list.getHead(), frame, bindings)
+                            && tail.match(list.getTail(), frame, bindings);
+                }
+                return t instanceof Ref && bind((Ref) t, builder.build(frame), ground, bindings);
+            };
+
+        } else if (term instanceof CompoundTerm) {
+            final int functor = ((CompoundTerm) term).getFunctor().getId();
+            final List<Term> arguments = ((CompoundTerm) term).getArguments();
+            final Matcher[] matchers = new Matcher[arguments.size()];
+            for (int i = 0; i < matchers.length; i++) {
+                matchers[i] = matcher(arguments.get(i), seen);
+            }
+            return (t, frame, bindings) -> {
+                t = Bindings.deref(t);
+                if (t instanceof CompoundTerm) {
+                    final CompoundTerm compoundTerm = (CompoundTerm) t;
+                    if (compoundTerm.getFunctor().getId() != functor) {
+                        return false;
+                    }
+                    final List<Term> goalArguments = compoundTerm.getArguments();
+                    if (goalArguments.size() != matchers.length) {
+                        return false;
+                    }
+                    for (int i = 0; i < matchers.length; i++) {
+                        if (!matchers[i].match(goalArguments.get(i), frame, bindings)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+                return t instanceof Ref && bind((Ref) t, builder.build(frame), ground, bindings);
+            };
+
+        } else {
+            // Constants, the empty list and all other terms only match
+            // themselves
+            for (Term subterm : TermTraversal.subterms(term)) {
+                markSlots(subterm, seen);
+            }
+            return (t, frame, bindings) -> {
+                t = Bindings.deref(t);
+                if (t instanceof Ref) {
+                    return bind((Ref) t, builder.build(frame), ground, bindings);
+                }
+                return ground && term.equals(t);
+            };
+        }
+    }
+
+    private static boolean bind(Ref ref, Term term, boolean ground, Bindings bindings) {
+        if (!ground && bindings.occurs(ref, term)) {
+            return false;
+        }
+        bindings.bind(ref, term);
+        return true;
+    }
+
+    /**
+     * A builder for a subterm of the head, where it is not known in advance
+     * which slots are filled when the term has to be built.
+     */
+    private static Builder headBuilder(Term term) {
+        return builder(term, slot -> frame -> {
+            if (frame.get(slot) == null) {
+                frame.set(slot, frame.newVariable());
+            }
+            return frame.get(slot);
+        });
+    }
+
+    /**
+     * A builder for a goal of the body. Slots met in the head are always
+     * filled, the others are filled with fresh variables where they occur for
+     * the first time.
+     */
+    private static Builder bodyBuilder(Term term, boolean[] seen) {
+        return builder(term, slot -> {
+            if (seen[slot.getIndex()]) {
+                return frame -> frame.get(slot);
+            }
+            seen[slot.getIndex()] = true;
+            return frame -> {
+                final Term variable = frame.newVariable();
+                frame.set(slot, variable);
+                return variable;
+            };
+        });
+    }
+
+    private static Builder builder(Term term, Function<Slot, Builder> slotBuilder) {
+        if (term instanceof Slot) {
+            return slotBuilder.apply((Slot) term);
+
+        } else if (isGround(term)) {
+            // Ground parts of the template are shared by all instances
+            return frame -> term;
+
+        } else if (term instanceof L) {
+            final Builder head = builder(((L) term).getHead(), slotBuilder);
+            final Builder tail = builder(((L) term).getTail(), slotBuilder);
+            return frame -> new L(head.build(frame), tail.build(frame));
+
+        } else if (term instanceof PredicateTerm) {
+            final PredicateTerm predicateTerm = (PredicateTerm) term;
+            final Builder t1 = builder(predicateTerm.getT1(), slotBuilder);
+            final Builder t2 = builder(predicateTerm.getT2(), slotBuilder);
+            return frame -> new PredicateTerm(predicateTerm.getPredicate(), t1.build(frame), t2.build(frame));
+
+        } else {
+            final Functor functor = ((CompoundTerm) term).getFunctor();
+            final List<Term> arguments = ((CompoundTerm) term).getArguments();
+            final Builder[] builders = new Builder[arguments.size()];
+            for (int i = 0; i < builders.length; i++) {
+                builders[i] = builder(arguments.get(i), slotBuilder);
+            }
+            switch (builders.length) {
+                case 1:
+                    return frame -> COMPOUND_TERM_FACTORY.build(functor, builders[0].build(frame));
+                case 2:
+                    return frame -> COMPOUND_TERM_FACTORY.build(functor,
+                            builders[0].build(frame), builders[1].build(frame));
+                case 3:
+                    return frame -> COMPOUND_TERM_FACTORY.build(functor,
+                            builders[0].build(frame), builders[1].build(frame), builders[2].build(frame));
+                default:
+                    return frame -> {
+                        final List<Term> terms = new ArrayList<>(builders.length);
+                        for (Builder builder : builders) {
+                            terms.add(builder.build(frame));
+                        }
+                        return COMPOUND_TERM_FACTORY.build(functor, terms);
+                    };
+            }
+        }
+    }
+
+    private static void markSlots(Term term, boolean[] seen) {
+        final Deque<Term> pending = new ArrayDeque<>();
+        pending.push(term);
+        while (!pending.isEmpty()) {
+            final Term next = pending.pop();
+            if (next instanceof Slot) {
+                seen[((Slot) next).getIndex()] = true;
+            }
+            TermTraversal.subterms(next).forEach(pending::push);
+        }
+    }
+
+    private static boolean isGround(Term term) {
+        final Deque<Term> pending = new ArrayDeque<>();
+        pending.push(term);
+        while (!pending.isEmpty()) {
+            final Term next = pending.pop();
+            if (next instanceof Slot) {
+                return false;
+            }
+            TermTraversal.subterms(next).forEach(pending::push);
+        }
+        return true;
+    }
+
+    private static int depthOf(Term term) {
+        int depth = 0;
+        final Deque<Tuple2<Term, Integer>> pending = new ArrayDeque<>();
+        pending.push(Tuple.of(term, 1));
+        while (!pending.isEmpty()) {
+            final Tuple2<Term, Integer> next = pending.pop();
+            depth = Math.max(depth, next._2);
+            for (Term subterm : TermTraversal.subterms(next._1)) {
+                pending.push(Tuple.of(subterm, next._2 + 1));
+            }
+        }
+        return depth;
+    }
+}
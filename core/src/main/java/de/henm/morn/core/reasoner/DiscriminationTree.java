@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.L;
+import de.henm.morn.core.model.Term;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Map;
+import io.vavr.collection.Seq;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Discrimination tree over the complete shape of clause heads.
+ * <p>
+ * Every head is flattened into the sequence of its symbols in preorder, e.g.
+ * event(meta(src(a), *)) becomes [meta/2, src/1, a, *], where * stands for a
+ * variable. The sequences are stored in a trie. A lookup walks the trie along
+ * the symbols of the goal: a variable in the goal skips a complete subterm of
+ * the trie, a variable in a head skips a complete subterm of the goal. The
+ * result contains every clause whose head might unify with the goal; as
+ * repeated variables are not taken into account it might contain some more.
+ * <p>
+ * The tree is persistent: adding or removing a clause copies the nodes along
+ * its path and shares all others with the original tree, which stays
+ * unchanged.
+ *
+ * @author henm
+ */
+class DiscriminationTree {
+
+    private static final Object VARIABLE = new Object() {
+        @Override
+        public String toString() {
+            return "*";
+        }
+    };
+
+    static final DiscriminationTree EMPTY = new DiscriminationTree(Node.EMPTY);
+
+    private final Node root;
+
+    private DiscriminationTree(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * @return The tree with the entry added.
+     */
+    DiscriminationTree add(ClauseEntry entry) {
+        return new DiscriminationTree(update(symbolsOf(entry), entries -> entries.add(entry)));
+    }
+
+    /**
+     * @return The tree without the entry, this tree if it does not contain
+     * the entry.
+     */
+    DiscriminationTree remove(ClauseEntry entry) {
+        final Node root = update(symbolsOf(entry), entries -> entries.remove(entry));
+        return root == null ? this : new DiscriminationTree(root);
+    }
+
+    /**
+     * Copy the path to the node of a sequence of symbols with its entries
+     * updated. Nodes left without entries and children are dropped.
+     *
+     * @return The new root or null if the update does not change the entries.
+     */
+    private Node update(List<Object> symbols, UnaryOperator<ClauseList> update) {
+        final Node[] path = new Node[symbols.size() + 1];
+        path[0] = root;
+        for (int i = 0; i < symbols.size() && path[i] != null; i++) {
+            path[i + 1] = path[i].children.get(symbols.get(i)).getOrNull();
+        }
+
+        final Node last = path[symbols.size()] == null ? Node.EMPTY : path[symbols.size()];
+        final ClauseList entries = update.apply(last.entries);
+        if (entries == last.entries) {
+            return null;
+        }
+
+        Node node = new Node(last.children, entries);
+        for (int i = symbols.size() - 1; i >= 0; i--) {
+            final Node parent = path[i] == null ? Node.EMPTY : path[i];
+            node = new Node(node.isEmpty()
+                    ? parent.children.remove(symbols.get(i))
+                    : parent.children.put(symbols.get(i), node), parent.entries);
+        }
+        return node;
+    }
+
+    /**
+     * @return The symbols of the arguments of the head in preorder.
+     */
+    private static List<Object> symbolsOf(ClauseEntry entry) {
+        final List<Object> symbols = new ArrayList<>();
+        Seq<Term> terms = arguments(entry.getClause().getHead());
+        while (!terms.isEmpty()) {
+            final Term term = terms.head();
+            symbols.add(symbolOf(term));
+            terms = terms.tail().prependAll(arguments(term));
+        }
+        return symbols;
+    }
+
+    /**
+     * @param goal The goal to resolve.
+     * @return The entries of all clauses whose heads might unify with the goal,
+     * facts first.
+     */
+    List<ClauseEntry> getEntries(Term goal) {
+        final List<ClauseEntry> entries = new ArrayList<>();
+        // Pairs of a node and the goal terms still to match below it
+        final Deque<Tuple2<Node, Seq<Term>>> pending = new ArrayDeque<>();
+        pending.push(Tuple.of(root, arguments(goal)));
+
+        while (!pending.isEmpty()) {
+            final Node node = pending.peek()._1;
+            final Seq<Term> terms = pending.pop()._2;
+            if (terms.isEmpty()) {
+                entries.addAll(node.entries.getEntries());
+                continue;
+            }
+
+            final Term term = Bindings.deref(terms.head());
+            final Object symbol = symbolOf(term);
+            if (symbol == VARIABLE) {
+                // A variable in the goal matches any subterm of the heads
+                for (Node next : skipSubterm(node)) {
+                    pending.push(Tuple.of(next, terms.tail()));
+                }
+                continue;
+            }
+
+            final Node child = node.children.get(symbol).getOrNull();
+            if (child != null) {
+                pending.push(Tuple.of(child, terms.tail().prependAll(arguments(term))));
+            }
+
+            // A variable in the heads matches the whole subterm of the goal
+            final Node variableChild = node.children.get(VARIABLE).getOrNull();
+            if (variableChild != null) {
+                pending.push(Tuple.of(variableChild, terms.tail()));
+            }
+        }
+
+        Collections.sort(entries);
+        return entries;
+    }
+
+    /**
+     * @return All nodes reached by skipping one complete subterm.
+     */
+    private List<Node> skipSubterm(Node node) {
+        final List<Node> nodes = new ArrayList<>();
+        // Pairs of a node and the number of subterms still to skip below it
+        final Deque<Tuple2<Node, Integer>> pending = new ArrayDeque<>();
+        pending.push(Tuple.of(node, 1));
+
+        while (!pending.isEmpty()) {
+            final Tuple2<Node, Integer> next = pending.pop();
+            if (next._2 == 0) {
+                nodes.add(next._1);
+                continue;
+            }
+            for (Tuple2<Object, Node> child : next._1.children) {
+                pending.push(Tuple.of(child._2, next._2 - 1 + arityOf(child._1)));
+            }
+        }
+        return nodes;
+    }
+
+    private static Object symbolOf(Term term) {
+        final Object key = ArgumentIndex.keyOf(term);
+        return key == null ? VARIABLE : key;
+    }
+
+    private static int arityOf(Object symbol) {
+        if (symbol instanceof PredicateKey) {
+            return ((PredicateKey) symbol).getArity();
+        } else if (symbol == ArgumentIndex.NON_EMPTY_LIST) {
+            return 2;
+        } else {
+            return 0;
+        }
+    }
+
+    private static Seq<Term> arguments(Term term) {
+        term = Bindings.deref(term);
+        if (term instanceof CompoundTerm) {
+            return io.vavr.collection.List.ofAll(((CompoundTerm) term).getArguments());
+        } else if (term instanceof L && !((L) term).isEmpty()) {
+            final L list = (L) term;
+            return io.vavr.collection.List.of(list.getHead(), list.getTail());
+        } else {
+            return io.vavr.collection.List.empty();
+        }
+    }
+
+    /**
+     * Check if a goal contains structure below its arguments, i.e. an argument
+     * which is a compound term or a list with an argument which is not a variable.
+     *
+     * @param goal The goal to check.
+     * @return True iff the goal is nested.
+     */
+    static boolean isNested(Term goal) {
+        for (Term argument : arguments(goal)) {
+            for (Term subterm : arguments(argument)) {
+                if (symbolOf(subterm) != VARIABLE) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static final class Node {
+        private static final Node EMPTY = new Node(HashMap.empty(), ClauseList.EMPTY);
+
+        private final Map<Object, Node> children;
+        private final ClauseList entries;
+
+        private Node(Map<Object, Node> children, ClauseList entries) {
+            this.children = children;
+            this.entries = entries;
+        }
+
+        private boolean isEmpty() {
+            return children.isEmpty() && entries.size() == 0;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.Term;
+
+/**
+ * The bindings of the slots of a clause template for a single call.
+ *
+ * @author henm
+ */
+class Frame {
+
+    private final Term[] slots;
+    private final Bindings bindings;
+
+    Frame(ClauseTemplate template, Bindings bindings) {
+        this.slots = new Term[template.getNumberOfSlots()];
+        this.bindings = bindings;
+    }
+
+    /**
+     * @return The term bound to the slot or null if the slot is empty.
+     */
+    Term get(Slot slot) {
+        return slots[slot.getIndex()];
+    }
+
+    void set(Slot slot, Term term) {
+        slots[slot.getIndex()] = term;
+    }
+
+    /**
+     * @return A fresh variable cell for an empty slot.
+     */
+    Term newVariable() {
+        return bindings.newRef();
+    }
+
+    /**
+     * Build a term of the template, replacing each slot by its binding. Empty
+     * slots are bound to fresh variable cells.
+     *
+     * @param term A term of the template.
+     * @return The instantiated term.
+     */
+    Term instantiate(Term term) {
+        return TermTraversal.replace(term, t -> {
+            if (t instanceof Slot) {
+                final Slot slot = (Slot) t;
+                if (get(slot) == null) {
+                    set(slot, newVariable());
+                }
+                return get(slot);
+            }
+            return t;
+        });
+    }
+}
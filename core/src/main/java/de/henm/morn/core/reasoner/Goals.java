@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.Term;
+
+import java.util.List;
+
+/**
+ * Immutable list of goals which still have to be proven.
+ * <p>
+ * Resolving the first goal with a rule replaces it by the body of the rule,
+ * the rest of the list is shared.
+ *
+ * @author henm
+ */
+final class Goals {
+
+    static final Goals EMPTY = new Goals(null, null);
+
+    private final Term goal;
+    private final Goals rest;
+
+    private Goals(Term goal, Goals rest) {
+        this.goal = goal;
+        this.rest = rest;
+    }
+
+    static Goals of(Term goal) {
+        return new Goals(goal, EMPTY);
+    }
+
+    /**
+     * @param goals Goals to prove before the goals of this list.
+     * @return A list starting with the given goals.
+     */
+    Goals prependAll(List<Term> goals) {
+        Goals result = this;
+        for (int i = goals.size() - 1; i >= 0; i--) {
+            result = new Goals(goals.get(i), result);
+        }
+        return result;
+    }
+
+    boolean isEmpty() {
+        return this == EMPTY;
+    }
+
+    Term getGoal() {
+        return goal;
+    }
+
+    Goals getRest() {
+        return rest;
+    }
+}
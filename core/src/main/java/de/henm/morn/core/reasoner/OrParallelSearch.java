@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.Term;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Search for the first answer of a query trying the alternative clauses of
+ * the goal in parallel (OR-parallelism).
+ * <p>
+ * Every rule the goal might be resolved with becomes a task of its own, the
+ * facts are tried by a single task. Each task searches with its own
+ * {@link Solutions} and bindings, so tasks share nothing but the clauses. The
+ * first task finding an answer cancels its siblings, which stop at their next
+ * step. The answer is thus not necessarily the first one of the sequential
+ * search.
+ * <p>
+ * Spawning tasks only pays off for expensive alternatives, so goals with
+ * less than {@link #MIN_RULES} candidate rules are left to the sequential
+ * search. Alternatives which do not terminate occupy a thread until a
+ * sibling succeeds; if there are more of them than threads in the pool, the
+ * search might not terminate either.
+ *
+ * @author henm
+ */
+final class OrParallelSearch {
+
+    /**
+     * Goals with fewer candidate rules are searched sequentially.
+     */
+    static final int MIN_RULES = 4;
+
+    private final PredicateTable predicateTable;
+    private final Term goal;
+    private final List<List<ClauseEntry>> alternatives;
+
+    private OrParallelSearch(PredicateTable predicateTable, Term goal, List<List<ClauseEntry>> alternatives) {
+        this.predicateTable = predicateTable;
+        this.goal = goal;
+        this.alternatives = alternatives;
+    }
+
+    /**
+     * @return The search for the goal or null if it should be searched
+     * sequentially.
+     */
+    static OrParallelSearch of(PredicateTable predicateTable, Term goal) {
+        if (predicateTable.hasTabledPredicates()) {
+            // The answer tables cannot be filled concurrently
+            return null;
+        }
+
+        final List<ClauseEntry> entries = predicateTable.getEntries(goal);
+        final List<ClauseEntry> facts = new ArrayList<>();
+        final List<List<ClauseEntry>> alternatives = new ArrayList<>();
+        for (ClauseEntry entry : entries) {
+            if (entry.isFact()) {
+                facts.add(entry);
+            } else {
+                alternatives.add(Collections.singletonList(entry));
+            }
+        }
+        if (alternatives.size() < MIN_RULES) {
+            return null;
+        }
+        if (!facts.isEmpty()) {
+            alternatives.add(0, facts);
+        }
+        return new OrParallelSearch(predicateTable, goal, alternatives);
+    }
+
+    /**
+     * @param pool     The pool to run the tasks in.
+     * @param goalPool The pool to prove independent goals with, might be null.
+     * @return The answer found first, if any.
+     */
+    Optional<Answer> findFirst(ForkJoinPool pool, ForkJoinPool goalPool) {
+        final AtomicBoolean found = new AtomicBoolean(false);
+        final AtomicReference<Answer> answer = new AtomicReference<>();
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(alternatives.size());
+        for (List<ClauseEntry> entries : alternatives) {
+            tasks.add(ForkJoinTask.adapt(() -> {
+                final Solutions solutions = new Solutions(predicateTable, goal, entries, found, goalPool);
+                if (solutions.hasNext() && answer.compareAndSet(null, solutions.next())) {
+                    found.set(true);
+                }
+                solutions.close();
+            }));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        return Optional.ofNullable(answer.get());
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.Term;
+
+import io.vavr.Tuple2;
+import io.vavr.collection.LinkedHashMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All clauses of a single predicate.
+ * <p>
+ * The clauses are kept in the order they are tried by the reasoner: facts come
+ * before rules, which is useful for recursive definitions. Apart from that the
+ * order of insertion is preserved.
+ * <p>
+ * The first argument is always indexed. Further indexes are built just in
+ * time: for every call pattern (the set of bound argument positions) the
+ * predicate counts the calls which had to scan many clauses. When such calls
+ * happen repeatedly, an index on the most selective bound argument or on the
+ * combination of all bound arguments is built, considering the first
+ * {@link #MAX_INDEXED_ARGUMENTS} arguments. Goals with nested structure
+ * in their arguments are resolved with a discrimination tree over the complete
+ * heads, which is built on the first such call. Indexes are updated when
+ * clauses are added or removed.
+ * <p>
+ * A predicate is a version of its clauses: adding or removing a clause yields
+ * a new predicate sharing the persistent clause lists and indexes with the
+ * old one, which stays unchanged. Once built, the persistent discrimination
+ * tree is shared and extended the same way. Lookups might run concurrently,
+ * the indexes and the tree built just in time are published atomically.
+ *
+ * @author henm
+ */
+final class Predicate {
+
+    /**
+     * Calls yielding more candidate clauses than this are considered expensive.
+     */
+    static final int SCAN_THRESHOLD = 8;
+
+    /**
+     * Number of expensive calls of a call pattern before indexes are assessed.
+     */
+    static final int EXPENSIVE_CALLS_BEFORE_INDEXING = 3;
+
+    /**
+     * Call patterns are bit masks of an int, later arguments are never
+     * indexed.
+     */
+    static final int MAX_INDEXED_ARGUMENTS = Integer.SIZE - 1;
+
+    private final PredicateKey key;
+    private final ClauseList clauses;
+    /**
+     * Shared by all versions, guarded by the lock of the map.
+     */
+    private final Map<Integer, CallStatistics> callStatistics;
+    private final int sequenceNumber;
+    private volatile io.vavr.collection.Map<Integer, ArgumentIndex> indexes;
+    private volatile DiscriminationTree discriminationTree;
+
+    Predicate(PredicateKey key) {
+        this(key, ClauseList.EMPTY,
+                key.getArity() > 0 ? LinkedHashMap.of(1, new ArgumentIndex(0)) : LinkedHashMap.empty(),
+                null, new HashMap<>(), 0);
+    }
+
+    private Predicate(PredicateKey key, ClauseList clauses, io.vavr.collection.Map<Integer, ArgumentIndex> indexes,
+                      DiscriminationTree discriminationTree, Map<Integer, CallStatistics> callStatistics,
+                      int sequenceNumber) {
+        this.key = key;
+        this.clauses = clauses;
+        this.indexes = indexes;
+        this.discriminationTree = discriminationTree;
+        this.callStatistics = callStatistics;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * @return The predicate with the clause added.
+     */
+    Predicate add(Clause clause) {
+        final ClauseEntry entry = new ClauseEntry(clause, sequenceNumber);
+        final DiscriminationTree tree = discriminationTree;
+        return new Predicate(key, clauses.add(entry), indexes.mapValues(index -> index.add(entry)),
+                tree == null ? null : tree.add(entry), callStatistics, sequenceNumber + 1);
+    }
+
+    /**
+     * @param clause The clause to remove, compared by equality. It is only
+     *               compared to the clauses in its bucket of the first argument
+     *               index.
+     * @return The predicate without the first occurrence of the clause, this
+     * predicate if it does not contain the clause.
+     */
+    Predicate remove(Clause clause) {
+        final List<ClauseEntry> candidates = key.getArity() == 0
+                ? clauses.getEntries()
+                : indexes.get(1).get().getEntriesWithKeyOf(clause.getHead());
+        for (ClauseEntry entry : candidates) {
+            if (entry.getClause().equals(clause)) {
+                final DiscriminationTree tree = discriminationTree;
+                return new Predicate(key, clauses.remove(entry), indexes.mapValues(index -> index.remove(entry)),
+                        tree == null ? null : tree.remove(entry), callStatistics, sequenceNumber);
+            }
+        }
+        return this;
+    }
+
+    PredicateKey getKey() {
+        return key;
+    }
+
+    boolean hasRules() {
+        return clauses.hasRules();
+    }
+
+    Collection<ArgumentIndex> getIndexes() {
+        return indexes.values().toJavaList();
+    }
+
+    /**
+     * @return The entries of all clauses of this predicate, facts first.
+     */
+    List<ClauseEntry> getEntries() {
+        return clauses.getEntries();
+    }
+
+    DiscriminationTree getDiscriminationTree() {
+        return discriminationTree;
+    }
+
+    /**
+     * Select the clauses which might be used to resolve a goal. The most
+     * selective index over the bound arguments of the goal is used, for nested
+     * goals the discrimination tree.
+     *
+     * @param goal A goal of this predicate.
+     * @return The entries of the candidate clauses, facts first.
+     */
+    List<ClauseEntry> getEntries(Term goal) {
+        if (key.getArity() == 0) {
+            return getEntries();
+        }
+
+        if (DiscriminationTree.isNested(goal)) {
+            return discriminationTree().getEntries(goal);
+        }
+
+        final int boundArguments = boundArguments(goal);
+        if (boundArguments == 0) {
+            return getEntries();
+        }
+
+        final ArgumentIndex index = selectIndex(goal, boundArguments);
+        final List<ClauseEntry> candidates = index == null ? getEntries() : index.getEntries(goal);
+        recordCall(boundArguments, candidates.size());
+        return candidates;
+    }
+
+    private DiscriminationTree discriminationTree() {
+        DiscriminationTree tree = discriminationTree;
+        if (tree == null) {
+            synchronized (this) {
+                tree = discriminationTree;
+                if (tree == null) {
+                    tree = DiscriminationTree.EMPTY;
+                    for (ClauseEntry entry : clauses.getEntries()) {
+                        tree = tree.add(entry);
+                    }
+                    discriminationTree = tree;
+                }
+            }
+        }
+        return tree;
+    }
+
+    private ArgumentIndex selectIndex(Term goal, int boundArguments) {
+        final io.vavr.collection.Map<Integer, ArgumentIndex> indexes = this.indexes;
+        if (indexes.size() == 1) {
+            // Usually only the first argument is indexed, no need to count
+            final Tuple2<Integer, ArgumentIndex> only = indexes.head();
+            return (only._1 & ~boundArguments) == 0 ? only._2 : null;
+        }
+
+        ArgumentIndex bestIndex = null;
+        int bestCount = Integer.MAX_VALUE;
+        for (Tuple2<Integer, ArgumentIndex> entry : indexes) {
+            if ((entry._1 & ~boundArguments) != 0) {
+                continue;
+            }
+            final int count = entry._2.count(goal);
+            if (count < bestCount) {
+                bestIndex = entry._2;
+                bestCount = count;
+            }
+        }
+        return bestIndex;
+    }
+
+    private void recordCall(int boundArguments, int numberOfCandidates) {
+        if (numberOfCandidates <= SCAN_THRESHOLD) {
+            return;
+        }
+
+        synchronized (callStatistics) {
+            final CallStatistics statistics = callStatistics.computeIfAbsent(boundArguments, k -> new CallStatistics());
+            statistics.expensiveCalls++;
+            if (statistics.expensiveCalls < EXPENSIVE_CALLS_BEFORE_INDEXING
+                    || clauses.size() < 2 * statistics.clausesAtLastAssessment) {
+                return;
+            }
+            statistics.expensiveCalls = 0;
+            statistics.clausesAtLastAssessment = clauses.size();
+        }
+        synchronized (this) {
+            buildIndex(boundArguments);
+        }
+    }
+
+    /**
+     * Build the most selective index for a call pattern unless an existing index
+     * is at least as good.
+     */
+    private void buildIndex(int boundArguments) {
+        double bestLookupSize = clauses.size();
+        for (Tuple2<Integer, ArgumentIndex> entry : indexes) {
+            if ((entry._1 & ~boundArguments) == 0) {
+                bestLookupSize = Math.min(bestLookupSize, entry._2.getAverageLookupSize());
+            }
+        }
+
+        final List<Integer> positions = positions(boundArguments);
+        final List<Integer> candidates = new ArrayList<>();
+        for (int position : positions) {
+            candidates.add(1 << position);
+        }
+        if (positions.size() > 1) {
+            candidates.add(boundArguments);
+        }
+
+        ArgumentIndex bestIndex = null;
+        int bestMask = 0;
+        for (int mask : candidates) {
+            if (indexes.containsKey(mask)) {
+                continue;
+            }
+            final ArgumentIndex index = buildIndex(positions(mask));
+            final double lookupSize = index.getAverageLookupSize();
+            if (lookupSize < bestLookupSize) {
+                bestIndex = index;
+                bestMask = mask;
+                bestLookupSize = lookupSize;
+            }
+        }
+
+        if (bestIndex != null) {
+            indexes = indexes.put(bestMask, bestIndex);
+        }
+    }
+
+    private ArgumentIndex buildIndex(List<Integer> positions) {
+        ArgumentIndex index = new ArgumentIndex(positions.stream().mapToInt(Integer::intValue).toArray());
+        for (ClauseEntry entry : clauses.getEntries()) {
+            index = index.add(entry);
+        }
+        return index;
+    }
+
+    private int boundArguments(Term goal) {
+        final List<Term> arguments = ((CompoundTerm) goal).getArguments();
+        final int numberOfArguments = Math.min(arguments.size(), MAX_INDEXED_ARGUMENTS);
+        int boundArguments = 0;
+        for (int i = 0; i < numberOfArguments; i++) {
+            if (ArgumentIndex.keyOf(arguments.get(i)) != null) {
+                boundArguments |= 1 << i;
+            }
+        }
+        return boundArguments;
+    }
+
+    private static List<Integer> positions(int mask) {
+        final List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < MAX_INDEXED_ARGUMENTS; i++) {
+            if ((mask & (1 << i)) != 0) {
+                positions.add(i);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Statistics about the calls of one call pattern.
+     */
+    private static class CallStatistics {
+        private int expensiveCalls = 0;
+        private int clausesAtLastAssessment = 0;
+    }
+}
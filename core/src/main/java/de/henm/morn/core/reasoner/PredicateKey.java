@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.Constant;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.Symbols;
+import de.henm.morn.core.model.Term;
+
+/**
+ * Identifies a predicate by its name and its arity, e.g. father/2.
+ * <p>
+ * A constant used as a goal is treated as a predicate with arity 0. Keys are
+ * compared by the id of the functor with the arity in the {@link Symbols
+ * symbol table}.
+ *
+ * @author henm
+ */
+public final class PredicateKey {
+
+    private final Object name;
+    private final int arity;
+    private final int id;
+
+    private PredicateKey(Object name, int nameId, int arity) {
+        this.name = name;
+        this.arity = arity;
+        this.id = Symbols.functor(nameId, arity);
+    }
+
+    public static PredicateKey of(Functor functor, int arity) {
+        return new PredicateKey(functor, functor.getId(), arity);
+    }
+
+    public static PredicateKey of(Constant constant) {
+        return new PredicateKey(constant, constant.getId(), 0);
+    }
+
+    /**
+     * @param term The head of a clause or a goal.
+     * @return The key of the predicate the term belongs to or null if the term
+     * is not callable (e.g. a variable or a list).
+     */
+    public static PredicateKey of(Term term) {
+        if (term instanceof CompoundTerm) {
+            final CompoundTerm compoundTerm = (CompoundTerm) term;
+            return of(compoundTerm.getFunctor(), compoundTerm.getArguments().size());
+        } else if (term instanceof Constant) {
+            return of((Constant) term);
+        } else {
+            return null;
+        }
+    }
+
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * @return The id of the functor with the arity in the {@link Symbols
+     * symbol table}.
+     */
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof PredicateKey && ((PredicateKey) o).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s/%d", name, arity);
+    }
+}
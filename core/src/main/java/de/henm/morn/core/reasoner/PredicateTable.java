@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+
+import io.vavr.collection.LinkedHashMap;
+import io.vavr.collection.Map;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Clause store partitioning the clauses of a program by the predicate of
+ * their heads.
+ * <p>
+ * The store is copy-on-write: predicates are immutable versions kept in a
+ * persistent map, and the tabled predicates in a persistent set, so
+ * {@link #snapshot()} takes constant time and later changes of either table
+ * do not affect the other one. Changes have to be made by one thread at a
+ * time, but any number of threads might query snapshots meanwhile.
+ *
+ * @author henm
+ */
+public class PredicateTable {
+
+    private volatile Map<PredicateKey, Predicate> predicates;
+    private final Tables tables;
+
+    public PredicateTable() {
+        this.predicates = LinkedHashMap.empty();
+        this.tables = new Tables(this);
+    }
+
+    private PredicateTable(PredicateTable other) {
+        this.predicates = other.predicates;
+        this.tables = new Tables(this, other.tables);
+    }
+
+    public PredicateTable(List<Clause> clauses) {
+        this();
+        clauses.forEach(this::add);
+    }
+
+    /**
+     * @param clause The clause to add.
+     * @throws IllegalArgumentException Thrown if the head of the clause is
+     *                                  neither a constant nor a compound term.
+     */
+    public void add(Clause clause) {
+        final PredicateKey key = PredicateKey.of(clause.getHead());
+        if (key == null) {
+            throw new IllegalArgumentException(String.format("Head of clause %s is not callable", clause));
+        }
+        predicates = predicates.put(key, predicates.get(key).getOrElse(() -> new Predicate(key)).add(clause));
+        tables.clear();
+    }
+
+    /**
+     * @param clause The clause to remove, compared by equality.
+     * @return True iff the clause was contained. Only its first occurrence is
+     * removed.
+     */
+    public boolean remove(Clause clause) {
+        final PredicateKey key = PredicateKey.of(clause.getHead());
+        final Predicate predicate = key == null ? null : predicates.get(key).getOrNull();
+        if (predicate == null) {
+            return false;
+        }
+        final Predicate removed = predicate.remove(clause);
+        if (removed == predicate) {
+            return false;
+        }
+        predicates = predicates.put(key, removed);
+        tables.clear();
+        return true;
+    }
+
+    /**
+     * @return A table with the clauses and tabled predicates of this table,
+     * which is not affected by later changes of this table and vice versa.
+     * Both share their complete answer tables until either is changed.
+     */
+    public PredicateTable snapshot() {
+        return new PredicateTable(this);
+    }
+
+    /**
+     * Resolve calls to a predicate with answer tables instead of its clauses.
+     * Each variant of a call is evaluated once, so left-recursive and cyclic
+     * definitions terminate as long as they have finitely many answers.
+     *
+     * @param key The predicate to table.
+     */
+    public void table(PredicateKey key) {
+        tables.table(key);
+    }
+
+    /**
+     * @return True iff at least one predicate is tabled.
+     */
+    public boolean hasTabledPredicates() {
+        return !tables.isEmpty();
+    }
+
+    Tables getTables() {
+        return tables;
+    }
+
+    /**
+     * @return The same object for this table and its snapshots as long as
+     * none of them is changed.
+     */
+    Object getVersion() {
+        return predicates;
+    }
+
+    Predicate getPredicate(PredicateKey key) {
+        return predicates.get(key).getOrNull();
+    }
+
+    /**
+     * Get all clauses which might be used to resolve a goal.
+     *
+     * @param goal The goal to resolve.
+     * @return The clauses of the predicate of the goal, facts first. If the
+     * first argument of the goal is bound, clauses whose first argument cannot
+     * match are left out.
+     */
+    public List<Clause> getClauses(Term goal) {
+        final List<ClauseEntry> entries = getEntries(goal);
+        final List<Clause> clauses = new ArrayList<>(entries.size());
+        for (ClauseEntry entry : entries) {
+            clauses.add(entry.getClause());
+        }
+        return clauses;
+    }
+
+    /**
+     * @return All clauses, grouped by predicate in the order the predicates
+     * were added and facts first within a predicate.
+     */
+    public List<Clause> getClauses() {
+        final List<Clause> clauses = new ArrayList<>();
+        for (Predicate predicate : predicates.values()) {
+            for (ClauseEntry entry : predicate.getEntries()) {
+                clauses.add(entry.getClause());
+            }
+        }
+        return clauses;
+    }
+
+    List<ClauseEntry> getEntries(Term goal) {
+        final PredicateKey key = PredicateKey.of(goal);
+        if (key != null) {
+            final Predicate predicate = predicates.get(key).getOrNull();
+            return predicate == null ? Collections.emptyList() : predicate.getEntries(goal);
+        } else if (goal instanceof Variable) {
+            // A variable might be resolved with any clause
+            final List<ClauseEntry> entries = new ArrayList<>();
+            predicates.values().forEach(predicate -> entries.addAll(predicate.getEntries()));
+            return entries;
+        } else {
+            return Collections.emptyList();
+        }
+    }
+}
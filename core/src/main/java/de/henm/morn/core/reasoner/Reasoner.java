@@ -15,108 +15,270 @@
 package de.henm.morn.core.reasoner;
 
 import de.henm.morn.core.model.Clause;
-import de.henm.morn.core.model.IntegerTerm;
-import de.henm.morn.core.model.PredicateTerm;
 import de.henm.morn.core.model.Term;
-import io.vavr.Tuple;
-import io.vavr.Tuple2;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Simple reasoner.
+ * <p>
+ * Goals are proven depth-first from left to right. Variables are bound in
+ * place in a {@link Bindings} store, so the bindings made by a goal are seen
+ * by the following goals. When a goal fails, the bindings are undone and the
+ * next alternative clause is tried. All answers of a query can be enumerated,
+ * each one is only searched for when it is requested (see {@link Solutions}).
+ * <p>
+ * Every query gets its own {@link Bindings}, so one reasoner can answer
+ * queries from several threads in parallel. The answer tables of tabled
+ * predicates are the exception: tables being evaluated belong to their
+ * reasoner, so queries involving tabled predicates have to be made on
+ * separate {@link PredicateTable#snapshot() snapshots}. These share the
+ * complete tables.
+ * <p>
+ * Given a pool, {@link #query(Term)} tries the alternative rules of the goal
+ * in parallel, see {@link OrParallelSearch}, and batches of queries are
+ * spread over the pool, see {@link #queryAll(List)}. Goals of rule bodies
+ * which share no unbound variables are only proven in parallel when asked
+ * for, see {@link #proveIndependentGoalsInParallel(boolean)}.
  *
  * @author henm
  */
 public class Reasoner {
 
-    private final List<Clause> clauses;
-    private final Unification unification;
-    private final VariableRenaming variableRenaming;
-    private final ClauseOrdering clauseOrdering;
+    /**
+     * Number of goals of a batch queried by one task.
+     */
+    static final int BATCH_CHUNK_SIZE = 16;
+
+    private final PredicateTable predicateTable;
+    private ForkJoinPool pool;
+    private boolean independentGoals;
 
     public Reasoner(List<Clause> clauses) {
-        this.unification = new Unification();
-        this.clauses = clauses;
-        this.variableRenaming = new VariableRenaming();
-        this.clauseOrdering = new ClauseOrdering();
+        this(new PredicateTable(clauses));
+    }
+
+    public Reasoner(PredicateTable predicateTable) {
+        this.predicateTable = predicateTable;
     }
 
     /**
      * Answer a query for program.
      *
      * @param {goal} The goal to query.
-     * @return Optional containing a possible substitution iff the goal can be
-     * deduced from the program.
+     * @return Optional containing a possible substitution for the variables of
+     * the goal iff the goal can be deduced from the program.
      */
     public Optional<Substitution> query(Term goal) {
+        final OrParallelSearch parallelSearch = pool == null ? null : OrParallelSearch.of(predicateTable, goal);
+        if (parallelSearch != null) {
+            return parallelSearch.findFirst(pool, goalPool()).map(Answer::toSubstitution);
+        }
 
-        if (goal instanceof PredicateTerm) {
-            return testPredicate((PredicateTerm) goal);
+        final Solutions solutions = new Solutions(predicateTable, goal, goalPool());
+        if (solutions.hasNext()) {
+            final Substitution substitution = solutions.next().toSubstitution();
+            solutions.close();
+            return Optional.of(substitution);
         } else {
-            return handleQueryWithUnification(goal);
+            return Optional.empty();
         }
     }
 
-    private Optional<Substitution> testPredicate(PredicateTerm predicateTerm) {
-        if (predicateTerm.getT1() instanceof IntegerTerm && predicateTerm.getT2() instanceof IntegerTerm) {
-            final IntegerTerm nt1 = (IntegerTerm) predicateTerm.getT1();
-            final IntegerTerm nt2 = (IntegerTerm) predicateTerm.getT2();
-            if (predicateTerm.test(nt1.getValue(), nt2.getValue())) {
-                return Optional.of(new Substitution());
-            } else {
-                return Optional.empty();
+    /**
+     * Answer a query asynchronously. The search checks at every step whether
+     * the future was cancelled and stops, and it yields its thread now and
+     * then, so it can run on virtual threads.
+     *
+     * @param goal     The goal to query.
+     * @param executor The executor to search with.
+     * @return The future of the first answer as with {@link #query(Term)}.
+     */
+    public CompletableFuture<Optional<Substitution>> queryAsync(Term goal, Executor executor) {
+        return async(cancelled -> {
+            final Solutions solutions = new Solutions(predicateTable, Collections.singletonList(goal), cancelled, goalPool());
+            final Optional<Substitution> substitution = solutions.hasNext()
+                    ? Optional.of(solutions.next().toSubstitution())
+                    : Optional.empty();
+            solutions.close();
+            return substitution;
+        }, executor);
+    }
+
+    /**
+     * Search all answers of a query asynchronously, see
+     * {@link #queryAsync(Term, Executor)}.
+     *
+     * @param goal     The goal to query.
+     * @param executor The executor to search with.
+     * @return The future of all answers in the order of the depth-first search.
+     */
+    public CompletableFuture<List<Answer>> answersAsync(Term goal, Executor executor) {
+        return async(cancelled -> {
+            final Solutions solutions = new Solutions(predicateTable, Collections.singletonList(goal), cancelled, goalPool());
+            final List<Answer> answers = new ArrayList<>();
+            solutions.forEachRemaining(answers::add);
+            return answers;
+        }, executor);
+    }
+
+    private static <T> CompletableFuture<T> async(Function<AtomicBoolean, T> search, Executor executor) {
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.whenComplete((result, throwable) -> {
+            if (future.isCancelled()) {
+                cancelled.set(true);
+            }
+        });
+        executor.execute(() -> {
+            if (!future.isDone()) {
+                try {
+                    future.complete(search.apply(cancelled));
+                } catch (RuntimeException | Error e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Answer a batch of queries as one unit: equal goals are only queried
+     * once, and ground subgoals proven for one goal are not proven again for
+     * the others. Goals are queried grouped by their predicate, given a pool
+     * in parallel.
+     *
+     * @param goals The goals to query.
+     * @return Bit i is set iff the i-th goal can be deduced.
+     */
+    public BitSet queryAll(List<Term> goals) {
+        final Map<Term, List<Integer>> positions = new LinkedHashMap<>();
+        for (int i = 0; i < goals.size(); i++) {
+            positions.computeIfAbsent(goals.get(i), goal -> new ArrayList<>()).add(i);
+        }
+        final Map<PredicateKey, List<Term>> goalsByPredicate = new LinkedHashMap<>();
+        for (Term goal : positions.keySet()) {
+            goalsByPredicate.computeIfAbsent(PredicateKey.of(goal), key -> new ArrayList<>()).add(goal);
+        }
+        final List<Term> distinctGoals = new ArrayList<>(positions.size());
+        goalsByPredicate.values().forEach(distinctGoals::addAll);
+
+        final Set<List<Object>> provenGoals = ConcurrentHashMap.newKeySet();
+        final boolean[] proven = new boolean[distinctGoals.size()];
+        if (pool == null || predicateTable.hasTabledPredicates()) {
+            for (int i = 0; i < proven.length; i++) {
+                proven[i] = prove(distinctGoals.get(i), provenGoals);
             }
         } else {
-            return Optional.empty();
+            final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (int start = 0; start < proven.length; start += BATCH_CHUNK_SIZE) {
+                final int from = start;
+                final int to = Math.min(start + BATCH_CHUNK_SIZE, proven.length);
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    for (int i = from; i < to; i++) {
+                        proven[i] = prove(distinctGoals.get(i), provenGoals);
+                    }
+                }));
+            }
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
         }
+
+        final BitSet result = new BitSet(goals.size());
+        for (int i = 0; i < proven.length; i++) {
+            if (proven[i]) {
+                positions.get(distinctGoals.get(i)).forEach(result::set);
+            }
+        }
+        return result;
     }
 
-    private Optional<Substitution> handleQueryWithUnification(Term goal) {
-        final List<Tuple2<Clause, PositiveUnificationResult>> clauses = getPossibleClauses(goal);
+    private boolean prove(Term goal, Set<List<Object>> provenGoals) {
+        final Solutions solutions = new Solutions(predicateTable, goal, goalPool());
+        solutions.shareProofs(provenGoals);
+        final boolean proven = solutions.hasNext();
+        solutions.close();
+        return proven;
+    }
 
-        // This stream contains the outcomes of all the possible clauses
-        final Stream<Optional<Substitution>> results = clauses
-                .stream()
-                .sorted((x, y) -> clauseOrdering.compare(x._1, y._1))
-                .map(r -> getQueryResultForUnificationResult(r._1, r._2));
+    /**
+     * Search in parallel:
+     * <ul>
+     * <li>The first answer of a query is searched by trying the alternative
+     * rules of the goal in parallel. The answer found first is taken, which
+     * might not be the first one of the sequential search. Goals with few
+     * rules are still searched sequentially.</li>
+     * <li>Batches of queries are spread over the pool.</li>
+     * </ul>
+     *
+     * @param pool The pool to search with or null to search sequentially.
+     */
+    public void searchInParallel(ForkJoinPool pool) {
+        this.pool = pool;
+    }
 
-        // Only the successfull branches are relevant
-        return results.filter(branch -> branch.isPresent()).map(branch -> branch.get()).findFirst();
+    /**
+     * Prove goals of rule bodies which share no unbound variables on the pool
+     * given to {@link #searchInParallel(ForkJoinPool)}, see
+     * {@link AndParallelism}. The answers are the same and come in the same
+     * order as with the sequential search, but proving a goal which has no
+     * answer stops the other goals of the body.
+     *
+     * @param enabled True to prove independent goals in parallel.
+     */
+    public void proveIndependentGoalsInParallel(boolean enabled) {
+        this.independentGoals = enabled;
     }
 
-    private List<Tuple2<Clause, PositiveUnificationResult>> getPossibleClauses(Term a) {
-        return clauses.stream()
-                // First rename the variables in the clause
-                .map(clause -> variableRenaming.renameVariablesInClause(clause))
-                // Then try to unify
-                .map(clause -> Tuple.of(clause, unification.unify(a, clause.getHead())))
-                .filter(tuple -> tuple._2.termsUnify())
-                .map(tuple -> Tuple.of(tuple._1, (PositiveUnificationResult) tuple._2))
-                .collect(Collectors.toList());
+    /**
+     * @return The pool to prove independent goals with, null if they are
+     * proven sequentially.
+     */
+    private ForkJoinPool goalPool() {
+        return independentGoals ? pool : null;
     }
 
-    private Optional<Substitution> getQueryResultForUnificationResult(Clause clause,
-                                                                      PositiveUnificationResult unificationResult) {
-        return clause.getBody().stream()
-                .map(term -> {
-                    Term t = unificationResult.getSubstitution().apply(term);
-                    return t;
-                })
-                // Check if the term (with substitution applied) is satisfiable
-                // TODO Performance: After first fail it is not necessary
-                // to query the rest
-                .map(this::query)
-                // Reduced is called to ensure all terms are true in
-                // relation to the program
-                // If there are no terms to check the result is success
-                .reduce(Optional.of(new Substitution()), this::mergeSubstitutions);
+    /**
+     * Enumerate the answers of a query lazily.
+     *
+     * @param goal The goal to query.
+     * @return An iterator over all answers in the order of the depth-first
+     * search. Answers are searched for on demand.
+     */
+    public Iterator<Answer> iterator(Term goal) {
+        return new Solutions(predicateTable, goal, goalPool());
     }
 
-    private Optional<Substitution> mergeSubstitutions(Optional<Substitution> s1, Optional<Substitution> s2) {
-        return s1.flatMap((s1Present) -> s2.map(s2Present -> s1Present.merge(s2Present)));
+    /**
+     * Enumerate the answers of a query lazily.
+     *
+     * @param goal The goal to query.
+     * @return A sequential stream of all answers in the order of the
+     * depth-first search. Answers are searched for on demand; closing the
+     * stream releases the state of the search.
+     */
+    public Stream<Answer> answers(Term goal) {
+        final Solutions solutions = new Solutions(predicateTable, goal, goalPool());
+        final Spliterator<Answer> spliterator = Spliterators.spliteratorUnknownSize(solutions,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(solutions::close);
     }
-}
\ No newline at end of file
+}
@@ -14,29 +14,35 @@
  */
 package de.henm.morn.core.reasoner;
 
-import de.henm.morn.core.model.Clause;
-import de.henm.morn.core.model.Fact;
-import de.henm.morn.core.model.Rule;
-
-import java.util.Comparator;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
 
 /**
- * Sort possible clauses found by unifying.
- * <p>
- * The current ordering simply favors facts over rules. This is useful for recursive definitions.
+ * A variable cell used during reasoning. It is bound in place and unbound
+ * again when the reasoner backtracks (see {@link Bindings}).
  *
  * @author henm
  */
-class ClauseOrdering implements Comparator<Clause> {
+class Ref extends Variable {
+
+    private final int id;
+    Term value;
+
+    Ref(int id) {
+        super(null);
+        this.id = id;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    boolean isBound() {
+        return value != null;
+    }
 
     @Override
-    public int compare(Clause c1, Clause c2) {
-        if (c1 instanceof Fact && c2 instanceof Rule) {
-            return -1;
-        } else if (c1 instanceof Rule && c2 instanceof Fact) {
-            return 1;
-        } else {
-            return 0;
-        }
+    public String toString() {
+        return "_G" + id;
     }
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+
+/**
+ * A variable of a clause template, numbered by its first occurrence in the
+ * clause. Slots only refer to a position in a frame and are never seen
+ * outside of the reasoner.
+ *
+ * @author henm
+ */
+class Slot implements Term {
+
+    private final int index;
+
+    Slot(int index) {
+        this.index = index;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    @Override
+    public boolean isGround() {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Variable x) {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "_S" + index;
+    }
+}
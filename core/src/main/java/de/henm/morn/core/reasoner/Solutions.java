@@ -0,0 +1,450 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.PredicateTerm;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The search for the answers of a single query.
+ * <p>
+ * Instead of recursing, the search keeps a stack of choice points. After an
+ * answer has been found the search stops; asking for the next answer
+ * backtracks into the most recent choice point. The next answer is only
+ * searched for when it is requested, so callers may stop at any time.
+ * <p>
+ * A choice point is dropped before its last clause is tried (last call
+ * optimization). Together with the trail only recording bindings older than
+ * the most recent choice point (see {@link Bindings}), deterministic and
+ * tail-recursive predicates run in constant space apart from the terms they
+ * build, and the depth of a proof is only bounded by the heap.
+ * <p>
+ * Goals of tabled predicates are resolved with the answers of their tables
+ * instead (see {@link Tables}). A search evaluating a table is suspended
+ * instead of evaluating the table of such a goal itself.
+ * <p>
+ * Given a pool, independent goals of rule bodies are proven in parallel (see
+ * {@link AndParallelism}).
+ * <p>
+ * Searches only asking whether there is an answer might share the ground
+ * goals they proved, see {@link #shareProofs(Set)}.
+ *
+ * @author henm
+ */
+class Solutions implements Iterator<Answer> {
+
+    /**
+     * Ground goals with more symbols are not shared.
+     */
+    private static final int MAX_PROVEN_GOAL_SIZE = 32;
+
+    /**
+     * Number of steps after which a search which can be cancelled yields its
+     * thread.
+     */
+    static final int YIELD_INTERVAL = 4096;
+
+    private final PredicateTable predicateTable;
+    private final Bindings bindings;
+    private final Map<Variable, Ref> variables;
+    private final Deque<ChoicePoint> choicePoints;
+    /**
+     * Set by another thread to stop the search, might be null.
+     */
+    private final AtomicBoolean cancelled;
+    /**
+     * The pool to prove independent goals with, might be null.
+     */
+    private final ForkJoinPool pool;
+    /**
+     * Keys of ground goals proven by this or other searches, might be null.
+     */
+    private Set<List<Object>> provenGoals;
+    private int steps;
+
+    /**
+     * The goals to prove next or null if the search has to backtrack.
+     */
+    private Goals goals;
+    private Answer nextAnswer;
+    private boolean exhausted;
+    private boolean suspended;
+
+    Solutions(PredicateTable predicateTable, Term goal) {
+        this(predicateTable, goal, null);
+    }
+
+    Solutions(PredicateTable predicateTable, Term goal, ForkJoinPool pool) {
+        this(predicateTable, Collections.singletonList(goal), null, pool);
+    }
+
+    /**
+     * @param evaluatesTable True iff the goal is resolved with its clauses
+     *                       even if its predicate is tabled. This only
+     *                       applies to the goal itself, calls of the
+     *                       predicate in the bodies of the clauses are still
+     *                       resolved with the tables.
+     */
+    Solutions(PredicateTable predicateTable, Term goal, boolean evaluatesTable) {
+        this(predicateTable, Collections.singletonList(goal), null, null);
+        if (evaluatesTable) {
+            pushChoicePoint(new ChoicePoint(goals, predicateTable.getEntries(goals.getGoal()), bindings));
+            this.goals = null;
+        }
+    }
+
+    /**
+     * Search only the proofs starting with some of the clauses of the goal.
+     *
+     * @param entries   The clauses to resolve the goal with.
+     * @param cancelled Stops the search once it is set.
+     */
+    Solutions(PredicateTable predicateTable, Term goal, List<ClauseEntry> entries, AtomicBoolean cancelled,
+              ForkJoinPool pool) {
+        this(predicateTable, Collections.singletonList(goal), cancelled, pool);
+        pushChoicePoint(new ChoicePoint(goals, entries, bindings));
+        this.goals = null;
+    }
+
+    /**
+     * Search the proofs of a conjunction of goals.
+     *
+     * @param cancelled Stops the search once it is set.
+     */
+    Solutions(PredicateTable predicateTable, List<Term> goals, AtomicBoolean cancelled, ForkJoinPool pool) {
+        this.predicateTable = predicateTable;
+        this.bindings = new Bindings();
+        this.variables = new LinkedHashMap<>();
+        this.choicePoints = new ArrayDeque<>();
+        final List<Term> importedGoals = new ArrayList<>(goals.size());
+        for (Term goal : goals) {
+            importedGoals.add(bindings.importTerm(goal, variables));
+        }
+        this.goals = Goals.EMPTY.prependAll(importedGoals);
+        this.exhausted = false;
+        this.cancelled = cancelled;
+        this.pool = pool;
+        // Without choice points no binding has to be undone
+        bindings.setTrailBoundary(0);
+    }
+
+    /**
+     * Share proven ground goals with other searches: ground goals proven by
+     * any of them are not proven again, and every ground goal is only proven
+     * once. As proving a ground goal binds no variable of its caller, this
+     * only leaves out duplicate answers; the search must not be used where
+     * their number matters. Must be called before the search starts.
+     *
+     * @param provenGoals The keys of proven ground goals, a thread-safe set
+     *                    if searches run in parallel.
+     */
+    void shareProofs(Set<List<Object>> provenGoals) {
+        this.provenGoals = provenGoals;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextAnswer == null && !exhausted) {
+            suspended = false;
+            if (search()) {
+                nextAnswer = new Answer(bindings.valuesOf(variables));
+                // The next search continues with the alternatives
+                goals = null;
+            } else if (!suspended) {
+                close();
+            }
+        }
+        return nextAnswer != null;
+    }
+
+    /**
+     * @return True iff the last search stopped at a goal whose table has to
+     * be evaluated first. The next search resolves the goal with the answers
+     * of the table.
+     */
+    boolean isSuspended() {
+        return suspended;
+    }
+
+    @Override
+    public Answer next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Answer answer = nextAnswer;
+        nextAnswer = null;
+        return answer;
+    }
+
+    /**
+     * Stop the search and release its state.
+     */
+    void close() {
+        exhausted = true;
+        nextAnswer = null;
+        goals = null;
+        choicePoints.clear();
+    }
+
+    /**
+     * Run until all goals are proven or there are no alternatives left.
+     *
+     * @return True iff all goals were proven.
+     */
+    private boolean search() {
+        while (true) {
+            if (cancelled != null) {
+                if (cancelled.get()) {
+                    return false;
+                }
+                if (++steps == YIELD_INTERVAL) {
+                    // Such searches usually run asynchronously, e.g. on a
+                    // virtual thread which only yields when asked to
+                    steps = 0;
+                    Thread.yield();
+                }
+            }
+            if (goals == null) {
+                goals = backtrack();
+                if (goals == null) {
+                    return false;
+                }
+            }
+
+            if (goals.isEmpty()) {
+                return true;
+            }
+
+            final Term goal = Bindings.deref(goals.getGoal());
+            if (goal instanceof PredicateTerm) {
+                goals = testPredicate((PredicateTerm) goal) ? goals.getRest() : null;
+            } else if (goal instanceof Proven) {
+                final Proven proven = (Proven) goal;
+                provenGoals.add(proven.key);
+                // Drop the alternative proofs
+                while (choicePoints.size() > proven.choicePoints) {
+                    popChoicePoint();
+                }
+                goals = goals.getRest();
+            } else if (provenGoals != null) {
+                final List<Object> key = groundKeyOf(goal);
+                if (key == null) {
+                    if (!call(goal)) {
+                        return false;
+                    }
+                } else if (provenGoals.contains(key)) {
+                    goals = goals.getRest();
+                } else {
+                    final Goals withProven = goals.getRest()
+                            .prependAll(Arrays.asList(goal, new Proven(key, choicePoints.size())));
+                    pushChoicePoint(new ChoicePoint(withProven, getEntries(goal), bindings));
+                    goals = null;
+                }
+            } else if (!call(goal)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Push a choice point for the first goal.
+     *
+     * @return False iff the search is suspended because the table of the
+     * goal has to be evaluated first.
+     */
+    private boolean call(Term goal) {
+        final ChoicePoint choicePoint = choicePoint(goals, goal);
+        if (choicePoint == null) {
+            suspended = true;
+            return false;
+        }
+        pushChoicePoint(choicePoint);
+        goals = null;
+        return true;
+    }
+
+    /**
+     * @return A key of the goal if it is ground and small, null otherwise.
+     * Larger goals are not worth looking up, joined goals are only equal to
+     * themselves.
+     */
+    private static List<Object> groundKeyOf(Term goal) {
+        if (goal instanceof AndParallelism.JoinedGoal) {
+            return null;
+        }
+        final List<Object> key = new ArrayList<>();
+        final Deque<Term> pending = new ArrayDeque<>();
+        pending.push(goal);
+        while (!pending.isEmpty()) {
+            final Term next = Bindings.deref(pending.pop());
+            final Object symbol = ArgumentIndex.keyOf(next);
+            if (symbol == null || key.size() == MAX_PROVEN_GOAL_SIZE) {
+                // A variable, a term which is only equal to itself or too
+                // many symbols
+                return null;
+            }
+            key.add(symbol);
+            final List<Term> subterms = TermTraversal.subterms(next);
+            for (int i = subterms.size() - 1; i >= 0; i--) {
+                pending.push(subterms.get(i));
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Resolve the goal of the most recent choice point with its next clause
+     * whose head unifies. Exhausted choice points are removed.
+     *
+     * @return The goals to prove next or null if there are no alternatives left.
+     */
+    private Goals backtrack() {
+        while (!choicePoints.isEmpty()) {
+            final ChoicePoint choicePoint = choicePoints.peek();
+            final Goals goals = choicePoint.getGoals();
+            bindings.undo(choicePoint.getMark());
+            final Term goal = Bindings.deref(goals.getGoal());
+
+            while (choicePoint.hasNext()) {
+                final ClauseEntry entry = choicePoint.next();
+                if (entry == null) {
+                    // A joined goal ran out of answers
+                    break;
+                }
+                final CompiledClause code = entry.getCode();
+                if (!choicePoint.hasNext()) {
+                    // Nothing to come back to for the last clause
+                    popChoicePoint();
+                }
+                // Match the goal against the template, the body of the clause
+                // is only instantiated if the head unifies
+                final Frame frame = new Frame(code.getTemplate(), bindings);
+                if (code.unifyHead(goal, frame, bindings)) {
+                    final List<Term> body = join(code, code.instantiateBody(frame));
+                    if (body != null) {
+                        return goals.getRest().prependAll(body);
+                    }
+                }
+                bindings.undo(choicePoint.getMark());
+            }
+            if (choicePoints.peek() == choicePoint) {
+                popChoicePoint();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Prove independent goals of a body in parallel.
+     *
+     * @return The body with independent goals replaced by joined goals, null
+     * if some of them have no answer.
+     */
+    private List<Term> join(CompiledClause code, List<Term> body) {
+        if (pool == null || !code.hasIndependentGoals() || predicateTable.hasTabledPredicates()) {
+            return body;
+        }
+        final List<List<Term>> segments = AndParallelism.segments(body);
+        return segments.size() < 2 ? body : AndParallelism.join(predicateTable, segments, pool);
+    }
+
+    /**
+     * @param goals The goals to prove, starting with the goal to resolve.
+     * @return The choice point or null if the table of the goal has to be
+     * evaluated first.
+     */
+    private ChoicePoint choicePoint(Goals goals, Term goal) {
+        if (goal instanceof AndParallelism.JoinedGoal) {
+            return new ChoicePoint(goals, (AndParallelism.JoinedGoal) goal, bindings);
+        }
+        final List<ClauseEntry> entries = getEntries(goal);
+        return entries == null ? null : new ChoicePoint(goals, entries, bindings);
+    }
+
+    /**
+     * @return The entries to resolve the goal with or null if its table has
+     * to be evaluated first, which only happens when evaluating a table.
+     */
+    private List<ClauseEntry> getEntries(Term goal) {
+        final Tables tables = predicateTable.getTables();
+        if (tables.isTabled(goal)) {
+            return tables.getAnswers(goal);
+        }
+        return predicateTable.getEntries(goal);
+    }
+
+    private void pushChoicePoint(ChoicePoint choicePoint) {
+        choicePoints.push(choicePoint);
+        bindings.setTrailBoundary(choicePoint.getNumberOfRefs());
+    }
+
+    private void popChoicePoint() {
+        choicePoints.pop();
+        bindings.setTrailBoundary(choicePoints.isEmpty() ? 0 : choicePoints.peek().getNumberOfRefs());
+    }
+
+    private boolean testPredicate(PredicateTerm predicateTerm) {
+        final Term t1 = Bindings.deref(predicateTerm.getT1());
+        final Term t2 = Bindings.deref(predicateTerm.getT2());
+        if (t1 instanceof IntegerTerm && t2 instanceof IntegerTerm) {
+            return predicateTerm.test(((IntegerTerm) t1).getValue(), ((IntegerTerm) t2).getValue());
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Follows the goals of the proof of a ground goal, which is proven once
+     * it is reached.
+     */
+    private static final class Proven implements Term {
+        private final List<Object> key;
+        /**
+         * The number of choice points before the goal was called.
+         */
+        private final int choicePoints;
+
+        private Proven(List<Object> key, int choicePoints) {
+            this.key = key;
+            this.choicePoints = choicePoints;
+        }
+
+        @Override
+        public boolean isGround() {
+            return true;
+        }
+
+        @Override
+        public boolean contains(Variable x) {
+            return false;
+        }
+    }
+}
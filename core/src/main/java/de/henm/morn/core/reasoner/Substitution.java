@@ -15,31 +15,34 @@
 package de.henm.morn.core.reasoner;
 
 import de.henm.morn.core.model.*;
+import io.vavr.Tuple2;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Map;
 
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 /**
  * A mapping from terms to terms used for unification and query results.
+ * <p>
+ * The substitution is kept in triangular form: a mapped term may contain terms
+ * which are mapped themselves. Adding a mapping therefore does not touch the
+ * other mappings; chains are resolved when the substitution is applied, and
+ * chains of mapped terms are shortened on the way (path compression). The
+ * mappings are stored in a persistent map, so merged substitutions share
+ * their structure with the original ones.
  *
  * @author henm
  */
 class Substitution {
 
-    final Map<Term, Term> substitution;
-    final CompoundTermFactory compoundTermFactory;
+    private Map<Term, Term> substitution;
 
     public Substitution() {
-        this.substitution = new LinkedHashMap<>();
-        this.compoundTermFactory = new CompoundTermFactory();
+        this(HashMap.empty());
     }
 
     private Substitution(Map<Term, Term> substitution) {
-        this();
-        this.substitution.putAll(substitution);
+        this.substitution = substitution;
     }
 
     /**
@@ -48,13 +51,7 @@ class Substitution {
      * @return This substitution for builder-pattern.
      */
     public Substitution add(Term replace, Term with) {
-        this.substitution.put(replace, with);
-
-        // Replace all occurences of replace in this substitution, too
-        for (Map.Entry<Term, Term> entry : substitution.entrySet()) {
-            substitution.put(entry.getKey(), this.apply(entry.getValue()));
-        }
-
+        this.substitution = substitution.put(replace, with);
         return this;
     }
 
@@ -63,57 +60,44 @@ class Substitution {
      * substitution.
      *
      * @param {t} The term apply the substitution to.
-     * @return A new term with all occurrences replaced.
+     * @return A new term with all occurrences replaced. Unchanged subterms are
+     * shared with the given term.
      */
     public Term apply(Term t) {
-        if (t instanceof CompoundTerm) {
-            final Optional<Term> substituteWith = get(t);
-            if (substituteWith.isPresent()) {
-                return substituteWith.get();
-            } else {
-                final CompoundTerm ct = (CompoundTerm) t;
-                final List<Term> replacedArguments = ct.getArguments().stream()
-                        .map(arg -> apply(arg))
-                        .collect(Collectors.toList());
-                return compoundTermFactory.build(ct.getFunctor(), replacedArguments);
-            }
-
-        } else if (t instanceof PredicateTerm) {
-            final Optional<Term> substituteWith = get(t);
-            if (substituteWith.isPresent()) {
-                return substituteWith.get();
-            } else {
-                final PredicateTerm nt = (PredicateTerm) t;
-                final Term replaced1 = apply(nt.getT1());
-                final Term replaced2 = apply(nt.getT2());
-                return new PredicateTerm(nt.getPredicate(), replaced1, replaced2);
-            }
-
-        } else if (t instanceof L) {
-
-            final L l = (L) t;
-            if (l.isEmpty()) {
-                return l;
-            }
+        return TermTraversal.resolve(t, this::dereference);
+    }
 
-            final Optional<Term> substituteWith = get(t);
-            if (substituteWith.isPresent()) {
-                return substituteWith.get();
-            } else {
-                final Term replacedHead = apply(l.getHead());
-                final Term replacedRest = apply(l.getTail());
+    /**
+     * Follow the chain of mappings starting at a term. All terms on the chain
+     * are remapped to the end of the chain.
+     *
+     * @param t The term to start with.
+     * @return The last term of the chain, which is not mapped itself.
+     */
+    private Term dereference(Term t) {
+        Term current = t;
+        Term next = substitution.get(current).getOrNull();
+        if (next == null) {
+            return t;
+        }
 
-                return new L(replacedHead, replacedRest);
-            }
+        int length = 0;
+        while (next != null) {
+            current = next;
+            next = substitution.get(current).getOrNull();
+            length++;
+        }
 
-        } else {
-            final Optional<Term> substitutedWith = get(t);
-            if (substitutedWith.isPresent()) {
-                return substitutedWith.get();
-            } else {
-                return t;
+        if (length > 1) {
+            final Term end = current;
+            Term compressed = t;
+            while (compressed != end) {
+                final Term following = substitution.get(compressed).get();
+                substitution = substitution.put(compressed, end);
+                compressed = following;
             }
         }
+        return current;
     }
 
     /**
@@ -124,7 +108,10 @@ class Substitution {
      * is not substituted.
      */
     public Optional<Term> get(Term t) {
-        return Optional.ofNullable(substitution.get(t));
+        if (!substitution.containsKey(t)) {
+            return Optional.empty();
+        }
+        return Optional.of(apply(t));
     }
 
     /**
@@ -132,11 +119,13 @@ class Substitution {
      * @return True iff there is a mapping for the given term.
      */
     public boolean containsMappingFor(Term t) {
-        return get(t).isPresent();
+        return substitution.containsKey(t);
     }
 
     /**
      * Combine the mappings of this substitution with another substitution.
+     * Neither substitution is changed; the result shares the structure of the
+     * larger one.
      *
      * @param {otherSubstitution} The other substitution.
      * @return A new substitution containing the mappings from this and the
@@ -145,29 +134,35 @@ class Substitution {
      *                                  same term in both substitutions.
      */
     public Substitution merge(Substitution otherSubstitution) {
-        final Map<Term, Term> thisMap = substitution;
-        final Map<Term, Term> otherMap = otherSubstitution.substitution;
+        final Map<Term, Term> larger;
+        final Map<Term, Term> smaller;
+        if (substitution.size() >= otherSubstitution.substitution.size()) {
+            larger = substitution;
+            smaller = otherSubstitution.substitution;
+        } else {
+            larger = otherSubstitution.substitution;
+            smaller = substitution;
+        }
 
-        final Substitution result = new Substitution(thisMap);
-        for (Map.Entry<Term, Term> entry : otherMap.entrySet()) {
-            if (this.containsMappingFor(entry.getKey())) {
+        Map<Term, Term> result = larger;
+        for (Tuple2<Term, Term> entry : smaller) {
+            if (larger.containsKey(entry._1)) {
                 throw new IllegalArgumentException(String.format(
                         "Merging of substitutions '%s' and '%s' not possible: Term '%s' is mapped multiple times", this,
-                        otherSubstitution, entry.getKey()));
+                        otherSubstitution, entry._1));
             }
+            result = result.put(entry);
         }
 
-        result.substitution.putAll(otherMap);
-
-        return result;
+        return new Substitution(result);
     }
 
     @Override
     public String toString() {
         final StringBuilder builder = new StringBuilder();
-        for (Map.Entry<Term, Term> entry : substitution.entrySet()) {
-            builder.append(String.format("%s: %s\n", entry.getKey(), entry.getValue()));
+        for (Tuple2<Term, Term> entry : substitution) {
+            builder.append(String.format("%s: %s\n", entry._1, apply(entry._1)));
         }
         return builder.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answer tables of tabled predicates.
+ * <p>
+ * A call to a tabled predicate is not resolved with its clauses but with the
+ * answers of its variant, i.e. of all calls which are equal up to the names of
+ * their variables. The first call of a variant evaluates it with the clauses
+ * and stores the answers found in its table; later calls only read the table.
+ * <p>
+ * Calls to a variant which is not complete yet consume the answers found so
+ * far, including the ones added while they are consumed. The variant which
+ * is evaluated lowest on the stack of all variants depending on each other
+ * (the leader) then evaluates them and itself again until a complete round
+ * adds no new answer to any table. Only then the tables are complete.
+ * Left-recursive and cyclic definitions thus terminate as long as the number
+ * of answers is finite, and every round evaluates each variant of the
+ * component once.
+ * <p>
+ * Variants are evaluated without recursion: a search evaluating a table is
+ * suspended when it calls a variant which has to be evaluated first (see
+ * {@link Solutions#isSuspended()}). The evaluation of that variant is pushed
+ * onto an explicit stack, and the search is resumed with its answers once it
+ * is done. Long chains of variants depending on each other thus only need
+ * heap space.
+ * <p>
+ * Complete tables are kept until a clause is added or removed or a predicate
+ * is tabled. They are shared by all snapshots of the same clauses (see
+ * {@link PredicateTable#snapshot()}), so later queries on snapshots reuse
+ * them, e.g. every query of a knowledge base. Tables which are not complete
+ * yet belong to the query evaluating them.
+ *
+ * @author henm
+ */
+class Tables {
+
+    private enum State {
+        NEW, EVALUATING, INCOMPLETE, COMPLETE
+    }
+
+    private final PredicateTable predicateTable;
+    /**
+     * A persistent set which is replaced when a predicate is tabled, so
+     * snapshots might be taken while predicates are tabled.
+     */
+    private volatile io.vavr.collection.Set<PredicateKey> tabledPredicates;
+    /**
+     * Replaced when the clauses or the tabled predicates change.
+     */
+    private volatile CompleteTables completeTables;
+    private final Map<List<Object>, Table> tables;
+    /**
+     * The evaluations of the tables which are currently evaluated, callers
+     * first.
+     */
+    private final List<Evaluation> stack;
+    /**
+     * The tables evaluated since the current round of their leader started,
+     * they are complete once the leader is.
+     */
+    private final List<Table> incomplete;
+    private int numberOfAnswers;
+    private int incompleteCalls;
+
+    Tables(PredicateTable predicateTable) {
+        this(predicateTable, io.vavr.collection.HashSet.empty(), null);
+    }
+
+    /**
+     * Create tables for the same tabled predicates as other ones. The
+     * complete tables are shared if the clauses are the same.
+     */
+    Tables(PredicateTable predicateTable, Tables other) {
+        this(predicateTable, other.tabledPredicates, other.completeTables);
+    }
+
+    private Tables(PredicateTable predicateTable, io.vavr.collection.Set<PredicateKey> tabledPredicates,
+                   CompleteTables completeTables) {
+        this.predicateTable = predicateTable;
+        this.tabledPredicates = tabledPredicates;
+        // The other tables might have been changed meanwhile
+        this.completeTables = completeTables != null
+                && completeTables.isFor(predicateTable.getVersion(), tabledPredicates)
+                ? completeTables
+                : new CompleteTables(predicateTable.getVersion(), tabledPredicates);
+        this.tables = new HashMap<>();
+        this.stack = new ArrayList<>();
+        this.incomplete = new ArrayList<>();
+    }
+
+    void table(PredicateKey key) {
+        tabledPredicates = tabledPredicates.add(key);
+        clear();
+    }
+
+    boolean isEmpty() {
+        return tabledPredicates.isEmpty();
+    }
+
+    boolean isTabled(Term goal) {
+        final io.vavr.collection.Set<PredicateKey> tabledPredicates = this.tabledPredicates;
+        if (tabledPredicates.isEmpty()) {
+            return false;
+        }
+        final PredicateKey key = PredicateKey.of(goal);
+        return key != null && tabledPredicates.contains(key);
+    }
+
+    /**
+     * Forget all answers, e.g. because a clause was added. Snapshots taken
+     * before keep the complete tables of their clauses.
+     */
+    void clear() {
+        tables.clear();
+        completeTables = new CompleteTables(predicateTable.getVersion(), tabledPredicates);
+    }
+
+    /**
+     * Get the answers of a call to a tabled predicate.
+     *
+     * @param goal The goal, variable cells are followed.
+     * @return The answers of the variant of the goal as facts. The list is
+     * only complete if the variant does not depend on a variant which is
+     * currently evaluated; until then it grows as answers are found. Null if the goal is called by the evaluation of a
+     * table and its own table has to be evaluated first; the calling search
+     * is then suspended.
+     */
+    List<ClauseEntry> getAnswers(Term goal) {
+        final Term variant = toVariant(goal);
+        final List<Object> key = keyOf(variant);
+        Table table = tables.get(key);
+        if (table == null) {
+            final List<ClauseEntry> answers = completeTables.answers.get(key);
+            if (answers != null) {
+                return answers;
+            }
+            table = new Table(variant, key);
+            tables.put(key, table);
+        }
+
+        switch (table.state) {
+            case COMPLETE:
+                return table.answers;
+            case NEW:
+                if (stack.isEmpty()) {
+                    evaluate(table);
+                    return table.answers;
+                }
+                // The caller is suspended until the table is evaluated
+                stack.get(stack.size() - 1).callee = table;
+                return null;
+            default:
+                // A call within the tables depending on each other, go on
+                // with the answers found so far and the ones added while
+                // they are consumed
+                final Table caller = stack.get(stack.size() - 1).table;
+                caller.leader = Math.min(caller.leader,
+                        table.state == State.EVALUATING ? table.position : table.leader);
+                incompleteCalls++;
+                return table.answers;
+        }
+    }
+
+    /**
+     * Evaluate a table and all tables it calls which have to be evaluated.
+     */
+    private void evaluate(Table table) {
+        push(table);
+        while (!stack.isEmpty()) {
+            final Evaluation evaluation = stack.get(stack.size() - 1);
+            if (!evaluation.members.isEmpty()) {
+                push(evaluation.members.poll());
+            } else if (evaluation.solutions.hasNext()) {
+                add(evaluation.table, evaluation.solutions.next());
+            } else if (evaluation.solutions.isSuspended()) {
+                push(evaluation.callee);
+                evaluation.callee = null;
+            } else if (evaluation.table.leader == evaluation.table.position
+                    && incompleteCalls != evaluation.incompleteCallsBefore
+                    && numberOfAnswers != evaluation.answersBefore) {
+                startRound(evaluation);
+            } else {
+                complete(evaluation);
+            }
+        }
+    }
+
+    private void push(Table table) {
+        table.state = State.EVALUATING;
+        table.position = stack.size();
+        table.leader = table.position;
+        final Evaluation evaluation = new Evaluation(table, incomplete.size());
+        stack.add(evaluation);
+        evaluation.answersBefore = numberOfAnswers;
+        evaluation.incompleteCallsBefore = incompleteCalls;
+        evaluation.solutions = new Solutions(predicateTable, table.goal, true);
+    }
+
+    /**
+     * Evaluate the tables depending on a leader again, then the leader
+     * itself.
+     */
+    private void startRound(Evaluation evaluation) {
+        final List<Table> members = incomplete.subList(evaluation.firstIncomplete, incomplete.size());
+        evaluation.members.addAll(members);
+        members.clear();
+        evaluation.answersBefore = numberOfAnswers;
+        evaluation.incompleteCallsBefore = incompleteCalls;
+        evaluation.solutions = new Solutions(predicateTable, evaluation.table.goal, true);
+    }
+
+    /**
+     * Finish the evaluation of a table once no further round is needed.
+     */
+    private void complete(Evaluation evaluation) {
+        final Table table = evaluation.table;
+        final List<Table> members = incomplete.subList(evaluation.firstIncomplete, incomplete.size());
+        stack.remove(stack.size() - 1);
+        if (table.leader == table.position) {
+            completeTables.add(table);
+            members.forEach(completeTables::add);
+            members.clear();
+        } else {
+            // The tables depending on this one now depend on its leader,
+            // whose position stays valid while they are incomplete
+            members.forEach(t -> t.leader = table.leader);
+            table.state = State.INCOMPLETE;
+            incomplete.add(table);
+            final Table caller = stack.get(stack.size() - 1).table;
+            caller.leader = Math.min(caller.leader, table.leader);
+        }
+    }
+
+    private void add(Table table, Answer answer) {
+        final Map<Ref, Variable> variables = new IdentityHashMap<>();
+        final Term term = TermTraversal.resolve(table.goal, t -> {
+            if (t instanceof Variable) {
+                return answer.get((Variable) t).orElse(t);
+            } else if (t instanceof Ref) {
+                // Unbound cells of the evaluation become variables of the fact
+                return variables.computeIfAbsent((Ref) t, r -> new Variable("_A" + variables.size()));
+            }
+            return t;
+        });
+
+        if (table.keys.add(keyOf(term))) {
+            table.answers.add(new ClauseEntry(new Fact(term), table.answers.size()));
+            numberOfAnswers++;
+        }
+    }
+
+    /**
+     * @return The goal with all bound cells replaced by their values and the
+     * unbound ones by variables.
+     */
+    private static Term toVariant(Term goal) {
+        final Map<Ref, Variable> variables = new IdentityHashMap<>();
+        return TermTraversal.resolve(goal, t -> {
+            t = Bindings.deref(t);
+            return t instanceof Ref
+                    ? variables.computeIfAbsent((Ref) t, r -> new Variable("_V" + variables.size()))
+                    : t;
+        });
+    }
+
+    /**
+     * @return A key which is equal for two terms iff they are variants of each
+     * other: the symbols of the term in preorder with each variable replaced
+     * by the number of its first occurrence.
+     */
+    static List<Object> keyOf(Term term) {
+        final List<Object> key = new ArrayList<>();
+        final Map<Term, Integer> variables = new IdentityHashMap<>();
+        final Deque<Term> pending = new ArrayDeque<>();
+        pending.push(term);
+
+        while (!pending.isEmpty()) {
+            final Term next = Bindings.deref(pending.pop());
+            if (next instanceof Variable || next instanceof Ref) {
+                key.add(new VariableNumber(variables.computeIfAbsent(next, v -> variables.size())));
+                continue;
+            }
+            final Object symbol = ArgumentIndex.keyOf(next);
+            // Terms without a key, like predicate terms, are only equal to
+            // themselves
+            key.add(symbol == null ? next : symbol);
+            final List<Term> subterms = TermTraversal.subterms(next);
+            for (int i = subterms.size() - 1; i >= 0; i--) {
+                pending.push(subterms.get(i));
+            }
+        }
+        return Collections.unmodifiableList(key);
+    }
+
+    private static final class Table {
+        private final Term goal;
+        private final List<Object> key;
+        private final List<ClauseEntry> answers;
+        private final Set<List<Object>> keys;
+        private State state;
+        private int position;
+        private int leader;
+
+        private Table(Term goal, List<Object> key) {
+            this.goal = goal;
+            this.key = key;
+            this.answers = new ArrayList<>();
+            this.keys = new HashSet<>();
+            this.state = State.NEW;
+        }
+    }
+
+    /**
+     * The answers of the complete tables of one version of the clauses and
+     * the tabled predicates. Tables of snapshots of this version might read
+     * and add them concurrently.
+     */
+    private static final class CompleteTables {
+        private final Object version;
+        private final io.vavr.collection.Set<PredicateKey> tabledPredicates;
+        private final Map<List<Object>, List<ClauseEntry>> answers;
+
+        private CompleteTables(Object version, io.vavr.collection.Set<PredicateKey> tabledPredicates) {
+            this.version = version;
+            this.tabledPredicates = tabledPredicates;
+            this.answers = new ConcurrentHashMap<>();
+        }
+
+        private boolean isFor(Object version, io.vavr.collection.Set<PredicateKey> tabledPredicates) {
+            return this.version == version && this.tabledPredicates == tabledPredicates;
+        }
+
+        /**
+         * Mark a table complete and share its answers, which do not change
+         * any more.
+         */
+        private void add(Table table) {
+            table.state = State.COMPLETE;
+            answers.putIfAbsent(table.key, table.answers);
+        }
+    }
+
+    /**
+     * The state of the evaluation of a table.
+     */
+    private static final class Evaluation {
+        private final Table table;
+        private final int firstIncomplete;
+        /**
+         * The incomplete tables depending on the table, which are evaluated
+         * again before the next round of the table.
+         */
+        private final Deque<Table> members;
+        private Solutions solutions;
+        private int answersBefore;
+        private int incompleteCallsBefore;
+        /**
+         * The table the search is suspended for.
+         */
+        private Table callee;
+
+        private Evaluation(Table table, int firstIncomplete) {
+            this.table = table;
+            this.firstIncomplete = firstIncomplete;
+            this.members = new ArrayDeque<>();
+        }
+    }
+
+    private static final class VariableNumber {
+        private final int number;
+
+        private VariableNumber(int number) {
+            this.number = number;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof VariableNumber && ((VariableNumber) o).number == number;
+        }
+
+        @Override
+        public int hashCode() {
+            return number;
+        }
+    }
+}
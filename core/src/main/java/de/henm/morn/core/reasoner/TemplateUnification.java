@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.*;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Unification of a goal with the head of a clause template.
+ * <p>
+ * Works like {@link Unification}, but a slot of the template which is met for
+ * the first time is simply bound to the corresponding part of the goal. Terms
+ * of the template are only built when a variable of the goal has to be bound
+ * to them, so clauses which do not match the goal are never copied.
+ *
+ * @author henm
+ */
+class TemplateUnification {
+
+    private final Unification unification;
+
+    TemplateUnification() {
+        this.unification = new Unification();
+    }
+
+    /**
+     * Unify a goal with the head of a template. On failure some bindings might
+     * have been made, the caller is responsible to undo them.
+     *
+     * @param goal     The goal to unify.
+     * @param head     The head of a clause template.
+     * @param frame    The frame receiving the bindings of the slots.
+     * @param bindings The binding store for the variables of the goal.
+     * @return True iff the goal unifies with the head.
+     */
+    boolean unify(Term goal, Term head, Frame frame, Bindings bindings) {
+        final Deque<Term> goalTerms = new ArrayDeque<>();
+        final Deque<Term> templateTerms = new ArrayDeque<>();
+        goalTerms.push(goal);
+        templateTerms.push(head);
+
+        while (!goalTerms.isEmpty()) {
+            final Term goalTerm = Bindings.deref(goalTerms.pop());
+            final Term templateTerm = templateTerms.pop();
+
+            if (templateTerm instanceof Slot) {
+                final Slot slot = (Slot) templateTerm;
+                if (frame.get(slot) == null) {
+                    frame.set(slot, goalTerm);
+                } else if (!unification.unify(goalTerm, frame.get(slot), bindings)) {
+                    return false;
+                }
+
+            } else if (goalTerm instanceof Ref) {
+                final Term term = frame.instantiate(templateTerm);
+                if (bindings.occurs((Ref) goalTerm, term)) {
+                    return false;
+                }
+                bindings.bind((Ref) goalTerm, term);
+
+            } else if (goalTerm instanceof IntegerTerm) {
+                if (!(templateTerm instanceof IntegerTerm)
+                        || ((IntegerTerm) goalTerm).getValue() != ((IntegerTerm) templateTerm).getValue()) {
+                    return false;
+                }
+
+            } else if (goalTerm instanceof L) {
+                if (!(templateTerm instanceof L)) {
+                    return false;
+                }
+                final L goalList = (L) goalTerm;
+                final L templateList = (L) templateTerm;
+                if (goalList.isEmpty() || templateList.isEmpty()) {
+                    if (goalList.isEmpty() != templateList.isEmpty()) {
+                        return false;
+                    }
+                    continue;
+                }
+                goalTerms.push(goalList.getTail());
+                templateTerms.push(templateList.getTail());
+                goalTerms.push(goalList.getHead());
+                templateTerms.push(templateList.getHead());
+
+            } else if (goalTerm instanceof CompoundTerm) {
+                if (!(templateTerm instanceof CompoundTerm)) {
+                    return false;
+                }
+                final CompoundTerm goalCompoundTerm = (CompoundTerm) goalTerm;
+                final CompoundTerm templateCompoundTerm = (CompoundTerm) templateTerm;
+                final List<Term> goalArguments = goalCompoundTerm.getArguments();
+                final List<Term> templateArguments = templateCompoundTerm.getArguments();
+                if (goalCompoundTerm.getFunctor().getId() != templateCompoundTerm.getFunctor().getId()
+                        || goalArguments.size() != templateArguments.size()) {
+                    return false;
+                }
+                for (int i = goalArguments.size() - 1; i >= 0; i--) {
+                    goalTerms.push(goalArguments.get(i));
+                    templateTerms.push(templateArguments.get(i));
+                }
+
+            } else if (!templateTerm.equals(goalTerm)) {
+                // Different constants or terms of different kinds
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.CompoundTermFactory;
+import de.henm.morn.core.model.L;
+import de.henm.morn.core.model.PredicateTerm;
+import de.henm.morn.core.model.Term;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * Rebuilding terms without recursion.
+ * <p>
+ * Terms like long lists are nested as deeply as they are long, so walking them
+ * recursively would overflow the Java stack. The traversal keeps its pending
+ * subterms on the heap instead.
+ *
+ * @author henm
+ */
+final class TermTraversal {
+
+    private static final CompoundTermFactory COMPOUND_TERM_FACTORY = new CompoundTermFactory();
+
+    private TermTraversal() {
+    }
+
+    /**
+     * Build a term by replacing some of its subterms.
+     *
+     * @param term    The term to rebuild.
+     * @param replace Called for every subterm, top-down. If it returns the
+     *                subterm itself, the subterms of it are visited in turn;
+     *                otherwise the result is used as it is.
+     * @return The rebuilt term. Terms whose subterms are unchanged are reused.
+     */
+    static Term replace(Term term, UnaryOperator<Term> replace) {
+        return rebuild(term, replace, false);
+    }
+
+    /**
+     * Build a term by dereferencing all of its subterms.
+     *
+     * @param term        The term to rebuild.
+     * @param dereference Called for every subterm, top-down. The subterms of
+     *                    its result are visited in turn.
+     * @return The rebuilt term. Terms whose subterms are unchanged are reused.
+     */
+    static Term resolve(Term term, UnaryOperator<Term> dereference) {
+        return rebuild(term, dereference, true);
+    }
+
+    private static Term rebuild(Term term, UnaryOperator<Term> replace, boolean visitReplacements) {
+        // Either terms to visit or parents whose arguments are complete
+        final Deque<Object> pending = new ArrayDeque<>();
+        final Deque<Term> results = new ArrayDeque<>();
+        pending.push(term);
+
+        while (!pending.isEmpty()) {
+            final Object next = pending.pop();
+            if (next instanceof Parent) {
+                final Term parent = ((Parent) next).term;
+                final List<Term> arguments = subterms(parent);
+                final Term[] replacedArguments = new Term[arguments.size()];
+                boolean changed = false;
+                for (int i = replacedArguments.length - 1; i >= 0; i--) {
+                    replacedArguments[i] = results.pop();
+                    changed |= replacedArguments[i] != arguments.get(i);
+                }
+                results.push(changed ? build(parent, replacedArguments) : parent);
+                continue;
+            }
+
+            final Term replaced = replace.apply((Term) next);
+            final List<Term> arguments = visitReplacements || replaced == next
+                    ? subterms(replaced)
+                    : Collections.<Term>emptyList();
+            if (arguments.isEmpty()) {
+                results.push(replaced);
+            } else {
+                pending.push(new Parent(replaced));
+                for (int i = arguments.size() - 1; i >= 0; i--) {
+                    pending.push(arguments.get(i));
+                }
+            }
+        }
+
+        return results.pop();
+    }
+
+    /**
+     * @return The direct subterms of a compound term, a non-empty list or a
+     * predicate term; an empty list for all other terms.
+     */
+    static List<Term> subterms(Term term) {
+        if (term instanceof CompoundTerm) {
+            return ((CompoundTerm) term).getArguments();
+        } else if (term instanceof L && !((L) term).isEmpty()) {
+            return Arrays.asList(((L) term).getHead(), ((L) term).getTail());
+        } else if (term instanceof PredicateTerm) {
+            return Arrays.asList(((PredicateTerm) term).getT1(), ((PredicateTerm) term).getT2());
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    private static Term build(Term term, Term[] arguments) {
+        if (term instanceof CompoundTerm) {
+            return COMPOUND_TERM_FACTORY.build(((CompoundTerm) term).getFunctor(), Arrays.asList(arguments));
+        } else if (term instanceof L) {
+            return new L(arguments[0], arguments[1]);
+        } else {
+            return new PredicateTerm(((PredicateTerm) term).getPredicate(), arguments[0], arguments[1]);
+        }
+    }
+
+    private static final class Parent {
+        private final Term term;
+
+        private Parent(Term term) {
+            this.term = term;
+        }
+    }
+}
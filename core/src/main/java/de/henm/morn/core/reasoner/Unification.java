@@ -14,14 +14,19 @@
  */
 package de.henm.morn.core.reasoner;
 
-import java.util.Iterator;
-import java.util.Stack;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import de.henm.morn.core.model.*;
 
 /**
  * Unification-Algorithm based on the algorithm given in "The Art of Prolog"
  * by Leon S. Sterling and Ehud Y. Shapiro, MIT Press, March 1994.
+ * <p>
+ * Variables are bound destructively in a {@link Bindings} store instead of
+ * building up a substitution.
  * 
  * @author henm
  */
@@ -35,117 +40,103 @@ public class Unification {
      * @return UnificationResult containing the result of the unification.
      */
     public UnificationResult unify(Term term1, Term term2) {
+        final Bindings bindings = new Bindings();
+        final Map<Variable, Ref> variables = new LinkedHashMap<>();
 
-        final Substitution substitution = new Substitution();
-
-        Stack<Terms> stack = new Stack<>();
-        stack.add(new Terms(term1, term2));
-
-        while (!stack.isEmpty()) {
-
-            final Terms terms = stack.pop().applySubstitution(substitution);
-
-            if (terms.firstTermVariableCondition()) {
-                final Variable variable = (Variable) terms.getTerm1();
-                substitution.add(variable, terms.getTerm2());
-
-            } else if (terms.secondTermVariableCondition()) {
-                final Variable variable = (Variable) terms.getTerm2();
-                substitution.add(variable, terms.getTerm1());
+        if (unify(bindings.importTerm(term1, variables), bindings.importTerm(term2, variables), bindings)) {
+            return new PositiveUnificationResult(bindings.toSubstitution(variables));
+        } else {
+            return new NegativeUnificationResult();
+        }
+    }
 
-            } else if (terms.sameConstants()) {
+    /**
+     * Unify two terms by binding their variable cells. On failure some
+     * bindings might have been made, the caller is responsible to undo them.
+     *
+     * @param term1    First term to unify.
+     * @param term2    Second term to unify.
+     * @param bindings The binding store.
+     * @return True iff the terms unify.
+     */
+    boolean unify(Term term1, Term term2, Bindings bindings) {
+        // Unifications might be nested, e.g. by template unification, so only
+        // the pairs above the current top belong to this one
+        final Deque<Term> stack = bindings.getUnificationStack();
+        final int bottom = stack.size();
+        stack.push(term1);
+        stack.push(term2);
+
+        while (stack.size() > bottom) {
+            final Term t2 = Bindings.deref(stack.pop());
+            final Term t1 = Bindings.deref(stack.pop());
+
+            if (t1 == t2) {
                 continue;
 
-            } else if (terms.sameInteger()) {
-                continue;
+            } else if (t1 instanceof Ref) {
+                if (bindings.occurs((Ref) t1, t2)) {
+                    return fail(stack, bottom);
+                }
+                bindings.bind((Ref) t1, t2);
 
-            } else if (terms.listCondition()) {
-                final L list1 = (L) terms.getTerm1();
-                final L list2 = (L) terms.getTerm2();
+            } else if (t2 instanceof Ref) {
+                if (bindings.occurs((Ref) t2, t1)) {
+                    return fail(stack, bottom);
+                }
+                bindings.bind((Ref) t2, t1);
 
-                if (list1.isEmpty() && list2.isEmpty()) {
-                    continue;
+            } else if (t1 instanceof IntegerTerm) {
+                if (!(t2 instanceof IntegerTerm) || ((IntegerTerm) t1).getValue() != ((IntegerTerm) t2).getValue()) {
+                    return fail(stack, bottom);
                 }
 
+            } else if (t1 instanceof L && t2 instanceof L) {
+                final L list1 = (L) t1;
+                final L list2 = (L) t2;
                 if (list1.isEmpty() || list2.isEmpty()) {
-                    return new NegativeUnificationResult();
+                    return fail(stack, bottom);
+                }
+                stack.push(list1.getHead());
+                stack.push(list2.getHead());
+                stack.push(list1.getTail());
+                stack.push(list2.getTail());
+
+            } else if (t1 instanceof CompoundTerm && t2 instanceof CompoundTerm) {
+                final CompoundTerm compoundTerm1 = (CompoundTerm) t1;
+                final CompoundTerm compoundTerm2 = (CompoundTerm) t2;
+                final List<Term> arguments1 = compoundTerm1.getArguments();
+                final List<Term> arguments2 = compoundTerm2.getArguments();
+                if (compoundTerm1.getFunctor().getId() != compoundTerm2.getFunctor().getId()
+                        || arguments1.size() != arguments2.size()) {
+                    return fail(stack, bottom);
+                }
+                for (int i = 0; i < arguments1.size(); i++) {
+                    stack.push(arguments1.get(i));
+                    stack.push(arguments2.get(i));
                 }
 
-                stack.push(new Terms(list1.getHead(), list2.getHead()));
-                stack.push(new Terms(list1.getTail(), list2.getTail()));
-
-            } else if (terms.compoundTermCondition()) {
-                final Iterator<Term> arguments1 = ((CompoundTerm) terms.getTerm1()).getArguments()
-                        .iterator();
-                final Iterator<Term> arguments2 = ((CompoundTerm) terms.getTerm2()).getArguments()
-                        .iterator();
-
-                while (arguments1.hasNext()) {
-                    stack.push(new Terms(arguments1.next(), arguments2.next()));
+            } else if (t1 instanceof Constant && t2 instanceof Constant) {
+                if (((Constant) t1).getId() != ((Constant) t2).getId()) {
+                    return fail(stack, bottom);
                 }
 
             } else {
-                return new NegativeUnificationResult();
+                // Different constants or terms of different kinds
+                return fail(stack, bottom);
             }
         }
 
-        return new PositiveUnificationResult(substitution);
+        return true;
     }
 
-    private static class Terms {
-        private Term term1;
-        private Term term2;
-
-        public Terms(Term term1, Term term2) {
-            this.term1 = term1;
-            this.term2 = term2;
-        }
-
-        public Term getTerm1() {
-            return term1;
-        }
-
-        public Term getTerm2() {
-            return term2;
-        }
-
-        public boolean firstTermVariableCondition() {
-            return term1 instanceof Variable && !term2.contains((Variable) term1);
-        }
-
-        public boolean secondTermVariableCondition() {
-            return term2 instanceof Variable && !term1.contains((Variable) term2);
-        }
-
-        public boolean sameConstants() {
-            return term1 instanceof Constant && term1 instanceof Constant && term1 == term2;
-        }
-
-        public boolean sameInteger() {
-            if (term1 instanceof IntegerTerm && term2 instanceof IntegerTerm) {
-                final IntegerTerm nt1 = (IntegerTerm) term1;
-                final IntegerTerm nt2 = (IntegerTerm) term2;
-
-                return nt1.getValue() == nt2.getValue();
-            } else {
-                return false;
-            }
-        }
-
-        public boolean compoundTermCondition() {
-            return term1 instanceof CompoundTerm && term2 instanceof CompoundTerm
-                    && ((CompoundTerm) term1).getFunctor() == ((CompoundTerm) term2).getFunctor();
-        }
-
-        public boolean listCondition() {
-            return term1 instanceof L && term2 instanceof L;
-        }
-
-        public Terms applySubstitution(Substitution substutition) {
-            term1 = substutition.apply(term1);
-            term2 = substutition.apply(term2);
-
-            return this;
+    /**
+     * Drop the pending pairs of a failed unification.
+     */
+    private static boolean fail(Deque<Term> stack, int bottom) {
+        while (stack.size() > bottom) {
+            stack.pop();
         }
+        return false;
     }
-}
\ No newline at end of file
+}
@@ -23,12 +23,16 @@ import java.util.stream.Collectors;
 
 /**
  * Generates new, unique variable names used during the reasoning.
+ * <p>
+ * Each renaming numbers its variables on its own, so a renaming must not be
+ * shared by concurrent queries. Fresh variables are distinct by identity
+ * anyway, the names only tell them apart when printed.
  *
  * @author henm
  */
 class VariableRenaming {
 
-    private static int variableCounter = 0;
+    private int variableCounter = 0;
 
     private final CompoundTermFactory compoundTermfactory;
 
@@ -116,6 +120,6 @@ class VariableRenaming {
      * @return A fresh, unique variable.
      */
     private Variable getFreshVariable() {
-        return new Variable(String.format("_X%d", variableCounter++));
+        return new Variable("_X" + variableCounter++);
     }
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.wam;
+
+/**
+ * Encoding of the cells of the heap, the stack and the registers. A cell is a
+ * long holding a value and a three bit tag.
+ *
+ * @author henm
+ */
+final class Cells {
+
+    /**
+     * Reference to a heap cell. An unbound variable refers to itself.
+     */
+    static final int REF = 0;
+    /**
+     * Reference to the functor cell of a structure, the arguments follow it.
+     */
+    static final int STR = 1;
+    /**
+     * Constant, the value is its id in the symbol table.
+     */
+    static final int CON = 2;
+    static final int INT = 3;
+    /**
+     * Reference to a list cell: the head followed by the tail.
+     */
+    static final int LIS = 4;
+    /**
+     * Functor of a structure, the value is its id in the symbol table.
+     */
+    static final int FUN = 5;
+
+    private Cells() {
+    }
+
+    static long cell(int tag, int value) {
+        return ((long) value << 3) | tag;
+    }
+
+    static int tag(long cell) {
+        return (int) (cell & 7);
+    }
+
+    static int value(long cell) {
+        return (int) (cell >> 3);
+    }
+}
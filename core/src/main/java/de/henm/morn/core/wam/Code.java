@@ -0,0 +1,124 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.wam;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The code area: instructions, the tables of the switch instructions and the
+ * entry address of every predicate.
+ * <p>
+ * Code is only appended, addresses stay valid as long as the code area is
+ * used. Recompiling a predicate appends its new code and moves its entry.
+ *
+ * @author henm
+ */
+final class Code {
+
+    private int[] instructions;
+    private int size;
+    private int[] entries;
+    private final List<SwitchTable> switchTables;
+    private int numberOfRegisters;
+
+    Code() {
+        this.instructions = new int[1024];
+        this.size = 0;
+        this.entries = new int[16];
+        Arrays.fill(entries, Opcodes.FAIL_LABEL);
+        this.switchTables = new ArrayList<>();
+    }
+
+    /**
+     * @return The address of the next instruction.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of registers used by the instructions.
+     */
+    int getNumberOfRegisters() {
+        return numberOfRegisters;
+    }
+
+    void useRegisters(int numberOfRegisters) {
+        this.numberOfRegisters = Math.max(this.numberOfRegisters, numberOfRegisters);
+    }
+
+    int[] getInstructions() {
+        return instructions;
+    }
+
+    void emit(int... words) {
+        if (size + words.length > instructions.length) {
+            instructions = Arrays.copyOf(instructions, Math.max(2 * instructions.length, size + words.length));
+        }
+        System.arraycopy(words, 0, instructions, size, words.length);
+        size += words.length;
+    }
+
+    /**
+     * @return The entry address of a predicate or {@link Opcodes#FAIL_LABEL}
+     * if it has no clauses.
+     */
+    int getEntry(int predicate) {
+        return predicate < entries.length ? entries[predicate] : Opcodes.FAIL_LABEL;
+    }
+
+    void setEntry(int predicate, int address) {
+        if (predicate >= entries.length) {
+            final int oldLength = entries.length;
+            entries = Arrays.copyOf(entries, Math.max(2 * oldLength, predicate + 1));
+            Arrays.fill(entries, oldLength, entries.length, Opcodes.FAIL_LABEL);
+        }
+        entries[predicate] = address;
+    }
+
+    /**
+     * @return The number of the new table.
+     */
+    int addSwitchTable(SwitchTable table) {
+        switchTables.add(table);
+        return switchTables.size() - 1;
+    }
+
+    SwitchTable getSwitchTable(int table) {
+        return switchTables.get(table);
+    }
+
+    /**
+     * Labels for the values of the first argument of a call.
+     */
+    static final class SwitchTable {
+
+        private final Map<Long, Integer> labels;
+        private final int defaultLabel;
+
+        SwitchTable(Map<Long, Integer> labels, int defaultLabel) {
+            this.labels = new HashMap<>(labels);
+            this.defaultLabel = defaultLabel;
+        }
+
+        int getLabel(long key) {
+            return labels.getOrDefault(key, defaultLabel);
+        }
+    }
+}
@@ -0,0 +1,489 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.wam;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.Constant;
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.L;
+import de.henm.morn.core.model.PredicateTerm;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+import de.henm.morn.core.reasoner.PredicateKey;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static de.henm.morn.core.wam.Opcodes.*;
+
+/**
+ * Compiles predicates and queries into instructions.
+ * <p>
+ * Every clause is compiled on its own: the head into get and unify
+ * instructions, the goals of the body into put and set instructions followed
+ * by a call. The last goal is called with execute, so the environment of the
+ * clause is released before (last call optimization). A clause only gets an
+ * environment if it calls a goal which is not its last one; variables which
+ * live across such a call are kept in the environment. The clauses of a
+ * predicate are then chained with try/retry/trust instructions, using switch
+ * instructions on the first argument to skip clauses which cannot match.
+ *
+ * @author henm
+ */
+final class Compiler {
+
+    private final SymbolTable symbols;
+    private final Code code;
+
+    Compiler(SymbolTable symbols, Code code) {
+        this.symbols = symbols;
+        this.code = code;
+    }
+
+    /**
+     * Compile the clauses of a predicate and make them its entry point.
+     *
+     * @param predicate The id of the predicate.
+     * @param clauses   The clauses in the order they are tried.
+     */
+    void compilePredicate(int predicate, List<Clause> clauses) {
+        final List<Integer> addresses = new ArrayList<>(clauses.size());
+        for (Clause clause : clauses) {
+            addresses.add(new ClauseCompilation(clause.getHead(), clause.getBody(), null).compile());
+        }
+
+        if (clauses.isEmpty()) {
+            code.setEntry(predicate, FAIL_LABEL);
+        } else if (symbols.getPredicate(predicate).getArity() == 0 || clauses.size() == 1) {
+            code.setEntry(predicate, chain(addresses));
+        } else {
+            code.setEntry(predicate, index(clauses, addresses));
+        }
+    }
+
+    /**
+     * Compile a query. Its variables are kept in the environment of the query
+     * in the given order, so they can be read after the query was proven.
+     *
+     * @param goal      The goal to prove.
+     * @param variables The variables of the goal.
+     * @return The address of the query.
+     */
+    int compileQuery(Term goal, List<Variable> variables) {
+        return new ClauseCompilation(null, Collections.singletonList(goal), variables).compile();
+    }
+
+    /**
+     * @return The address of instructions trying the given clauses in order.
+     */
+    private int chain(List<Integer> addresses) {
+        if (addresses.isEmpty()) {
+            return FAIL_LABEL;
+        } else if (addresses.size() == 1) {
+            return addresses.get(0);
+        }
+
+        final int start = code.size();
+        code.emit(TRY, addresses.get(0));
+        for (int i = 1; i < addresses.size() - 1; i++) {
+            code.emit(RETRY, addresses.get(i));
+        }
+        code.emit(TRUST, addresses.get(addresses.size() - 1));
+        return start;
+    }
+
+    private int index(List<Clause> clauses, List<Integer> addresses) {
+        final List<Integer> variableClauses = new ArrayList<>();
+        final List<Integer> listClauses = new ArrayList<>();
+        final Map<Long, List<Integer>> constantClauses = new LinkedHashMap<>();
+        final Map<Long, List<Integer>> structureClauses = new LinkedHashMap<>();
+
+        for (int i = 0; i < clauses.size(); i++) {
+            final Term first = firstArgument(clauses.get(i).getHead());
+            final int address = addresses.get(i);
+            if (first instanceof Variable) {
+                // Clauses with a variable match every call
+                variableClauses.add(address);
+                listClauses.add(address);
+                constantClauses.values().forEach(group -> group.add(address));
+                structureClauses.values().forEach(group -> group.add(address));
+            } else if (first instanceof L && !((L) first).isEmpty()) {
+                listClauses.add(address);
+            } else if (first instanceof CompoundTerm) {
+                final CompoundTerm compoundTerm = (CompoundTerm) first;
+                final long key = symbols.functor(compoundTerm.getFunctor(), compoundTerm.getArguments().size());
+                structureClauses.computeIfAbsent(key, k -> new ArrayList<>(variableClauses)).add(address);
+            } else {
+                constantClauses.computeIfAbsent(constantKey(first), k -> new ArrayList<>(variableClauses)).add(address);
+            }
+        }
+
+        final int variableLabel = chain(addresses);
+        final int constantLabel = switchTable(SWITCH_ON_CONSTANT, constantClauses, variableClauses);
+        final int listLabel = chain(listClauses);
+        final int structureLabel = switchTable(SWITCH_ON_STRUCTURE, structureClauses, variableClauses);
+
+        final int start = code.size();
+        code.emit(SWITCH_ON_TERM, variableLabel, constantLabel, listLabel, structureLabel);
+        return start;
+    }
+
+    private int switchTable(int opcode, Map<Long, List<Integer>> groups, List<Integer> defaultGroup) {
+        if (groups.isEmpty()) {
+            return chain(defaultGroup);
+        }
+
+        final Map<Long, Integer> labels = new HashMap<>();
+        groups.forEach((key, group) -> labels.put(key, chain(group)));
+        final int table = code.addSwitchTable(new Code.SwitchTable(labels, chain(defaultGroup)));
+
+        final int start = code.size();
+        code.emit(opcode, table);
+        return start;
+    }
+
+    private static Term firstArgument(Term head) {
+        return ((CompoundTerm) head).getArguments().get(0);
+    }
+
+    /**
+     * @return The cell of a constant, the empty list or an integer.
+     */
+    private long constantKey(Term term) {
+        if (term instanceof IntegerTerm) {
+            return Cells.cell(Cells.INT, ((IntegerTerm) term).getValue());
+        } else if (term instanceof Constant || term == L.EMPTY) {
+            return Cells.cell(Cells.CON, symbols.constant(term));
+        } else {
+            throw new IllegalArgumentException(String.format("Term %s is not supported by the WAM", term));
+        }
+    }
+
+    /**
+     * Compilation of a single clause or query.
+     */
+    private final class ClauseCompilation {
+
+        private final Term head;
+        private final List<Term> goals;
+        private final boolean query;
+
+        private final Map<Variable, Integer> registers;
+        private final Set<Variable> seen;
+        private final boolean environment;
+        private final int numberOfPermanentVariables;
+        private int nextTemporary;
+
+        /**
+         * @param head           The head of the clause or null for a query.
+         * @param goals          The goals of the body.
+         * @param queryVariables The variables of a query or null for a clause.
+         */
+        private ClauseCompilation(Term head, List<Term> goals, List<Variable> queryVariables) {
+            this.head = head;
+            this.goals = goals;
+            this.query = queryVariables != null;
+            this.registers = new HashMap<>();
+            this.seen = new HashSet<>();
+
+            int maxArity = head == null ? 0 : arguments(head).size();
+            int lastCall = -1;
+            for (int i = 0; i < goals.size(); i++) {
+                final Term goal = goals.get(i);
+                if (!(goal instanceof PredicateTerm)) {
+                    if (PredicateKey.of(goal) == null) {
+                        throw new IllegalArgumentException(String.format("Goal %s is not supported by the WAM", goal));
+                    }
+                    maxArity = Math.max(maxArity, arguments(goal).size());
+                    lastCall = lastCall == -1 ? i : lastCall;
+                }
+            }
+            this.nextTemporary = maxArity;
+            // Only a call before the last goal overwrites the continuation
+            this.environment = query || (lastCall != -1 && lastCall < goals.size() - 1);
+
+            final Set<Variable> permanentVariables = query
+                    ? new LinkedHashSet<>(queryVariables)
+                    : findPermanentVariables();
+            int y = 0;
+            for (Variable variable : permanentVariables) {
+                registers.put(variable, -y - 1);
+                y++;
+            }
+            this.numberOfPermanentVariables = y;
+        }
+
+        /**
+         * Variables occurring in more than one chunk, i.e. before and after a
+         * call, have to survive the call.
+         */
+        private Set<Variable> findPermanentVariables() {
+            final Map<Variable, Integer> chunks = new HashMap<>();
+            final Set<Variable> permanentVariables = new LinkedHashSet<>();
+            final int[] chunk = {0};
+            final Consumer<Variable> occurrence = variable -> {
+                if (chunks.getOrDefault(variable, chunk[0]) != chunk[0]) {
+                    permanentVariables.add(variable);
+                }
+                chunks.putIfAbsent(variable, chunk[0]);
+            };
+
+            forEachVariable(head, occurrence);
+            for (Term goal : goals) {
+                forEachVariable(goal, occurrence);
+                if (!(goal instanceof PredicateTerm)) {
+                    chunk[0]++;
+                }
+            }
+            return permanentVariables;
+        }
+
+        /**
+         * @return The address of the compiled clause.
+         */
+        private int compile() {
+            final int start = code.size();
+            if (environment) {
+                code.emit(ALLOCATE, numberOfPermanentVariables);
+            }
+
+            if (head != null) {
+                final List<Term> arguments = arguments(head);
+                for (int i = 0; i < arguments.size(); i++) {
+                    getArgument(arguments.get(i), i);
+                }
+            }
+
+            boolean executed = false;
+            for (int i = 0; i < goals.size(); i++) {
+                final Term goal = goals.get(i);
+                if (goal instanceof PredicateTerm) {
+                    final PredicateTerm predicateTerm = (PredicateTerm) goal;
+                    final int register1 = newTemporary();
+                    final int register2 = newTemporary();
+                    putArgument(predicateTerm.getT1(), register1);
+                    putArgument(predicateTerm.getT2(), register2);
+                    code.emit(BUILTIN, symbols.builtin(predicateTerm.getPredicate()), register1, register2);
+                    continue;
+                }
+
+                final List<Term> arguments = arguments(goal);
+                for (int j = 0; j < arguments.size(); j++) {
+                    putArgument(arguments.get(j), j);
+                }
+                final int predicate = symbols.predicate(PredicateKey.of(goal));
+                if (i == goals.size() - 1 && !query) {
+                    if (environment) {
+                        code.emit(DEALLOCATE);
+                    }
+                    code.emit(EXECUTE, predicate);
+                    executed = true;
+                } else {
+                    code.emit(CALL, predicate);
+                }
+            }
+
+            if (query) {
+                code.emit(ANSWER);
+            } else if (!executed) {
+                if (environment) {
+                    code.emit(DEALLOCATE);
+                }
+                code.emit(PROCEED);
+            }
+            code.useRegisters(nextTemporary);
+            return start;
+        }
+
+        private int newTemporary() {
+            return nextTemporary++;
+        }
+
+        private int register(Variable variable) {
+            return registers.computeIfAbsent(variable, v -> newTemporary());
+        }
+
+        /**
+         * @return True iff the variable is met for the first time.
+         */
+        private boolean firstOccurrence(Variable variable) {
+            return seen.add(variable);
+        }
+
+        private void getArgument(Term term, int argument) {
+            if (term instanceof Variable) {
+                final Variable variable = (Variable) term;
+                code.emit(firstOccurrence(variable) ? GET_VARIABLE : GET_VALUE, register(variable), argument);
+            } else if (term instanceof IntegerTerm) {
+                code.emit(GET_INTEGER, ((IntegerTerm) term).getValue(), argument);
+            } else if (isStructure(term)) {
+                getStructure(term, argument);
+            } else {
+                code.emit(GET_CONSTANT, constant(term), argument);
+            }
+        }
+
+        /**
+         * Match a structure and, breadth-first, the structures nested in it.
+         */
+        private void getStructure(Term term, int register) {
+            final Deque<Term> structures = new ArrayDeque<>();
+            final Deque<Integer> structureRegisters = new ArrayDeque<>();
+            structures.add(term);
+            structureRegisters.add(register);
+
+            while (!structures.isEmpty()) {
+                final Term structure = structures.poll();
+                final int structureRegister = structureRegisters.poll();
+                if (structure instanceof L) {
+                    code.emit(GET_LIST, structureRegister);
+                } else {
+                    code.emit(GET_STRUCTURE, functor((CompoundTerm) structure), structureRegister);
+                }
+
+                for (Term argument : arguments(structure)) {
+                    if (argument instanceof Variable) {
+                        final Variable variable = (Variable) argument;
+                        code.emit(firstOccurrence(variable) ? UNIFY_VARIABLE : UNIFY_VALUE, register(variable));
+                    } else if (argument instanceof IntegerTerm) {
+                        code.emit(UNIFY_INTEGER, ((IntegerTerm) argument).getValue());
+                    } else if (isStructure(argument)) {
+                        final int nestedRegister = newTemporary();
+                        code.emit(UNIFY_VARIABLE, nestedRegister);
+                        structures.add(argument);
+                        structureRegisters.add(nestedRegister);
+                    } else {
+                        code.emit(UNIFY_CONSTANT, constant(argument));
+                    }
+                }
+            }
+        }
+
+        private void putArgument(Term term, int register) {
+            if (term instanceof Variable) {
+                final Variable variable = (Variable) term;
+                code.emit(firstOccurrence(variable) ? PUT_VARIABLE : PUT_VALUE, register(variable), register);
+            } else if (term instanceof IntegerTerm) {
+                code.emit(PUT_INTEGER, ((IntegerTerm) term).getValue(), register);
+            } else if (isStructure(term)) {
+                putStructure(term, register);
+            } else {
+                code.emit(PUT_CONSTANT, constant(term), register);
+            }
+        }
+
+        /**
+         * Build a structure on the heap, nested structures first.
+         */
+        private void putStructure(Term term, int register) {
+            final Map<Term, Integer> structureRegisters = new IdentityHashMap<>();
+            final List<Term> structures = new ArrayList<>();
+            final Deque<Term> pending = new ArrayDeque<>();
+            structureRegisters.put(term, register);
+            pending.push(term);
+            while (!pending.isEmpty()) {
+                final Term structure = pending.pop();
+                structures.add(structure);
+                for (Term argument : arguments(structure)) {
+                    if (isStructure(argument) && !structureRegisters.containsKey(argument)) {
+                        structureRegisters.put(argument, newTemporary());
+                        pending.push(argument);
+                    }
+                }
+            }
+
+            for (int i = structures.size() - 1; i >= 0; i--) {
+                final Term structure = structures.get(i);
+                if (structure instanceof L) {
+                    code.emit(PUT_LIST, structureRegisters.get(structure));
+                } else {
+                    code.emit(PUT_STRUCTURE, functor((CompoundTerm) structure), structureRegisters.get(structure));
+                }
+
+                for (Term argument : arguments(structure)) {
+                    if (argument instanceof Variable) {
+                        final Variable variable = (Variable) argument;
+                        code.emit(firstOccurrence(variable) ? SET_VARIABLE : SET_VALUE, register(variable));
+                    } else if (argument instanceof IntegerTerm) {
+                        code.emit(SET_INTEGER, ((IntegerTerm) argument).getValue());
+                    } else if (isStructure(argument)) {
+                        code.emit(SET_VALUE, structureRegisters.get(argument));
+                    } else {
+                        code.emit(SET_CONSTANT, constant(argument));
+                    }
+                }
+            }
+        }
+
+        private int functor(CompoundTerm compoundTerm) {
+            return symbols.functor(compoundTerm.getFunctor(), compoundTerm.getArguments().size());
+        }
+
+        private int constant(Term term) {
+            if (term instanceof Constant || term == L.EMPTY) {
+                return symbols.constant(term);
+            }
+            throw new IllegalArgumentException(String.format("Term %s is not supported by the WAM", term));
+        }
+    }
+
+    private static boolean isStructure(Term term) {
+        return term instanceof CompoundTerm || (term instanceof L && !((L) term).isEmpty());
+    }
+
+    private static List<Term> arguments(Term term) {
+        if (term instanceof CompoundTerm) {
+            return ((CompoundTerm) term).getArguments();
+        } else if (term instanceof L && !((L) term).isEmpty()) {
+            return Arrays.asList(((L) term).getHead(), ((L) term).getTail());
+        } else if (term instanceof PredicateTerm) {
+            return Arrays.asList(((PredicateTerm) term).getT1(), ((PredicateTerm) term).getT2());
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    static void forEachVariable(Term term, Consumer<Variable> consumer) {
+        if (term == null) {
+            return;
+        }
+        final Deque<Term> pending = new ArrayDeque<>();
+        pending.push(term);
+        while (!pending.isEmpty()) {
+            final Term next = pending.pop();
+            if (next instanceof Variable) {
+                consumer.accept((Variable) next);
+            } else {
+                final List<Term> arguments = arguments(next);
+                for (int i = arguments.size() - 1; i >= 0; i--) {
+                    pending.push(arguments.get(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,717 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.wam;
+
+import de.henm.morn.core.model.CompoundTermFactory;
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.L;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+import de.henm.morn.core.reasoner.Answer;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static de.henm.morn.core.wam.Cells.*;
+import static de.henm.morn.core.wam.Opcodes.*;
+
+/**
+ * Runs a compiled query and enumerates its answers.
+ * <p>
+ * All data lives in arrays of cells: the heap holds the terms, the stack holds
+ * environments and choice points, the trail holds the heap addresses of
+ * variables which have to be reset on backtracking. Variables are always
+ * created on the heap, so references never point into the stack.
+ * <p>
+ * An environment at E is laid out as [E: previous environment, E+1:
+ * continuation, E+2: n, E+3 .. E+3+n-1: permanent variables]. A choice point
+ * at B is laid out as [B: n, B+1 .. B+n: argument registers, B+n+1:
+ * environment, B+n+2: continuation, B+n+3: previous choice point, B+n+4:
+ * next alternative, B+n+5: trail top, B+n+6: heap top].
+ *
+ * @author henm
+ */
+final class Machine implements Iterator<Answer> {
+
+    private static final int NONE = -1;
+
+    private final SymbolTable symbols;
+    private final Code code;
+    private final List<Variable> variables;
+    private final int queryAddress;
+    private final CompoundTermFactory compoundTermFactory;
+
+    private long[] heap;
+    private long[] stack;
+    private int[] trail;
+    private long[] registers;
+    private long[] pdl;
+    private long[] searchStack;
+
+    private int p;
+    private int continuation;
+    private int e;
+    private int b;
+    private int h;
+    private int hb;
+    private int tr;
+    private int s;
+    private boolean writeMode;
+    private int structure;
+    private int numberOfArguments;
+
+    private boolean started;
+    private boolean exhausted;
+    private Answer nextAnswer;
+
+    Machine(SymbolTable symbols, Code code, int queryAddress, List<Variable> variables) {
+        this.symbols = symbols;
+        this.code = code;
+        this.variables = variables;
+        this.queryAddress = queryAddress;
+        this.compoundTermFactory = new CompoundTermFactory();
+
+        this.heap = new long[1024];
+        this.stack = new long[1024];
+        this.trail = new int[256];
+        this.registers = new long[Math.max(1, code.getNumberOfRegisters())];
+        this.pdl = new long[64];
+        this.searchStack = new long[64];
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (nextAnswer == null && !exhausted) {
+            final boolean found;
+            if (!started) {
+                started = true;
+                p = queryAddress;
+                continuation = NONE;
+                e = NONE;
+                b = NONE;
+                found = run();
+            } else {
+                found = backtrack() && run();
+            }
+
+            if (found) {
+                nextAnswer = readAnswer();
+            } else {
+                close();
+            }
+        }
+        return nextAnswer != null;
+    }
+
+    @Override
+    public Answer next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Answer answer = nextAnswer;
+        nextAnswer = null;
+        return answer;
+    }
+
+    /**
+     * Stop and release the memory of the machine.
+     */
+    void close() {
+        exhausted = true;
+        nextAnswer = null;
+        heap = new long[0];
+        stack = new long[0];
+        trail = new int[0];
+    }
+
+    /**
+     * Execute instructions until the query is proven or fails.
+     *
+     * @return True iff the query was proven.
+     */
+    private boolean run() {
+        int[] instructions = code.getInstructions();
+        ensureRegisters();
+        while (true) {
+            final int opcode = instructions[p];
+            boolean ok = true;
+
+            switch (opcode) {
+                case GET_VARIABLE:
+                    setRegister(instructions[p + 1], registers[instructions[p + 2]]);
+                    p += 3;
+                    break;
+                case GET_VALUE:
+                    ok = unify(getRegister(instructions[p + 1]), registers[instructions[p + 2]]);
+                    p += 3;
+                    break;
+                case GET_STRUCTURE: {
+                    final long functor = cell(FUN, instructions[p + 1]);
+                    final long term = deref(registers[instructions[p + 2]]);
+                    p += 3;
+                    if (tag(term) == REF) {
+                        ensureHeap(1);
+                        heap[h] = functor;
+                        bind(value(term), cell(STR, h));
+                        structure = h;
+                        h++;
+                        writeMode = true;
+                    } else if (tag(term) == STR && heap[value(term)] == functor) {
+                        s = value(term) + 1;
+                        writeMode = false;
+                    } else {
+                        ok = false;
+                    }
+                    break;
+                }
+                case GET_LIST: {
+                    final long term = deref(registers[instructions[p + 1]]);
+                    p += 2;
+                    if (tag(term) == REF) {
+                        bind(value(term), cell(LIS, h));
+                        structure = h;
+                        writeMode = true;
+                    } else if (tag(term) == LIS) {
+                        s = value(term);
+                        writeMode = false;
+                    } else {
+                        ok = false;
+                    }
+                    break;
+                }
+                case GET_CONSTANT:
+                    ok = unifyAtom(cell(CON, instructions[p + 1]), registers[instructions[p + 2]]);
+                    p += 3;
+                    break;
+                case GET_INTEGER:
+                    ok = unifyAtom(cell(INT, instructions[p + 1]), registers[instructions[p + 2]]);
+                    p += 3;
+                    break;
+
+                case UNIFY_VARIABLE:
+                    if (writeMode) {
+                        setRegister(instructions[p + 1], newVariable());
+                    } else {
+                        setRegister(instructions[p + 1], heap[s++]);
+                    }
+                    p += 2;
+                    break;
+                case UNIFY_VALUE:
+                    if (writeMode) {
+                        final long term = getRegister(instructions[p + 1]);
+                        // The new argument must not refer back to the structure
+                        ok = !reaches(term, structure);
+                        push(term);
+                    } else {
+                        ok = unify(getRegister(instructions[p + 1]), heap[s++]);
+                    }
+                    p += 2;
+                    break;
+                case UNIFY_CONSTANT:
+                    if (writeMode) {
+                        push(cell(CON, instructions[p + 1]));
+                    } else {
+                        ok = unifyAtom(cell(CON, instructions[p + 1]), heap[s++]);
+                    }
+                    p += 2;
+                    break;
+                case UNIFY_INTEGER:
+                    if (writeMode) {
+                        push(cell(INT, instructions[p + 1]));
+                    } else {
+                        ok = unifyAtom(cell(INT, instructions[p + 1]), heap[s++]);
+                    }
+                    p += 2;
+                    break;
+
+                case PUT_VARIABLE: {
+                    final long variable = newVariable();
+                    setRegister(instructions[p + 1], variable);
+                    registers[instructions[p + 2]] = variable;
+                    p += 3;
+                    break;
+                }
+                case PUT_VALUE:
+                    registers[instructions[p + 2]] = getRegister(instructions[p + 1]);
+                    p += 3;
+                    break;
+                case PUT_STRUCTURE:
+                    push(cell(FUN, instructions[p + 1]));
+                    registers[instructions[p + 2]] = cell(STR, h - 1);
+                    p += 3;
+                    break;
+                case PUT_LIST:
+                    registers[instructions[p + 1]] = cell(LIS, h);
+                    p += 2;
+                    break;
+                case PUT_CONSTANT:
+                    registers[instructions[p + 2]] = cell(CON, instructions[p + 1]);
+                    p += 3;
+                    break;
+                case PUT_INTEGER:
+                    registers[instructions[p + 2]] = cell(INT, instructions[p + 1]);
+                    p += 3;
+                    break;
+
+                case SET_VARIABLE:
+                    setRegister(instructions[p + 1], newVariable());
+                    p += 2;
+                    break;
+                case SET_VALUE:
+                    push(getRegister(instructions[p + 1]));
+                    p += 2;
+                    break;
+                case SET_CONSTANT:
+                    push(cell(CON, instructions[p + 1]));
+                    p += 2;
+                    break;
+                case SET_INTEGER:
+                    push(cell(INT, instructions[p + 1]));
+                    p += 2;
+                    break;
+
+                case ALLOCATE: {
+                    final int n = instructions[p + 1];
+                    final int newE = stackTop();
+                    ensureStack(newE + 3 + n);
+                    stack[newE] = e;
+                    stack[newE + 1] = continuation;
+                    stack[newE + 2] = n;
+                    e = newE;
+                    p += 2;
+                    break;
+                }
+                case DEALLOCATE:
+                    continuation = (int) stack[e + 1];
+                    e = (int) stack[e];
+                    p += 1;
+                    break;
+                case CALL:
+                    continuation = p + 2;
+                    enter(instructions[p + 1]);
+                    // Predicates might have been recompiled since the query started
+                    instructions = code.getInstructions();
+                    ok = p != FAIL_LABEL;
+                    break;
+                case EXECUTE:
+                    enter(instructions[p + 1]);
+                    instructions = code.getInstructions();
+                    ok = p != FAIL_LABEL;
+                    break;
+                case PROCEED:
+                    p = continuation;
+                    break;
+                case BUILTIN: {
+                    final long t1 = deref(getRegister(instructions[p + 2]));
+                    final long t2 = deref(getRegister(instructions[p + 3]));
+                    ok = tag(t1) == INT && tag(t2) == INT
+                            && symbols.getBuiltin(instructions[p + 1]).test(value(t1), value(t2));
+                    p += 4;
+                    break;
+                }
+                case ANSWER:
+                    return true;
+
+                case TRY: {
+                    final int n = numberOfArguments;
+                    final int newB = stackTop();
+                    ensureStack(newB + n + 7);
+                    stack[newB] = n;
+                    System.arraycopy(registers, 0, stack, newB + 1, n);
+                    stack[newB + n + 1] = e;
+                    stack[newB + n + 2] = continuation;
+                    stack[newB + n + 3] = b;
+                    stack[newB + n + 4] = p + 2;
+                    stack[newB + n + 5] = tr;
+                    stack[newB + n + 6] = h;
+                    b = newB;
+                    hb = h;
+                    p = instructions[p + 1];
+                    break;
+                }
+                case RETRY:
+                    stack[b + (int) stack[b] + 4] = p + 2;
+                    p = instructions[p + 1];
+                    break;
+                case TRUST:
+                    b = (int) stack[b + (int) stack[b] + 3];
+                    hb = b == NONE ? 0 : (int) stack[b + (int) stack[b] + 6];
+                    p = instructions[p + 1];
+                    break;
+
+                case SWITCH_ON_TERM: {
+                    final long term = deref(registers[0]);
+                    switch (tag(term)) {
+                        case REF:
+                            p = instructions[p + 1];
+                            break;
+                        case CON:
+                        case INT:
+                            p = instructions[p + 2];
+                            break;
+                        case LIS:
+                            p = instructions[p + 3];
+                            break;
+                        default:
+                            p = instructions[p + 4];
+                    }
+                    ok = p != FAIL_LABEL;
+                    break;
+                }
+                case SWITCH_ON_CONSTANT:
+                    p = code.getSwitchTable(instructions[p + 1]).getLabel(deref(registers[0]));
+                    ok = p != FAIL_LABEL;
+                    break;
+                case SWITCH_ON_STRUCTURE: {
+                    final long functor = heap[value(deref(registers[0]))];
+                    p = code.getSwitchTable(instructions[p + 1]).getLabel(value(functor));
+                    ok = p != FAIL_LABEL;
+                    break;
+                }
+
+                default:
+                    throw new IllegalStateException(String.format("Unknown opcode %d at %d", opcode, p));
+            }
+
+            if (!ok && !backtrack()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Restore the state of the most recent choice point and continue with its
+     * next alternative.
+     *
+     * @return False iff there is no choice point left.
+     */
+    private boolean backtrack() {
+        if (b == NONE) {
+            return false;
+        }
+        final int n = (int) stack[b];
+        System.arraycopy(stack, b + 1, registers, 0, n);
+        numberOfArguments = n;
+        e = (int) stack[b + n + 1];
+        continuation = (int) stack[b + n + 2];
+        p = (int) stack[b + n + 4];
+        unwindTrail((int) stack[b + n + 5]);
+        h = (int) stack[b + n + 6];
+        hb = h;
+        return true;
+    }
+
+    private void unwindTrail(int mark) {
+        while (tr > mark) {
+            final int address = trail[--tr];
+            heap[address] = cell(REF, address);
+        }
+    }
+
+    /**
+     * @return The first free address of the stack.
+     */
+    private int stackTop() {
+        int top = 0;
+        if (e != NONE) {
+            top = e + 3 + (int) stack[e + 2];
+        }
+        if (b != NONE) {
+            top = Math.max(top, b + (int) stack[b] + 7);
+        }
+        return top;
+    }
+
+    private long getRegister(int register) {
+        return register >= 0 ? registers[register] : stack[e + 2 - register];
+    }
+
+    private void setRegister(int register, long cell) {
+        if (register >= 0) {
+            registers[register] = cell;
+        } else {
+            stack[e + 2 - register] = cell;
+        }
+    }
+
+    private long newVariable() {
+        ensureHeap(1);
+        final long variable = cell(REF, h);
+        heap[h++] = variable;
+        return variable;
+    }
+
+    private void push(long cell) {
+        ensureHeap(1);
+        heap[h++] = cell;
+    }
+
+    private long deref(long cell) {
+        while (tag(cell) == REF) {
+            final long next = heap[value(cell)];
+            if (next == cell) {
+                break;
+            }
+            cell = next;
+        }
+        return cell;
+    }
+
+    private void bind(int address, long cell) {
+        heap[address] = cell;
+        if (address < hb) {
+            if (tr == trail.length) {
+                trail = Arrays.copyOf(trail, 2 * trail.length);
+            }
+            trail[tr++] = address;
+        }
+    }
+
+    /**
+     * Unify a term with a constant or an integer.
+     */
+    private boolean unifyAtom(long atom, long term) {
+        term = deref(term);
+        if (tag(term) == REF) {
+            bind(value(term), atom);
+            return true;
+        }
+        return term == atom;
+    }
+
+    /**
+     * General unification with occurs check.
+     */
+    private boolean unify(long term1, long term2) {
+        int top = 0;
+        pdl[top++] = term1;
+        pdl[top++] = term2;
+
+        while (top > 0) {
+            final long t2 = deref(pdl[--top]);
+            final long t1 = deref(pdl[--top]);
+            if (t1 == t2) {
+                continue;
+            }
+
+            if (tag(t1) == REF && tag(t2) == REF) {
+                // Bind the younger variable to the older one
+                if (value(t1) < value(t2)) {
+                    bind(value(t2), t1);
+                } else {
+                    bind(value(t1), t2);
+                }
+            } else if (tag(t1) == REF) {
+                if (occurs(value(t1), t2)) {
+                    return false;
+                }
+                bind(value(t1), t2);
+            } else if (tag(t2) == REF) {
+                if (occurs(value(t2), t1)) {
+                    return false;
+                }
+                bind(value(t2), t1);
+            } else if (tag(t1) == STR && tag(t2) == STR) {
+                final int a1 = value(t1);
+                final int a2 = value(t2);
+                if (heap[a1] != heap[a2]) {
+                    return false;
+                }
+                final int arity = symbols.getArity(value(heap[a1]));
+                ensurePdl(top + 2 * arity);
+                for (int i = arity; i > 0; i--) {
+                    pdl[top++] = heap[a1 + i];
+                    pdl[top++] = heap[a2 + i];
+                }
+            } else if (tag(t1) == LIS && tag(t2) == LIS) {
+                ensurePdl(top + 4);
+                pdl[top++] = heap[value(t1) + 1];
+                pdl[top++] = heap[value(t2) + 1];
+                pdl[top++] = heap[value(t1)];
+                pdl[top++] = heap[value(t2)];
+            } else {
+                // Different constants or terms of different kinds
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return True iff the unbound variable at the address occurs in the term.
+     */
+    private boolean occurs(int address, long term) {
+        return search(term, cell(REF, address), cell(REF, address));
+    }
+
+    /**
+     * @return True iff the term refers to the structure or list at the address.
+     */
+    private boolean reaches(long term, int address) {
+        return search(term, cell(STR, address), cell(LIS, address));
+    }
+
+    /**
+     * @return True iff the dereferenced term or one of its subterms is one of
+     * the cells.
+     */
+    private boolean search(long term, long cell1, long cell2) {
+        int top = 0;
+        searchStack[top++] = term;
+        while (top > 0) {
+            final long t = deref(searchStack[--top]);
+            if (t == cell1 || t == cell2) {
+                return true;
+            } else if (tag(t) == STR) {
+                final int address = value(t);
+                final int arity = symbols.getArity(value(heap[address]));
+                ensureSearchStack(top + arity);
+                for (int i = arity; i > 0; i--) {
+                    searchStack[top++] = heap[address + i];
+                }
+            } else if (tag(t) == LIS) {
+                ensureSearchStack(top + 2);
+                searchStack[top++] = heap[value(t) + 1];
+                searchStack[top++] = heap[value(t)];
+            }
+        }
+        return false;
+    }
+
+    private void ensurePdl(int size) {
+        if (size > pdl.length) {
+            pdl = Arrays.copyOf(pdl, Math.max(2 * pdl.length, size));
+        }
+    }
+
+    private void ensureSearchStack(int size) {
+        if (size > searchStack.length) {
+            searchStack = Arrays.copyOf(searchStack, Math.max(2 * searchStack.length, size));
+        }
+    }
+
+    /**
+     * Jump to the entry of a predicate, which is {@link Opcodes#FAIL_LABEL}
+     * if it has no clauses.
+     */
+    private void enter(int predicate) {
+        numberOfArguments = symbols.getPredicate(predicate).getArity();
+        p = code.getEntry(predicate);
+        ensureRegisters();
+    }
+
+    private void ensureRegisters() {
+        if (registers.length < code.getNumberOfRegisters()) {
+            registers = Arrays.copyOf(registers, code.getNumberOfRegisters());
+        }
+    }
+
+    private void ensureHeap(int cells) {
+        if (h + cells > heap.length) {
+            heap = Arrays.copyOf(heap, Math.max(2 * heap.length, h + cells));
+        }
+    }
+
+    private void ensureStack(int size) {
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(2 * stack.length, size));
+        }
+    }
+
+    /**
+     * The environment of the query is the first one on the stack.
+     */
+    private Answer readAnswer() {
+        // Unbound variables are named after the query variable they belong to
+        final Map<Integer, Variable> names = new HashMap<>();
+        for (int i = 0; i < variables.size(); i++) {
+            final long term = deref(stack[3 + i]);
+            if (tag(term) == REF) {
+                names.putIfAbsent(value(term), variables.get(i));
+            }
+        }
+
+        final Map<Variable, Term> values = new LinkedHashMap<>();
+        for (int i = 0; i < variables.size(); i++) {
+            final long term = deref(stack[3 + i]);
+            if (tag(term) != REF || names.get(value(term)) != variables.get(i)) {
+                values.put(variables.get(i), readTerm(term, names));
+            }
+        }
+        return new Answer(values);
+    }
+
+    /**
+     * Build the term of a heap cell, without recursion.
+     */
+    private Term readTerm(long cell, Map<Integer, Variable> names) {
+        // Either cells to read or arrays of cells whose terms are complete
+        final Deque<Object> pending = new ArrayDeque<>();
+        final Deque<Term> results = new ArrayDeque<>();
+        pending.push(cell);
+
+        while (!pending.isEmpty()) {
+            final Object next = pending.pop();
+            if (next instanceof long[]) {
+                final long structure = ((long[]) next)[0];
+                if (tag(structure) == LIS) {
+                    final Term tail = results.pop();
+                    results.push(new L(results.pop(), tail));
+                } else {
+                    final int functor = value(heap[value(structure)]);
+                    final Term[] arguments = new Term[symbols.getArity(functor)];
+                    for (int i = arguments.length - 1; i >= 0; i--) {
+                        arguments[i] = results.pop();
+                    }
+                    results.push(compoundTermFactory.build(symbols.getFunctor(functor), arguments));
+                }
+                continue;
+            }
+
+            final long term = deref((Long) next);
+            switch (tag(term)) {
+                case REF:
+                    results.push(names.computeIfAbsent(value(term), address -> new Variable("_G" + address)));
+                    break;
+                case CON:
+                    results.push(value(term) == SymbolTable.NIL ? L.EMPTY : symbols.getConstant(value(term)));
+                    break;
+                case INT:
+                    results.push(new IntegerTerm(value(term)));
+                    break;
+                case LIS:
+                    pending.push(new long[]{term});
+                    pending.push(heap[value(term) + 1]);
+                    pending.push(heap[value(term)]);
+                    break;
+                default: {
+                    pending.push(new long[]{term});
+                    final int address = value(term);
+                    for (int i = symbols.getArity(value(heap[address])); i > 0; i--) {
+                        pending.push(heap[address + i]);
+                    }
+                }
+            }
+        }
+        return results.pop();
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.wam;
+
+/**
+ * The instructions of the machine. Each instruction is an opcode followed by
+ * its operands in the code area.
+ * <p>
+ * Register operands refer to an argument or temporary register if they are
+ * not negative, a register -i-1 refers to the permanent variable i of the
+ * current environment. Label operands are code addresses, {@link #FAIL_LABEL}
+ * stands for failure.
+ *
+ * @author henm
+ */
+final class Opcodes {
+
+    static final int FAIL_LABEL = -1;
+
+    // Head: matching the arguments, ARGUMENT is the argument register
+    /** GET_VARIABLE register, argument */
+    static final int GET_VARIABLE = 0;
+    /** GET_VALUE register, argument */
+    static final int GET_VALUE = 1;
+    /** GET_STRUCTURE functor, argument */
+    static final int GET_STRUCTURE = 2;
+    /** GET_LIST argument */
+    static final int GET_LIST = 3;
+    /** GET_CONSTANT constant, argument */
+    static final int GET_CONSTANT = 4;
+    /** GET_INTEGER value, argument */
+    static final int GET_INTEGER = 5;
+
+    // Arguments of structures in the head, in read or write mode
+    /** UNIFY_VARIABLE register */
+    static final int UNIFY_VARIABLE = 6;
+    /** UNIFY_VALUE register */
+    static final int UNIFY_VALUE = 7;
+    /** UNIFY_CONSTANT constant */
+    static final int UNIFY_CONSTANT = 8;
+    /** UNIFY_INTEGER value */
+    static final int UNIFY_INTEGER = 9;
+
+    // Body: loading the arguments of a goal
+    /** PUT_VARIABLE register, argument */
+    static final int PUT_VARIABLE = 10;
+    /** PUT_VALUE register, argument */
+    static final int PUT_VALUE = 11;
+    /** PUT_STRUCTURE functor, register */
+    static final int PUT_STRUCTURE = 12;
+    /** PUT_LIST register */
+    static final int PUT_LIST = 13;
+    /** PUT_CONSTANT constant, argument */
+    static final int PUT_CONSTANT = 14;
+    /** PUT_INTEGER value, argument */
+    static final int PUT_INTEGER = 15;
+
+    // Arguments of structures built in the body
+    /** SET_VARIABLE register */
+    static final int SET_VARIABLE = 16;
+    /** SET_VALUE register */
+    static final int SET_VALUE = 17;
+    /** SET_CONSTANT constant */
+    static final int SET_CONSTANT = 18;
+    /** SET_INTEGER value */
+    static final int SET_INTEGER = 19;
+
+    // Control
+    /** ALLOCATE numberOfPermanentVariables */
+    static final int ALLOCATE = 20;
+    static final int DEALLOCATE = 21;
+    /** CALL predicate */
+    static final int CALL = 22;
+    /** EXECUTE predicate: call as last goal, without returning */
+    static final int EXECUTE = 23;
+    static final int PROCEED = 24;
+    /** BUILTIN builtin, register, register */
+    static final int BUILTIN = 25;
+    /** Stop, the query has been proven */
+    static final int ANSWER = 26;
+
+    // Choice
+    /** TRY label */
+    static final int TRY = 27;
+    /** RETRY label */
+    static final int RETRY = 28;
+    /** TRUST label */
+    static final int TRUST = 29;
+
+    // Indexing on the first argument
+    /** SWITCH_ON_TERM variable, constant, list, structure */
+    static final int SWITCH_ON_TERM = 30;
+    /** SWITCH_ON_CONSTANT table */
+    static final int SWITCH_ON_CONSTANT = 31;
+    /** SWITCH_ON_STRUCTURE table */
+    static final int SWITCH_ON_STRUCTURE = 32;
+
+    private Opcodes() {
+    }
+}
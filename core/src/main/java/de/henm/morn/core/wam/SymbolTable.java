@@ -0,0 +1,135 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.wam;
+
+import de.henm.morn.core.model.Constant;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.L;
+import de.henm.morn.core.model.Symbols;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.reasoner.PredicateKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * The constants, functors, predicates and builtins of a program by their ids,
+ * so the machine only deals with ints.
+ * <p>
+ * Constants, functors and predicates are numbered by the global
+ * {@link Symbols symbol table}; this table only remembers the symbol of each
+ * id to build the terms of answers. Builtins are numbered per program.
+ *
+ * @author henm
+ */
+final class SymbolTable {
+
+    /**
+     * Id of the empty list, which is treated as a constant. Constants have
+     * the ids of their names plus one.
+     */
+    static final int NIL = 0;
+
+    private Constant[] constants;
+
+    private Functor[] functors;
+    private int[] functorArities;
+
+    private PredicateKey[] predicates;
+
+    private final Map<BiPredicate<Integer, Integer>, Integer> builtinIds;
+    private final List<BiPredicate<Integer, Integer>> builtins;
+
+    SymbolTable() {
+        this.constants = new Constant[16];
+        this.functors = new Functor[16];
+        this.functorArities = new int[16];
+        this.predicates = new PredicateKey[16];
+        this.builtinIds = new IdentityHashMap<>();
+        this.builtins = new ArrayList<>();
+    }
+
+    int constant(Constant constant) {
+        final int id = constant.getId() + 1;
+        if (id >= constants.length) {
+            constants = Arrays.copyOf(constants, Math.max(2 * constants.length, id + 1));
+        }
+        constants[id] = constant;
+        return id;
+    }
+
+    /**
+     * @return The constant with the given id; null for {@link #NIL}.
+     */
+    Constant getConstant(int id) {
+        return constants[id];
+    }
+
+    int functor(Functor functor, int arity) {
+        final int id = Symbols.functor(functor.getId(), arity);
+        if (id >= functors.length) {
+            final int length = Math.max(2 * functors.length, id + 1);
+            functors = Arrays.copyOf(functors, length);
+            functorArities = Arrays.copyOf(functorArities, length);
+        }
+        functors[id] = functor;
+        functorArities[id] = arity;
+        return id;
+    }
+
+    Functor getFunctor(int id) {
+        return functors[id];
+    }
+
+    int getArity(int functor) {
+        return functorArities[functor];
+    }
+
+    int predicate(PredicateKey key) {
+        final int id = key.getId();
+        if (id >= predicates.length) {
+            predicates = Arrays.copyOf(predicates, Math.max(2 * predicates.length, id + 1));
+        }
+        predicates[id] = key;
+        return id;
+    }
+
+    PredicateKey getPredicate(int id) {
+        return predicates[id];
+    }
+
+    int builtin(BiPredicate<Integer, Integer> predicate) {
+        return builtinIds.computeIfAbsent(predicate, p -> {
+            builtins.add(p);
+            return builtins.size() - 1;
+        });
+    }
+
+    BiPredicate<Integer, Integer> getBuiltin(int id) {
+        return builtins.get(id);
+    }
+
+    /**
+     * @param term A constant or the empty list.
+     * @return The id of the constant.
+     */
+    int constant(Term term) {
+        return term == L.EMPTY ? NIL : constant((Constant) term);
+    }
+}
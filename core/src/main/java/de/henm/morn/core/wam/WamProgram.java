@@ -0,0 +1,170 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.wam;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+import de.henm.morn.core.reasoner.Answer;
+import de.henm.morn.core.reasoner.PredicateKey;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A program compiled for the Warren Abstract Machine.
+ * <p>
+ * Clauses are compiled per predicate, lazily before the next query: adding a
+ * clause only recompiles its predicate. Answers are the same as the ones of
+ * the {@link de.henm.morn.core.reasoner.Reasoner} and come in the same order
+ * (facts first). Goals which are variables and predicate terms nested in
+ * other terms are not supported.
+ *
+ * @author henm
+ */
+public class WamProgram {
+
+    private final SymbolTable symbols;
+    private final Map<PredicateKey, List<Clause>> clauses;
+    private final Map<PredicateKey, Integer> codeSizes;
+    private final Set<PredicateKey> changedPredicates;
+    private Code code;
+    private int liveCodeSize;
+
+    public WamProgram() {
+        this.symbols = new SymbolTable();
+        this.clauses = new LinkedHashMap<>();
+        this.codeSizes = new LinkedHashMap<>();
+        this.changedPredicates = new LinkedHashSet<>();
+        this.code = new Code();
+        this.liveCodeSize = 0;
+    }
+
+    public WamProgram(List<Clause> clauses) {
+        this();
+        clauses.forEach(this::add);
+    }
+
+    /**
+     * @param clause The clause to add.
+     * @throws IllegalArgumentException Thrown if the head of the clause is
+     *                                  neither a constant nor a compound term.
+     */
+    public void add(Clause clause) {
+        final PredicateKey key = PredicateKey.of(clause.getHead());
+        if (key == null) {
+            throw new IllegalArgumentException(String.format("Head of clause %s is not callable", clause));
+        }
+        clauses.computeIfAbsent(key, k -> new ArrayList<>()).add(clause);
+        changedPredicates.add(key);
+    }
+
+    /**
+     * @param clause The clause to remove, compared by equality.
+     * @return True iff the clause was contained. Only its first occurrence is
+     * removed, the predicate is compiled again before the next query. This
+     * takes time in the number of clauses of the predicate anyway, so they
+     * are simply scanned for the clause.
+     */
+    public boolean remove(Clause clause) {
+        final PredicateKey key = PredicateKey.of(clause.getHead());
+        final List<Clause> predicateClauses = clauses.get(key);
+        if (predicateClauses == null || !predicateClauses.remove(clause)) {
+            return false;
+        }
+        changedPredicates.add(key);
+        return true;
+    }
+
+    /**
+     * @param goal The goal to query.
+     * @return True iff the goal can be deduced from the program.
+     */
+    public boolean query(Term goal) {
+        final Machine machine = start(goal);
+        final boolean result = machine.hasNext();
+        machine.close();
+        return result;
+    }
+
+    /**
+     * Enumerate the answers of a query lazily.
+     *
+     * @param goal The goal to query.
+     * @return An iterator over all answers in the order of the depth-first
+     * search.
+     */
+    public Iterator<Answer> iterator(Term goal) {
+        return start(goal);
+    }
+
+    /**
+     * Enumerate the answers of a query lazily.
+     *
+     * @param goal The goal to query.
+     * @return A sequential stream of all answers in the order of the
+     * depth-first search. Closing the stream releases the machine.
+     */
+    public Stream<Answer> answers(Term goal) {
+        final Machine machine = start(goal);
+        final Spliterator<Answer> spliterator = Spliterators.spliteratorUnknownSize(machine,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(machine::close);
+    }
+
+    private Machine start(Term goal) {
+        compileChangedPredicates();
+
+        final Set<Variable> variables = new LinkedHashSet<>();
+        Compiler.forEachVariable(goal, variables::add);
+        final List<Variable> queryVariables = new ArrayList<>(variables);
+        final int address = new Compiler(symbols, code).compileQuery(goal, queryVariables);
+        return new Machine(symbols, code, address, queryVariables);
+    }
+
+    private void compileChangedPredicates() {
+        if (code.size() > 2 * liveCodeSize + 4096) {
+            // Most of the code belongs to old versions of predicates and to
+            // queries. Running machines keep the old code area.
+            code = new Code();
+            codeSizes.clear();
+            liveCodeSize = 0;
+            changedPredicates.addAll(clauses.keySet());
+        }
+
+        final Compiler compiler = new Compiler(symbols, code);
+        for (PredicateKey key : changedPredicates) {
+            final List<Clause> predicateClauses = new ArrayList<>(clauses.get(key));
+            // Facts are tried before rules
+            predicateClauses.sort((c1, c2) -> Boolean.compare(!(c1 instanceof Fact), !(c2 instanceof Fact)));
+
+            final int start = code.size();
+            compiler.compilePredicate(symbols.predicate(key), predicateClauses);
+            final Integer oldSize = codeSizes.put(key, code.size() - start);
+            liveCodeSize += code.size() - start - (oldSize == null ? 0 : oldSize);
+        }
+        changedPredicates.clear();
+    }
+}
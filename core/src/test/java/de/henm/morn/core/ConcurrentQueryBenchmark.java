@@ -0,0 +1,102 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core;
+
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.L;
+import de.henm.morn.core.model.Term;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static de.henm.morn.core.model.L.HEAD;
+import static de.henm.morn.core.model.L.TAIL;
+import static de.henm.morn.core.model.Variable.W;
+import static de.henm.morn.core.model.Variable.X;
+import static de.henm.morn.core.model.Variable.Y;
+import static de.henm.morn.core.model.Variable.Z;
+
+/**
+ * Throughput of concurrent queries to one knowledge base: naive reverse of a
+ * list of 30 elements (496 logical inferences) queried by an increasing number
+ * of threads. As queries share no mutable state, the throughput should grow
+ * linearly up to the number of available processors.
+ * <p>
+ * Not run with the tests, start it with the test classpath, optionally with
+ * the number of queries per thread as argument.
+ *
+ * @author henm
+ */
+public class ConcurrentQueryBenchmark {
+
+    private static final int INFERENCES_PER_QUERY = 496;
+
+    public static void main(String[] args) throws Exception {
+        final int queriesPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final Functor append = new Functor("append");
+        final Functor nrev = new Functor("nrev");
+        final KnowledgeBase kb = Morn.buildKB()
+                .addFact(append.apply(L.EMPTY, X, X))
+                .addRule(append.apply(L.list(X, Y), Z, L.list(X, W)), append.apply(Y, Z, W))
+                .addFact(nrev.apply(L.EMPTY, L.EMPTY))
+                .addRule(nrev.apply(L.list(HEAD, TAIL), X), nrev.apply(TAIL, Y), append.apply(Y, L.list(HEAD), X));
+        final Term[] elements = new Term[30];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = new IntegerTerm(i);
+        }
+        final Term query = nrev.apply(L.list(elements), X);
+
+        // Warm up
+        run(kb, query, 1, queriesPerThread);
+
+        final int processors = Runtime.getRuntime().availableProcessors();
+        double singleThreaded = 0;
+        for (int threads = 1; threads <= 2 * processors; threads *= 2) {
+            final double lips = run(kb, query, threads, queriesPerThread);
+            if (threads == 1) {
+                singleThreaded = lips;
+            }
+            System.out.printf("%2d threads: %12.0f LIPS, speedup %.2f%n", threads, lips, lips / singleThreaded);
+        }
+    }
+
+    private static double run(KnowledgeBase kb, Term query, int threads, int queriesPerThread) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> results = new ArrayList<>();
+            final long start = System.nanoTime();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    for (int j = 0; j < queriesPerThread; j++) {
+                        if (!kb.query(query)) {
+                            throw new IllegalStateException("Query failed");
+                        }
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            return (double) threads * queriesPerThread * INFERENCES_PER_QUERY / seconds;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
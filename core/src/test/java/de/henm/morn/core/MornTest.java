@@ -15,9 +15,23 @@
 package de.henm.morn.core;
 
 import de.henm.morn.core.model.*;
+import de.henm.morn.core.reasoner.Answer;
+import de.henm.morn.core.reasoner.AnswerCache;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
 import static de.henm.morn.core.model.Constant.*;
 import static de.henm.morn.core.model.L.*;
 import static de.henm.morn.core.model.Variable.*;
@@ -79,6 +93,343 @@ public class MornTest {
         Assert.assertFalse(kb.query(daughter.apply(isaac, abraham)));
         Assert.assertTrue(kb.query(daughter.apply(milcah, haran)));
         Assert.assertTrue(kb.query(grandfather.apply(terach, isaac)));
+        Assert.assertTrue(kb.query(grandfather.apply(terach, lot)));
+        Assert.assertFalse(kb.query(grandfather.apply(abraham, lot)));
+        Assert.assertFalse(kb.query(grandfather.apply(haran, isaac)));
+    }
+
+    @Test
+    public void testAnswers() {
+        final Functor parent = new Functor("parent");
+        final Constant terach = new Constant("terach");
+        final Constant abraham = new Constant("abraham");
+        final Constant nachor = new Constant("nachor");
+
+        final KnowledgeBase kb = Morn.buildKB()
+                .addFact(parent.apply(terach, abraham))
+                .addFact(parent.apply(terach, nachor));
+
+        Assert.assertEquals(Arrays.asList(abraham, nachor), kb.answers(parent.apply(terach, X))
+                .map(answer -> answer.get(X).get())
+                .collect(Collectors.toList()));
+        Assert.assertEquals(0, kb.answers(parent.apply(abraham, X)).count());
+    }
+
+    @Test
+    public void testWamEngine() {
+        final Functor append = new Functor("append");
+        final Functor reverse = new Functor("reverse");
+
+        final KnowledgeBase kb = Morn.buildKB()
+                .addFact(append.apply(EMPTY, X, X))
+                .addRule(append.apply(list(X, Y), Z, list(X, W)), append.apply(Y, Z, W))
+                .useEngine(Engine.WAM)
+                .addFact(reverse.apply(EMPTY, EMPTY))
+                .addRule(reverse.apply(list(HEAD, TAIL), X), reverse.apply(TAIL, Y), append.apply(Y, list(HEAD), X));
+
+        Assert.assertTrue(kb.query(reverse.apply(list(b, c), list(c, b))));
+        Assert.assertFalse(kb.query(reverse.apply(list(a, b, c), list(a, b, c))));
+        Assert.assertEquals("[c, [b, [a, []]]]", kb.answers(reverse.apply(list(a, b, c), X))
+                .findFirst().get().get(X).get().toString());
+
+        kb.useEngine(Engine.RESOLUTION);
+        Assert.assertTrue(kb.query(reverse.apply(list(b, c), list(c, b))));
+    }
+
+    @Test
+    public void testDatalogEngine() {
+        final Functor parent = new Functor("parent");
+        final Functor ancestor = new Functor("ancestor");
+        final Constant terach = new Constant("terach");
+        final Constant abraham = new Constant("abraham");
+        final Constant isaac = new Constant("isaac");
+
+        final KnowledgeBase kb = Morn.buildKB()
+                .addFact(parent.apply(terach, abraham))
+                .addFact(parent.apply(abraham, isaac))
+                .addRule(ancestor.apply(X, Y), parent.apply(X, Y))
+                .addRule(ancestor.apply(X, Y), ancestor.apply(X, Z), parent.apply(Z, Y))
+                .useEngine(Engine.DATALOG);
+
+        Assert.assertTrue(kb.query(ancestor.apply(terach, isaac)));
+        Assert.assertFalse(kb.query(ancestor.apply(isaac, terach)));
+        Assert.assertEquals(Arrays.asList(abraham, isaac), kb.answers(ancestor.apply(terach, X))
+                .map(answer -> answer.get(X).get())
+                .collect(Collectors.toList()));
+
+        kb.removeFact(parent.apply(abraham, isaac));
+        Assert.assertFalse(kb.query(ancestor.apply(terach, isaac)));
+        kb.addFact(parent.apply(abraham, isaac));
+
+        kb.useMagicSets(true);
+        Assert.assertTrue(kb.query(ancestor.apply(terach, isaac)));
+        Assert.assertFalse(kb.query(ancestor.apply(isaac, terach)));
+        Assert.assertEquals(2, kb.answers(ancestor.apply(terach, X)).count());
+    }
+
+    @Test
+    public void testSymbolsWithEqualNamesInAllEngines() {
+        final Functor e = new Functor("e");
+        final Functor sym = new Functor("sym");
+
+        final KnowledgeBase kb = Morn.buildKB()
+                .addFact(e.apply(new Constant("a"), new Constant("a")))
+                .addRule(sym.apply(X), e.apply(X, X));
+
+        for (Engine engine : Engine.values()) {
+            kb.useEngine(engine);
+            Assert.assertTrue(engine.toString(), kb.query(new Functor("sym").apply(new Constant("a"))));
+            Assert.assertEquals(engine.toString(), 1, kb.answers(e.apply(X, X)).count());
+        }
+    }
+
+    @Test
+    public void testRemovingFactsInAllEngines() {
+        final Functor p = new Functor("p");
+        final Functor q = new Functor("q");
+
+        for (Engine engine : Engine.values()) {
+            final KnowledgeBase kb = Morn.buildKB()
+                    .addFact(p.apply(a))
+                    .addFact(p.apply(new IntegerTerm(1)))
+                    .addFact(p.apply(a))
+                    .addRule(q.apply(X), p.apply(X))
+                    .useEngine(engine);
+            if (engine != Engine.DATALOG) {
+                kb.addFact(p.apply(list(a, new IntegerTerm(2))));
+            }
+
+            // Removing a fact added twice only removes one occurrence
+            kb.removeFact(p.apply(a));
+            Assert.assertTrue(engine.toString(), kb.query(q.apply(a)));
+            Assert.assertEquals(engine.toString(), 1, kb.answers(p.apply(a)).count());
+            kb.removeFact(p.apply(a));
+            Assert.assertFalse(engine.toString(), kb.query(q.apply(a)));
+
+            kb.removeFact(p.apply(new IntegerTerm(1)));
+            Assert.assertFalse(engine.toString(), kb.query(q.apply(new IntegerTerm(1))));
+
+            if (engine != Engine.DATALOG) {
+                kb.removeFact(p.apply(list(new Constant("a"), new IntegerTerm(2))));
+                Assert.assertFalse(engine.toString(), kb.query(q.apply(X)));
+            }
+        }
+    }
+
+    @Test
+    public void testAnswerCache() {
+        final Functor father = new Functor("father");
+        final Functor grandfather = new Functor("grandfather");
+        final Constant terach = new Constant("terach");
+        final Constant abraham = new Constant("abraham");
+        final Constant isaac = new Constant("isaac");
+
+        final KnowledgeBase kb = Morn.buildKB()
+                .cacheAnswers(100)
+                .addFact(father.apply(terach, abraham))
+                .addRule(grandfather.apply(X, Y), father.apply(X, Z), father.apply(Z, Y));
+
+        Assert.assertEquals(0, kb.answers(grandfather.apply(terach, X)).count());
+        kb.addFact(father.apply(abraham, isaac));
+        Assert.assertEquals(Arrays.asList(isaac), kb.answers(grandfather.apply(terach, Y))
+                .map(answer -> answer.get(Y).get())
+                .collect(Collectors.toList()));
+        Assert.assertTrue(kb.query(grandfather.apply(terach, isaac)));
+        Assert.assertTrue(kb.query(grandfather.apply(terach, isaac)));
+
+        final AnswerCache cache = kb.getAnswerCache().get();
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(3, cache.getMisses());
+        Assert.assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    public void testConcurrentQueries() throws Exception {
+        final Functor number = new Functor("number");
+        final KnowledgeBase kb = Morn.buildKB().addFact(number.apply(new IntegerTerm(0)));
+
+        // Queries run on the clauses at the time they start
+        final Iterator<Answer> answers = kb.answers(number.apply(X)).iterator();
+        kb.addFact(number.apply(new IntegerTerm(1)));
+        Assert.assertTrue(answers.hasNext());
+        answers.next();
+        Assert.assertFalse(answers.hasNext());
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                readers.add(executor.submit(() -> {
+                    long previous = 0;
+                    for (int j = 0; j < 200; j++) {
+                        final long count = kb.answers(number.apply(X)).count();
+                        Assert.assertTrue(count >= previous);
+                        previous = count;
+                    }
+                }));
+            }
+            for (int i = 2; i < 1000; i++) {
+                kb.addFact(number.apply(new IntegerTerm(i)));
+            }
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(1000, kb.answers(number.apply(X)).count());
+    }
+
+    @Test
+    public void testTablingWhileQuerying() throws Exception {
+        final Functor e = new Functor("e");
+        final KnowledgeBase kb = Morn.buildKB().addFact(e.apply(new IntegerTerm(5), a));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                readers.add(executor.submit(() -> {
+                    for (int j = 0; j < 2000; j++) {
+                        Assert.assertTrue(kb.query(e.apply(new IntegerTerm(5), X)));
+                    }
+                }));
+            }
+            // Tabling predicates changes the tabled predicates snapshots are
+            // taken of
+            for (int i = 0; i < 2000; i++) {
+                kb.table(new Functor("t" + i), 1);
+            }
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testOrParallelSearch() {
+        final Functor category = new Functor("category");
+        final Functor hasFur = new Functor("has_fur");
+        final Functor hasFeathers = new Functor("has_feathers");
+        final Functor hasScales = new Functor("has_scales");
+        final Functor givesMilk = new Functor("gives_milk");
+        final Functor laysEggs = new Functor("lays_eggs");
+        final Functor livesInWater = new Functor("lives_in_water");
+        final Constant mammal = new Constant("mammal");
+        final Constant bird = new Constant("bird");
+        final Constant fish = new Constant("fish");
+        final Constant reptile = new Constant("reptile");
+        final Constant tweety = new Constant("tweety");
+        final Constant nemo = new Constant("nemo");
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final KnowledgeBase kb = Morn.buildKB()
+                    .searchInParallel(pool)
+                    .addFact(hasFeathers.apply(tweety))
+                    .addFact(laysEggs.apply(tweety))
+                    .addFact(hasScales.apply(nemo))
+                    .addFact(laysEggs.apply(nemo))
+                    .addFact(livesInWater.apply(nemo))
+                    .addRule(category.apply(X, mammal), hasFur.apply(X), givesMilk.apply(X))
+                    .addRule(category.apply(X, bird), hasFeathers.apply(X), laysEggs.apply(X))
+                    .addRule(category.apply(X, fish), hasScales.apply(X), livesInWater.apply(X))
+                    .addRule(category.apply(X, reptile), hasScales.apply(X), laysEggs.apply(X));
+
+            Assert.assertTrue(kb.query(category.apply(tweety, X)));
+            Assert.assertTrue(kb.query(category.apply(tweety, bird)));
+            Assert.assertFalse(kb.query(category.apply(tweety, fish)));
+            Assert.assertTrue(kb.query(category.apply(nemo, reptile)));
+            // All answers are still enumerated in order
+            Assert.assertEquals(Arrays.asList(fish, reptile), kb.answers(category.apply(nemo, X))
+                    .map(answer -> answer.get(X).get())
+                    .collect(Collectors.toList()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatchQueries() {
+        final Functor eligible = new Functor("eligible");
+        final Functor creditOk = new Functor("credit_ok");
+        final Functor addressOk = new Functor("address_ok");
+        final Functor region = new Functor("region");
+        final Functor served = new Functor("served");
+        final Constant eu = new Constant("eu");
+        final Constant us = new Constant("us");
+
+        final KnowledgeBase kb = Morn.buildKB()
+                .addFact(served.apply(eu))
+                .addRule(eligible.apply(X), creditOk.apply(X), addressOk.apply(X))
+                .addRule(addressOk.apply(X), region.apply(X, Y), served.apply(Y));
+        final List<Term> goals = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            final Constant customer = new Constant("customer" + i);
+            if (i % 2 == 0) {
+                kb.addFact(creditOk.apply(customer));
+            }
+            kb.addFact(region.apply(customer, i % 3 == 0 ? us : eu));
+            goals.add(eligible.apply(customer));
+        }
+
+        final BitSet sequential = kb.queryAll(goals);
+        for (int i = 0; i < goals.size(); i++) {
+            Assert.assertEquals(i % 2 == 0 && i % 3 != 0, sequential.get(i));
+        }
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Assert.assertEquals(sequential, kb.searchInParallel(pool).queryAll(goals));
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals(sequential, kb.useEngine(Engine.WAM).queryAll(goals));
+    }
+
+    @Test
+    public void testAsyncQueries() throws Exception {
+        final Functor number = new Functor("number");
+        final Functor loop = new Functor("loop");
+        final KnowledgeBase kb = Morn.buildKB()
+                .addRule(loop.apply(X), loop.apply(X));
+        for (int i = 0; i < 100; i++) {
+            kb.addFact(number.apply(new IntegerTerm(i)));
+        }
+
+        final List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(kb.queryAsync(number.apply(new IntegerTerm(i % 200))));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            Assert.assertEquals(i % 200 < 100, futures.get(i).get());
+        }
+        Assert.assertEquals(100, kb.answersAsync(number.apply(X)).get().size());
+
+        final CompletableFuture<Boolean> endless = kb.queryAsync(loop.apply(a));
+        Assert.assertTrue(endless.cancel(true));
+        Assert.assertTrue(endless.isCancelled());
+        Assert.assertTrue(kb.useEngine(Engine.WAM).queryAsync(number.apply(new IntegerTerm(7))).get());
+    }
+
+    @Test
+    public void testTabling() {
+        final Functor edge = new Functor("edge");
+        final Functor path = new Functor("path");
+
+        final KnowledgeBase kb = Morn.buildKB()
+                .table(path, 2)
+                .addFact(edge.apply(a, b))
+                .addFact(edge.apply(b, a))
+                .addFact(edge.apply(b, c))
+                .addRule(path.apply(X, Y), path.apply(X, Z), edge.apply(Z, Y))
+                .addRule(path.apply(X, Y), edge.apply(X, Y))
+                .useEngine(Engine.WAM);
+
+        Assert.assertTrue(kb.query(path.apply(a, c)));
+        Assert.assertFalse(kb.query(path.apply(c, a)));
+        Assert.assertEquals(3, kb.answers(path.apply(a, X)).count());
     }
 
     @Test
@@ -0,0 +1,290 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.datalog;
+
+import static de.henm.morn.core.model.Constant.a;
+import static de.henm.morn.core.model.Constant.b;
+import static de.henm.morn.core.model.Constant.c;
+import static de.henm.morn.core.model.L.list;
+import static de.henm.morn.core.model.Variable.W;
+import static de.henm.morn.core.model.Variable.X;
+import static de.henm.morn.core.model.Variable.Y;
+import static de.henm.morn.core.model.Variable.Z;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.Constant;
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.PredicateFunctor;
+import de.henm.morn.core.model.Rule;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+import de.henm.morn.core.reasoner.Answer;
+import de.henm.morn.core.reasoner.PredicateKey;
+import de.henm.morn.core.reasoner.Reasoner;
+
+/**
+ * @author henm
+ */
+public class DatalogProgramTest {
+
+    final Functor edge = new Functor("edge");
+    final Functor path = new Functor("path");
+    final Constant d = new Constant("d");
+
+    @Test
+    public void factsShouldBeFound() {
+        final Functor f = new Functor("f");
+        final DatalogProgram program = new DatalogProgram(Arrays.asList(
+                new Fact(f.apply(a, b)), new Fact(f.apply(new IntegerTerm(1), a)), new Fact(a)));
+
+        Assert.assertTrue(program.query(f.apply(a, b)));
+        Assert.assertTrue(program.query(f.apply(X, b)));
+        Assert.assertTrue(program.query(f.apply(new IntegerTerm(1), a)));
+        Assert.assertTrue(program.query(a));
+        Assert.assertFalse(program.query(f.apply(b, a)));
+        Assert.assertFalse(program.query(f.apply(X, X)));
+        Assert.assertFalse(program.query(f.apply(list(a), X)));
+        Assert.assertFalse(program.query(b));
+    }
+
+    @Test
+    public void recursiveRulesShouldBeEvaluatedOverCycles() {
+        final DatalogProgram program = new DatalogProgram(graph());
+        program.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+        program.add(new Rule(path.apply(X, Y), path.apply(X, Z), edge.apply(Z, Y)));
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(a, b, c, d)), values(program, path.apply(a, X), X));
+        Assert.assertTrue(values(program, path.apply(d, X), X).isEmpty());
+        Assert.assertEquals(12, program.answers(path.apply(X, Y)).count());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(a, b, c)), values(program, path.apply(X, X), X));
+    }
+
+    @Test
+    public void answersShouldBeTheOnesOfResolution() {
+        final Functor same = new Functor("sameGeneration");
+        final Functor parent = new Functor("parent");
+        final List<Clause> clauses = new ArrayList<>();
+        final Constant[] people = new Constant[10];
+        for (int i = 0; i < people.length; i++) {
+            people[i] = new Constant("p" + i);
+            if (i > 0) {
+                clauses.add(new Fact(parent.apply(people[i], people[(i - 1) / 2])));
+            }
+        }
+        clauses.add(new Rule(same.apply(X, X), parent.apply(X, Y)));
+        clauses.add(new Rule(same.apply(X, Y), parent.apply(X, Z), same.apply(Z, W), parent.apply(Y, W)));
+
+        final DatalogProgram program = new DatalogProgram(clauses);
+        final Reasoner reasoner = new Reasoner(clauses);
+        for (Constant person : people) {
+            Assert.assertEquals(
+                    reasoner.answers(same.apply(person, X)).map(answer -> answer.get(X).get()).collect(Collectors.toSet()),
+                    values(program, same.apply(person, X), X));
+        }
+    }
+
+    @Test
+    public void predicateTermsShouldFilterRows() {
+        final PredicateFunctor smaller = new PredicateFunctor((x, y) -> x < y);
+        final Functor number = new Functor("number");
+        final Functor less = new Functor("less");
+        final DatalogProgram program = new DatalogProgram();
+        for (int i = 0; i < 5; i++) {
+            program.add(new Fact(number.apply(new IntegerTerm(i))));
+        }
+        program.add(new Rule(less.apply(X, Y), number.apply(X), smaller.apply(X, Y), number.apply(Y)));
+
+        Assert.assertEquals(10, program.answers(less.apply(X, Y)).count());
+        Assert.assertTrue(program.query(less.apply(new IntegerTerm(1), new IntegerTerm(3))));
+        Assert.assertFalse(program.query(less.apply(new IntegerTerm(3), new IntegerTerm(1))));
+    }
+
+    @Test
+    public void addedClausesShouldBeTakenIntoAccount() {
+        final DatalogProgram program = new DatalogProgram(graph());
+        program.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+        program.add(new Rule(path.apply(X, Y), path.apply(X, Z), edge.apply(Z, Y)));
+        Assert.assertFalse(program.query(path.apply(d, X)));
+
+        program.add(new Fact(edge.apply(d, a)));
+        Assert.assertTrue(program.query(path.apply(d, d)));
+    }
+
+    @Test
+    public void insertedFactsShouldBeMaintainedIncrementally() {
+        final List<Clause> clauses = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            clauses.add(new Fact(edge.apply(new IntegerTerm(i), new IntegerTerm(i + 1))));
+        }
+        clauses.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+        clauses.add(new Rule(path.apply(X, Y), path.apply(X, Z), edge.apply(Z, Y)));
+        final DatalogProgram program = new DatalogProgram(clauses);
+        Assert.assertEquals(50 * 51 / 2, program.answers(path.apply(X, Y)).count());
+
+        program.add(new Fact(edge.apply(new IntegerTerm(50), new IntegerTerm(51))));
+        // Only the 51 paths ending in the new node are derived
+        Assert.assertEquals(1 + 51, program.getIterations().stream().mapToInt(Iteration::getDerivedRows).sum());
+        Assert.assertEquals(51 * 52 / 2, program.answers(path.apply(X, Y)).count());
+    }
+
+    @Test
+    public void deletedFactsShouldBeMaintainedIncrementally() {
+        final List<Clause> clauses = graph();
+        clauses.add(new Fact(edge.apply(b, a)));
+        clauses.add(new Fact(path.apply(d, a)));
+        clauses.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+        clauses.add(new Rule(path.apply(X, Y), path.apply(X, Z), edge.apply(Z, Y)));
+        final DatalogProgram program = new DatalogProgram(clauses);
+        Assert.assertTrue(program.query(path.apply(c, b)));
+
+        // Paths via c -> a are deleted, the ones to a and b from a or b are
+        // derived again via b -> a and the ones from d via the fact
+        Assert.assertTrue(program.remove(new Fact(edge.apply(c, a))));
+        Assert.assertFalse(program.remove(new Fact(edge.apply(c, a))));
+        clauses.remove(new Fact(edge.apply(c, a)));
+        Assert.assertEquals(answers(new DatalogProgram(clauses)), answers(program));
+        Assert.assertFalse(program.query(path.apply(c, b)));
+        Assert.assertTrue(program.query(path.apply(d, d)));
+        Assert.assertTrue(program.getIterations().stream().mapToInt(Iteration::getDeletedRows).sum() > 0);
+
+        Assert.assertTrue(program.remove(new Fact(path.apply(d, a))));
+        Assert.assertFalse(program.query(path.apply(d, X)));
+    }
+
+    @Test
+    public void randomUpdatesShouldYieldTheRowsOfAFullEvaluation() {
+        final Random random = new Random(7);
+        final List<Clause> clauses = new ArrayList<>();
+        clauses.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+        clauses.add(new Rule(path.apply(X, Y), path.apply(X, Z), edge.apply(Z, Y)));
+        final DatalogProgram program = new DatalogProgram(clauses);
+        program.answers(path.apply(X, Y)).count();
+
+        for (int i = 0; i < 200; i++) {
+            final Fact fact = new Fact(edge.apply(new IntegerTerm(random.nextInt(12)), new IntegerTerm(random.nextInt(12))));
+            if (clauses.contains(fact)) {
+                clauses.remove(fact);
+                Assert.assertTrue(program.remove(fact));
+            } else {
+                clauses.add(fact);
+                program.add(fact);
+            }
+            if (i % 20 == 0) {
+                Assert.assertEquals(answers(new DatalogProgram(clauses)), answers(program));
+            }
+        }
+        Assert.assertEquals(answers(new DatalogProgram(clauses)), answers(program));
+    }
+
+    @Test
+    public void eachRoundShouldOnlyJoinNewRows() {
+        final Functor next = new Functor("next");
+        final Functor before = new Functor("before");
+        final List<CompiledRule> rules = new ArrayList<>();
+        final Values values = new Values();
+        rules.add(CompiledRule.compile(new Rule(before.apply(X, Y), next.apply(X, Y)), values));
+        rules.add(CompiledRule.compile(new Rule(before.apply(X, Y), before.apply(X, Z), next.apply(Z, Y)), values));
+
+        final Map<PredicateKey, Relation> relations = new LinkedHashMap<>();
+        final Relation chain = new Relation();
+        for (int i = 0; i < 20; i++) {
+            chain.add(new Row(new Term[]{values.intern(new IntegerTerm(i)), values.intern(new IntegerTerm(i + 1))}));
+        }
+        relations.put(PredicateKey.of(next, 2), chain);
+
+        final SemiNaiveEvaluation evaluation = new SemiNaiveEvaluation(rules, relations);
+        evaluation.run();
+        Assert.assertEquals(20 * 21 / 2, relations.get(PredicateKey.of(before, 2)).size());
+        // Paths of length 1 to 20 are derived in one round each
+        Assert.assertEquals(21, evaluation.getRounds());
+    }
+
+    @Test
+    public void parallelEvaluationShouldDeriveTheSameRows() {
+        final Random random = new Random(42);
+        final List<Clause> clauses = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            clauses.add(new Fact(edge.apply(new IntegerTerm(random.nextInt(150)), new IntegerTerm(random.nextInt(150)))));
+        }
+        clauses.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+        clauses.add(new Rule(path.apply(X, Y), path.apply(X, Z), edge.apply(Z, Y)));
+
+        final DatalogProgram sequential = new DatalogProgram(clauses);
+        final DatalogProgram parallel = new DatalogProgram(clauses);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        parallel.evaluateInParallel(pool);
+        try {
+            final Set<String> expected = sequential.answers(path.apply(X, Y))
+                    .map(Answer::toString).collect(Collectors.toSet());
+            Assert.assertEquals(expected, parallel.answers(path.apply(X, Y))
+                    .map(Answer::toString).collect(Collectors.toSet()));
+
+            final List<Iteration> iterations = parallel.getIterations();
+            Assert.assertEquals(sequential.getIterations().size(), iterations.size());
+            // Only rows of path are derived
+            Assert.assertEquals(expected.size(), iterations.stream().mapToInt(Iteration::getDerivedRows).sum());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Set<String> answers(DatalogProgram program) {
+        return program.answers(path.apply(X, Y)).map(Answer::toString).collect(Collectors.toSet());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compoundArgumentsShouldBeRejected() {
+        new DatalogProgram().add(new Fact(path.apply(list(a), b)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rulesWhichAreNotRangeRestrictedShouldBeRejected() {
+        new DatalogProgram().add(new Rule(path.apply(X, Y), edge.apply(X, Z)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void factsWithVariablesShouldBeRejected() {
+        new DatalogProgram().add(new Fact(path.apply(X, a)));
+    }
+
+    private List<Clause> graph() {
+        // A cycle a -> b -> c -> a and an edge leaving it to d
+        return new ArrayList<>(Arrays.asList(
+                new Fact(edge.apply(a, b)),
+                new Fact(edge.apply(b, c)),
+                new Fact(edge.apply(c, a)),
+                new Fact(edge.apply(c, d))));
+    }
+
+    private Set<Term> values(DatalogProgram program, Term goal, Variable variable) {
+        return program.answers(goal).map(answer -> answer.get(variable).get()).collect(Collectors.toSet());
+    }
+}
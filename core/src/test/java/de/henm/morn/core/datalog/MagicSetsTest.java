@@ -0,0 +1,154 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.datalog;
+
+import static de.henm.morn.core.model.Constant.a;
+import static de.henm.morn.core.model.Constant.b;
+import static de.henm.morn.core.model.Variable.W;
+import static de.henm.morn.core.model.Variable.X;
+import static de.henm.morn.core.model.Variable.Y;
+import static de.henm.morn.core.model.Variable.Z;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.Constant;
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.Rule;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.reasoner.Answer;
+
+/**
+ * @author henm
+ */
+public class MagicSetsTest {
+
+    final Functor next = new Functor("next");
+    final Functor before = new Functor("before");
+    final Functor parent = new Functor("parent");
+    final Functor same = new Functor("sameGeneration");
+
+    @Test
+    public void rulesShouldBeAdornedWithBoundArguments() {
+        final List<Clause> clauses = Arrays.asList(
+                new Fact(next.apply(a, b)),
+                new Rule(before.apply(X, Y), next.apply(X, Y)),
+                new Rule(before.apply(X, Y), next.apply(X, Z), before.apply(Z, Y)));
+
+        final MagicSets.Rewriting rewriting = MagicSets.rewrite(clauses, before.apply(a, X));
+
+        Assert.assertEquals("magic_before_bf(a).", rewriting.getSeed().toString());
+        Assert.assertEquals("before_bf(a, X)", rewriting.getQuery().toString());
+        final Set<String> rules = rewriting.getRules().stream().map(Object::toString).collect(Collectors.toSet());
+        Assert.assertEquals(3, rules.size());
+        Assert.assertTrue(rules.contains(new Rule(new Functor("magic_before_bf").apply(Z),
+                new Functor("magic_before_bf").apply(X), next.apply(X, Z)).toString()));
+    }
+
+    @Test
+    public void queriesOfFactsShouldNotBeRewritten() {
+        final List<Clause> clauses = Arrays.asList(
+                new Fact(next.apply(a, b)),
+                new Rule(before.apply(X, Y), next.apply(X, Y)));
+
+        final MagicSets.Rewriting rewriting = MagicSets.rewrite(clauses, next.apply(a, X));
+
+        Assert.assertNull(rewriting.getSeed());
+        Assert.assertTrue(rewriting.getRules().isEmpty());
+        Assert.assertEquals("next(a, X)", rewriting.getQuery().toString());
+    }
+
+    @Test
+    public void answersShouldBeTheOnesOfFullEvaluation() {
+        final List<Clause> clauses = new ArrayList<>();
+        final Constant[] people = new Constant[15];
+        for (int i = 0; i < people.length; i++) {
+            people[i] = new Constant("p" + i);
+            if (i > 0) {
+                clauses.add(new Fact(parent.apply(people[i], people[(i - 1) / 2])));
+            }
+        }
+        clauses.add(new Rule(same.apply(X, X), parent.apply(X, Y)));
+        clauses.add(new Rule(same.apply(X, Y), parent.apply(X, Z), same.apply(Z, W), parent.apply(Y, W)));
+        // Facts of a predicate which is also defined by rules
+        clauses.add(new Fact(same.apply(people[0], people[0])));
+
+        final DatalogProgram full = new DatalogProgram(clauses);
+        final DatalogProgram magic = new DatalogProgram(clauses);
+        magic.useMagicSets(true);
+        for (Constant person : people) {
+            Assert.assertEquals(answers(full, same.apply(person, X)), answers(magic, same.apply(person, X)));
+            Assert.assertEquals(answers(full, same.apply(X, person)), answers(magic, same.apply(X, person)));
+        }
+        Assert.assertEquals(answers(full, same.apply(X, Y)), answers(magic, same.apply(X, Y)));
+    }
+
+    @Test
+    public void boundQueriesShouldOnlyDeriveRelevantRows() {
+        final List<Clause> clauses = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            clauses.add(new Fact(next.apply(new IntegerTerm(i), new IntegerTerm(i + 1))));
+        }
+        clauses.add(new Rule(before.apply(X, Y), next.apply(X, Y)));
+        clauses.add(new Rule(before.apply(X, Y), next.apply(X, Z), before.apply(Z, Y)));
+
+        final DatalogProgram full = new DatalogProgram(clauses);
+        final DatalogProgram magic = new DatalogProgram(clauses);
+        magic.useMagicSets(true);
+        final Term query = before.apply(new IntegerTerm(90), X);
+
+        Assert.assertEquals(answers(full, query), answers(magic, query));
+        Assert.assertEquals(10, magic.answers(query).count());
+        // All 100 * 101 / 2 pairs against the paths from the 11 nodes reached
+        Assert.assertEquals(5050, derivedRows(full));
+        Assert.assertTrue(derivedRows(magic) < 100);
+    }
+
+    @Test
+    public void adornedPredicatesShouldNotCapturePredicatesOfTheProgram() {
+        final Constant c = new Constant("c");
+        final List<Clause> clauses = Arrays.asList(
+                new Fact(next.apply(a, b)),
+                new Fact(new Functor("before_bf").apply(a, c)),
+                new Fact(new Functor("magic_before_bf").apply(b)),
+                new Rule(before.apply(X, Y), next.apply(X, Y)),
+                new Rule(before.apply(X, Y), next.apply(X, Z), before.apply(Z, Y)));
+
+        final DatalogProgram full = new DatalogProgram(clauses);
+        final DatalogProgram magic = new DatalogProgram(clauses);
+        magic.useMagicSets(true);
+        final Term query = before.apply(a, X);
+
+        Assert.assertEquals(1, magic.answers(query).count());
+        Assert.assertEquals(answers(full, query), answers(magic, query));
+    }
+
+    private static Set<String> answers(DatalogProgram program, Term goal) {
+        return program.answers(goal).map(Answer::toString).collect(Collectors.toSet());
+    }
+
+    private static int derivedRows(DatalogProgram program) {
+        return program.getIterations().stream().mapToInt(Iteration::getDerivedRows).sum();
+    }
+}
@@ -46,6 +46,48 @@ public class TermTest {
         Assert.assertNotEquals(a, b);
     }
 
+    @Test
+    public void constantsShouldBeEqualByName() {
+        final Constant otherA = new Constant("a");
+
+        Assert.assertEquals(a, otherA);
+        Assert.assertEquals(a.hashCode(), otherA.hashCode());
+        Assert.assertEquals(a.getId(), otherA.getId());
+        Assert.assertNotEquals(a.getId(), b.getId());
+    }
+
+    @Test
+    public void functorsShouldBeEqualByName() {
+        final Functor otherF = new Functor("f");
+
+        Assert.assertEquals(f, otherF);
+        Assert.assertNotEquals(f, g);
+        Assert.assertEquals(fax, ctFactory.build(otherF, new Constant("a"), x));
+    }
+
+    @Test
+    public void freshSymbolsShouldOnlyBeEqualToThemselves() {
+        final Functor freshF = Functor.fresh("f");
+
+        Assert.assertEquals(freshF, freshF);
+        Assert.assertNotEquals(f, freshF);
+        Assert.assertNotEquals(Functor.fresh("f"), freshF);
+        Assert.assertNotEquals(a, Constant.fresh("a"));
+        Assert.assertEquals("f", freshF.toString());
+    }
+
+    @Test
+    public void symbolsShouldBeNumbered() {
+        Assert.assertEquals("a", Symbols.nameOf(a.getId()));
+        Assert.assertEquals(Symbols.functor(f.getId(), 2), Symbols.functor(new Functor("f").getId(), 2));
+        Assert.assertNotEquals(Symbols.functor(f.getId(), 2), Symbols.functor(f.getId(), 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownSymbolsShouldBeRejected() {
+        Symbols.nameOf(-1);
+    }
+
     @Test
     public void compoundTermsShouldBeEqualByFunctorAndArguments() {
         Assert.assertEquals(fax, fax);
@@ -54,6 +96,34 @@ public class TermTest {
         final Term fay = ctFactory.build(f, a, y);
 
         Assert.assertNotEquals(fax, fay);
+        Assert.assertNotEquals(ctFactory.build(f, a, a, a, a), ctFactory.build(f, a, a, a, b));
+    }
+
+    @Test
+    public void integersShouldBeEqualByValue() {
+        Assert.assertEquals(new IntegerTerm(1), new IntegerTerm(1));
+        Assert.assertEquals(new IntegerTerm(1).hashCode(), new IntegerTerm(1).hashCode());
+        Assert.assertNotEquals(new IntegerTerm(1), new IntegerTerm(2));
+    }
+
+    @Test
+    public void listsShouldBeEqualByElements() {
+        Assert.assertEquals(L.list(a, new IntegerTerm(1)), L.list(new Constant("a"), new IntegerTerm(1)));
+        Assert.assertEquals(L.list(a, b).hashCode(), L.list(a, b).hashCode());
+        Assert.assertNotEquals(L.list(a, b), L.list(a));
+        Assert.assertNotEquals(L.list(a), L.list(a, b));
+        Assert.assertNotEquals(L.list(a, b), L.list(b, a));
+        Assert.assertEquals(L.list(x, y), L.list(x, y));
+        Assert.assertNotEquals(L.list(x, y), L.list(x, x));
+
+        Term long1 = L.EMPTY;
+        Term long2 = L.EMPTY;
+        for (int i = 0; i < 100000; i++) {
+            long1 = new L(new IntegerTerm(i), long1);
+            long2 = new L(new IntegerTerm(i), long2);
+        }
+        Assert.assertEquals(long1, long2);
+        Assert.assertEquals(long1.hashCode(), long2.hashCode());
     }
 
     @Test
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import static de.henm.morn.core.model.Constant.a;
+import static de.henm.morn.core.model.Constant.b;
+import static de.henm.morn.core.model.Constant.c;
+import static de.henm.morn.core.model.Variable.X;
+import static de.henm.morn.core.model.Variable.Y;
+import static de.henm.morn.core.model.Variable.Z;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.PredicateTerm;
+import de.henm.morn.core.model.Rule;
+import de.henm.morn.core.model.Term;
+
+/**
+ * @author henm
+ */
+public class AndParallelismTest {
+
+    final Functor f = new Functor("f");
+    final Functor g = new Functor("g");
+    final Functor h = new Functor("h");
+    final Functor p = new Functor("p");
+    final Functor ff = new Functor("ff");
+    final Functor gg = new Functor("gg");
+
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        this.pool = new ForkJoinPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void bodiesShouldBeIndependentIfGoalsOnlyShareHeadVariables() {
+        Assert.assertTrue(AndParallelism.mightBeIndependent(
+                ClauseTemplate.compile(new Rule(p.apply(X), f.apply(X), g.apply(X)))));
+        Assert.assertTrue(AndParallelism.mightBeIndependent(
+                ClauseTemplate.compile(new Rule(p.apply(X), f.apply(X, Y), g.apply(X, Z)))));
+        Assert.assertFalse(AndParallelism.mightBeIndependent(
+                ClauseTemplate.compile(new Rule(p.apply(X), f.apply(X, Y), g.apply(Y)))));
+        Assert.assertFalse(AndParallelism.mightBeIndependent(
+                ClauseTemplate.compile(new Rule(p.apply(X), f.apply(X)))));
+    }
+
+    @Test
+    public void segmentsShouldNotShareUnboundVariables() {
+        final Bindings bindings = new Bindings();
+        final Ref x = bindings.newRef();
+        final Ref y = bindings.newRef();
+        final List<Term> goals = Arrays.asList(f.apply(x), g.apply(x), h.apply(y));
+
+        Assert.assertEquals(Arrays.asList(goals.subList(0, 2), goals.subList(2, 3)),
+                AndParallelism.segments(goals));
+        bindings.bind(x, a);
+        Assert.assertEquals(3, AndParallelism.segments(goals).size());
+    }
+
+    @Test
+    public void segmentsShouldBeContiguous() {
+        final Bindings bindings = new Bindings();
+        final Ref x = bindings.newRef();
+        final Ref y = bindings.newRef();
+        final List<Term> goals = Arrays.asList(f.apply(x), g.apply(y), h.apply(x), h.apply(y, a));
+
+        Assert.assertEquals(1, AndParallelism.segments(goals).size());
+    }
+
+    @Test
+    public void comparisonsShouldJoinOtherSegments() {
+        final Bindings bindings = new Bindings();
+        final Ref x = bindings.newRef();
+        final Ref y = bindings.newRef();
+        final Term less = new PredicateTerm((i, j) -> i < j, new IntegerTerm(1), new IntegerTerm(2));
+        final List<Term> goals = Arrays.asList(less, f.apply(x), less, g.apply(y), less);
+
+        Assert.assertEquals(Arrays.asList(goals.subList(0, 3), goals.subList(3, 5)),
+                AndParallelism.segments(goals));
+    }
+
+    @Test
+    public void answersShouldBeTheSameAsSequentially() {
+        final List<Clause> clauses = new ArrayList<>();
+        clauses.add(new Fact(f.apply(a, b)));
+        clauses.add(new Fact(f.apply(a, c)));
+        clauses.add(new Fact(f.apply(b, c)));
+        clauses.add(new Fact(g.apply(a, a)));
+        clauses.add(new Fact(g.apply(a, b)));
+        clauses.add(new Fact(g.apply(a, b)));
+        clauses.add(new Fact(h.apply(a)));
+        clauses.add(new Rule(ff.apply(X, Y), f.apply(X, Y)));
+        clauses.add(new Rule(gg.apply(X, Y), g.apply(X, Y)));
+        clauses.add(new Rule(p.apply(X, Y, Z), h.apply(X), ff.apply(X, Y), gg.apply(X, Z)));
+
+        final Reasoner sequential = new Reasoner(clauses);
+        final Reasoner parallel = parallel(clauses);
+
+        final Term query = p.apply(X, Y, Z);
+        final List<String> expected = sequential.answers(query).map(Answer::toString).collect(Collectors.toList());
+        Assert.assertEquals(6, expected.size());
+        Assert.assertEquals(expected, parallel.answers(query).map(Answer::toString).collect(Collectors.toList()));
+        Assert.assertFalse(parallel.query(p.apply(b, Y, Z)).isPresent());
+        Assert.assertTrue(parallel.query(p.apply(a, c, b)).isPresent());
+    }
+
+    @Test
+    public void unboundVariablesOfAnswersShouldBeFresh() {
+        final List<Clause> clauses = new ArrayList<>();
+        clauses.add(new Fact(f.apply(a, g.apply(Y))));
+        clauses.add(new Rule(ff.apply(X, Y), f.apply(X, Y)));
+        clauses.add(new Rule(p.apply(X, Y, Z), ff.apply(X, Y), ff.apply(X, Z)));
+        final Reasoner parallel = parallel(clauses);
+
+        final Answer answer = parallel.answers(p.apply(a, Y, Z)).findFirst().get();
+        final Term y = ((CompoundTerm) answer.get(Y).get()).getArguments().get(0);
+        final Term z = ((CompoundTerm) answer.get(Z).get()).getArguments().get(0);
+        Assert.assertNotSame(y, z);
+    }
+
+    @Test
+    public void segmentsOnlyLookingUpFactsShouldNotBeForked() {
+        final PredicateTable predicateTable = new PredicateTable();
+        predicateTable.add(new Fact(f.apply(a)));
+        predicateTable.add(new Fact(g.apply(a)));
+        predicateTable.add(new Rule(ff.apply(X), f.apply(X)));
+        predicateTable.add(new Rule(gg.apply(X), g.apply(X)));
+        final List<List<Term>> cheap = Arrays.asList(
+                Collections.singletonList(f.apply(a)), Collections.singletonList(g.apply(a)));
+        final List<List<Term>> expensive = Arrays.asList(
+                Collections.singletonList(ff.apply(a)), Collections.singletonList(gg.apply(a)));
+
+        Assert.assertEquals(Arrays.asList(f.apply(a), g.apply(a)),
+                AndParallelism.join(predicateTable, cheap, pool));
+        Assert.assertTrue(AndParallelism.join(predicateTable, expensive, pool).stream()
+                .allMatch(goal -> goal instanceof AndParallelism.JoinedGoal));
+    }
+
+    @Test
+    public void segmentsWithInfinitelyManyAnswersShouldBeJoinedLazily() {
+        final Functor nat = new Functor("nat");
+        final Functor s = new Functor("s");
+        final Functor r = new Functor("r");
+        final List<Clause> clauses = new ArrayList<>();
+        clauses.add(new Fact(nat.apply(new IntegerTerm(0))));
+        clauses.add(new Rule(nat.apply(s.apply(X)), nat.apply(X)));
+        clauses.add(new Fact(f.apply(a)));
+        clauses.add(new Rule(ff.apply(X), f.apply(X)));
+        clauses.add(new Rule(r.apply(Y), nat.apply(X), ff.apply(Y)));
+        final Reasoner parallel = parallel(clauses);
+
+        Assert.assertTrue(parallel.query(r.apply(a)).isPresent());
+        Assert.assertEquals(5, parallel.answers(r.apply(a)).limit(5).count());
+        Assert.assertFalse(parallel.query(r.apply(b)).isPresent());
+    }
+
+    private Reasoner parallel(List<Clause> clauses) {
+        final Reasoner reasoner = new Reasoner(clauses);
+        reasoner.searchInParallel(pool);
+        reasoner.proveIndependentGoalsInParallel(true);
+        return reasoner;
+    }
+}
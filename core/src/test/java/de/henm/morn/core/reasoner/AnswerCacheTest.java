@@ -0,0 +1,154 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import static de.henm.morn.core.model.Constant.a;
+import static de.henm.morn.core.model.Constant.b;
+import static de.henm.morn.core.model.Constant.c;
+import static de.henm.morn.core.model.L.EMPTY;
+import static de.henm.morn.core.model.L.list;
+import static de.henm.morn.core.model.Variable.W;
+import static de.henm.morn.core.model.Variable.X;
+import static de.henm.morn.core.model.Variable.Y;
+import static de.henm.morn.core.model.Variable.Z;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.Rule;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+
+/**
+ * @author henm
+ */
+public class AnswerCacheTest {
+
+    final Functor parent = new Functor("parent");
+    final Functor grandparent = new Functor("grandparent");
+    final Functor edge = new Functor("edge");
+
+    private PredicateTable predicateTable;
+    private AnswerCache cache;
+
+    @Before
+    public void setUp() {
+        this.predicateTable = new PredicateTable();
+        predicateTable.add(new Fact(parent.apply(a, b)));
+        predicateTable.add(new Fact(parent.apply(b, c)));
+        predicateTable.add(new Rule(grandparent.apply(X, Z), parent.apply(X, Y), parent.apply(Y, Z)));
+        predicateTable.add(new Fact(edge.apply(a, c)));
+        this.cache = new AnswerCache(predicateTable, 10);
+    }
+
+    @Test
+    public void variantsShouldShareTheirAnswers() {
+        final Variable p = new Variable("P");
+        final Variable q = new Variable("Q");
+
+        Assert.assertEquals("[{X=a, Y=c}]", answers(grandparent.apply(X, Y)).toString());
+        Assert.assertEquals("[{P=a, Q=c}]", answers(grandparent.apply(p, q)).toString());
+        Assert.assertEquals("[]", answers(grandparent.apply(p, p)).toString());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void variablesInValuesShouldBeRenamed() {
+        final Functor same = new Functor("same");
+        final Variable p = new Variable("P");
+        final Variable q = new Variable("Q");
+        predicateTable.add(new Fact(same.apply(Z, Z)));
+
+        Assert.assertEquals("[{Y=X}]", answers(same.apply(X, Y)).toString());
+        Assert.assertEquals("[{Q=P}]", answers(same.apply(p, q)).toString());
+    }
+
+    @Test
+    public void answersShouldBeEvaluatedAsTheyAreConsumed() {
+        final Functor append = new Functor("append");
+        predicateTable.add(new Fact(append.apply(EMPTY, X, X)));
+        predicateTable.add(new Rule(append.apply(list(X, Y), Z, list(X, W)), append.apply(Y, Z, W)));
+        final Term goal = append.apply(X, Y, Z);
+
+        // The goal has infinitely many answers
+        Assert.assertEquals(3, cache.answers(goal, this::evaluate).limit(3).count());
+        Assert.assertEquals(5, cache.answers(goal, this::evaluate).limit(5).count());
+        Assert.assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void changesShouldOnlyInvalidateDependentGoals() {
+        answers(grandparent.apply(a, X));
+        answers(parent.apply(a, X));
+        answers(edge.apply(a, X));
+
+        predicateTable.add(new Fact(parent.apply(c, a)));
+        cache.invalidate(PredicateKey.of(parent, 2));
+        Assert.assertEquals(2, cache.getInvalidations());
+        Assert.assertEquals(1, cache.size());
+
+        Assert.assertEquals("[{X=c}]", answers(edge.apply(a, X)).toString());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals("[{X=c}]", answers(grandparent.apply(a, X)).toString());
+        Assert.assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void goalsCallingVariablesShouldBeInvalidatedOnEveryChange() {
+        final Functor call = new Functor("call");
+        predicateTable.add(new Rule(call.apply(X), X));
+        answers(call.apply(edge.apply(a, Y)));
+
+        cache.invalidate(PredicateKey.of(new Functor("unrelated"), 1));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedGoalsShouldBeEvicted() {
+        cache = new AnswerCache(predicateTable, 2);
+        answers(parent.apply(a, X));
+        answers(parent.apply(b, X));
+        answers(parent.apply(a, Y));
+        answers(parent.apply(c, X));
+
+        Assert.assertEquals(1, cache.getEvictions());
+        answers(parent.apply(a, X));
+        Assert.assertEquals(2, cache.getHits());
+        answers(parent.apply(b, X));
+        Assert.assertEquals(4, cache.getMisses());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizeShouldBePositive() {
+        new AnswerCache(predicateTable, 0);
+    }
+
+    private List<Answer> answers(Term goal) {
+        return cache.answers(goal, this::evaluate).collect(Collectors.toList());
+    }
+
+    private Iterator<Answer> evaluate(Term goal) {
+        return new Reasoner(predicateTable).iterator(goal);
+    }
+}
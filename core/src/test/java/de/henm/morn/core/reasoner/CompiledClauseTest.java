@@ -0,0 +1,151 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import static de.henm.morn.core.model.Constant.a;
+import static de.henm.morn.core.model.Constant.b;
+import static de.henm.morn.core.model.Variable.X;
+import static de.henm.morn.core.model.Variable.Y;
+import static de.henm.morn.core.model.Variable.Z;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.L;
+import de.henm.morn.core.model.Rule;
+import de.henm.morn.core.model.Term;
+
+/**
+ * @author henm
+ */
+public class CompiledClauseTest {
+
+    final Functor f = new Functor("f");
+    final Functor g = new Functor("g");
+
+    private Bindings bindings;
+
+    @Before
+    public void setUp() {
+        this.bindings = new Bindings();
+    }
+
+    @Test
+    public void slotsShouldBeBoundToPartsOfTheGoal() {
+        final CompiledClause code = compile(new Rule(f.apply(X, Y), g.apply(Y, X)));
+        final Frame frame = new Frame(code.getTemplate(), bindings);
+
+        Assert.assertTrue(code.unifyHead(f.apply(a, b), frame, bindings));
+
+        final CompoundTerm body = (CompoundTerm) code.instantiateBody(frame).get(0);
+        Assert.assertEquals(g, body.getFunctor());
+        Assert.assertEquals(b, body.getArguments().get(0));
+        Assert.assertEquals(a, body.getArguments().get(1));
+        Assert.assertEquals(0, bindings.mark());
+    }
+
+    @Test
+    public void repeatedSlotsShouldBeUnified() {
+        final CompiledClause code = compile(new Fact(f.apply(X, X)));
+
+        Assert.assertTrue(code.unifyHead(f.apply(a, a), new Frame(code.getTemplate(), bindings), bindings));
+        Assert.assertFalse(code.unifyHead(f.apply(a, b), new Frame(code.getTemplate(), bindings), bindings));
+
+        final Ref y = bindings.newRef();
+        Assert.assertTrue(code.unifyHead(f.apply(y, b), new Frame(code.getTemplate(), bindings), bindings));
+        Assert.assertEquals(b, Bindings.deref(y));
+    }
+
+    @Test
+    public void slotsFilledByBindingAVariableShouldBeUnifiedLater() {
+        final CompiledClause code = compile(new Fact(f.apply(g.apply(X), X)));
+        final Ref y = bindings.newRef();
+
+        Assert.assertTrue(code.unifyHead(f.apply(y, b), new Frame(code.getTemplate(), bindings), bindings));
+
+        final Term resolved = bindings.resolve(y, Collections.emptyMap());
+        Assert.assertEquals(g, ((CompoundTerm) resolved).getFunctor());
+        Assert.assertEquals(b, ((CompoundTerm) resolved).getArguments().get(0));
+    }
+
+    @Test
+    public void kindsOfTermsShouldBeDistinguished() {
+        final CompiledClause code = compile(new Fact(f.apply(new IntegerTerm(1), L.list(a, X))));
+
+        Assert.assertTrue(code.unifyHead(f.apply(new IntegerTerm(1), L.list(a, b)),
+                new Frame(code.getTemplate(), bindings), bindings));
+        Assert.assertFalse(code.unifyHead(f.apply(new IntegerTerm(2), L.list(a, b)),
+                new Frame(code.getTemplate(), bindings), bindings));
+        Assert.assertFalse(code.unifyHead(f.apply(new IntegerTerm(1), L.EMPTY),
+                new Frame(code.getTemplate(), bindings), bindings));
+        Assert.assertFalse(code.unifyHead(f.apply(new IntegerTerm(1), g.apply(a)),
+                new Frame(code.getTemplate(), bindings), bindings));
+        Assert.assertFalse(code.unifyHead(g.apply(new IntegerTerm(1), L.list(a, b)),
+                new Frame(code.getTemplate(), bindings), bindings));
+    }
+
+    @Test
+    public void occursCheckShouldBeApplied() {
+        final CompiledClause code = compile(new Fact(f.apply(X, g.apply(X))));
+        final Ref y = bindings.newRef();
+
+        Assert.assertFalse(code.unifyHead(f.apply(y, y), new Frame(code.getTemplate(), bindings), bindings));
+    }
+
+    @Test
+    public void variablesOnlyInTheBodyShouldBeSharedBetweenGoals() {
+        final CompiledClause code = compile(new Rule(f.apply(X), g.apply(X, Z), g.apply(Z, a)));
+        final Frame frame = new Frame(code.getTemplate(), bindings);
+        Assert.assertTrue(code.unifyHead(f.apply(b), frame, bindings));
+
+        final List<Term> body = code.instantiateBody(frame);
+        final Term z = ((CompoundTerm) body.get(0)).getArguments().get(1);
+        Assert.assertTrue(z instanceof Ref);
+        Assert.assertSame(z, ((CompoundTerm) body.get(1)).getArguments().get(0));
+        Assert.assertSame(a, ((CompoundTerm) body.get(1)).getArguments().get(1));
+    }
+
+    @Test
+    public void deeplyNestedTemplatesShouldBeMatched() {
+        Term deep = X;
+        for (int i = 0; i < 2 * CompiledClause.MAX_DEPTH; i++) {
+            deep = new L(a, deep);
+        }
+        final CompiledClause code = compile(new Rule(f.apply(deep), g.apply(X, deep)));
+        final Frame frame = new Frame(code.getTemplate(), bindings);
+
+        final Ref y = bindings.newRef();
+        Term goal = y;
+        for (int i = 0; i < 2 * CompiledClause.MAX_DEPTH; i++) {
+            goal = new L(a, goal);
+        }
+        Assert.assertTrue(code.unifyHead(f.apply(goal), frame, bindings));
+        final CompoundTerm body = (CompoundTerm) code.instantiateBody(frame).get(0);
+        Assert.assertSame(y, Bindings.deref(body.getArguments().get(0)));
+    }
+
+    private CompiledClause compile(Clause clause) {
+        return CompiledClause.compile(ClauseTemplate.compile(clause));
+    }
+}
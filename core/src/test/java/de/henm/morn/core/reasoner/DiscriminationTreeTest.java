@@ -0,0 +1,125 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import static de.henm.morn.core.model.Constant.a;
+import static de.henm.morn.core.model.Constant.b;
+import static de.henm.morn.core.model.Constant.c;
+import static de.henm.morn.core.model.L.EMPTY;
+import static de.henm.morn.core.model.L.list;
+import static de.henm.morn.core.model.Variable.X;
+import static de.henm.morn.core.model.Variable.Y;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.Rule;
+import de.henm.morn.core.model.Term;
+
+/**
+ * @author henm
+ */
+public class DiscriminationTreeTest {
+
+    final Functor event = new Functor("event");
+    final Functor meta = new Functor("meta");
+    final Functor src = new Functor("src");
+    final Functor kind = new Functor("kind");
+
+    final Fact srcAKindB = new Fact(event.apply(meta.apply(src.apply(a), kind.apply(b)), c));
+    final Fact srcBKindB = new Fact(event.apply(meta.apply(src.apply(b), kind.apply(b)), c));
+    final Fact srcAKindA = new Fact(event.apply(meta.apply(src.apply(a), kind.apply(a)), c));
+    final Fact srcXKindA = new Fact(event.apply(meta.apply(X, kind.apply(a)), c));
+    final Rule anyMeta = new Rule(event.apply(meta.apply(X, Y), c), src.apply(X));
+
+    private DiscriminationTree tree;
+
+    @Before
+    public void setUp() {
+        this.tree = DiscriminationTree.EMPTY;
+        tree = tree.add(new ClauseEntry(srcAKindB, 0));
+        tree = tree.add(new ClauseEntry(anyMeta, 1));
+        tree = tree.add(new ClauseEntry(srcBKindB, 2));
+        tree = tree.add(new ClauseEntry(srcAKindA, 3));
+        tree = tree.add(new ClauseEntry(srcXKindA, 4));
+    }
+
+    @Test
+    public void lookupShouldFollowNestedStructure() {
+        Assert.assertEquals(Arrays.asList(srcAKindB, anyMeta),
+                clauses(tree, event.apply(meta.apply(src.apply(a), kind.apply(b)), X)));
+        Assert.assertEquals(Arrays.asList(srcAKindA, srcXKindA, anyMeta),
+                clauses(tree, event.apply(meta.apply(src.apply(a), kind.apply(a)), X)));
+    }
+
+    @Test
+    public void variablesInGoalShouldSkipSubterms() {
+        Assert.assertEquals(Arrays.asList(srcAKindB, srcBKindB, anyMeta),
+                clauses(tree, event.apply(meta.apply(X, kind.apply(b)), Y)));
+        Assert.assertEquals(Arrays.asList(srcAKindB, srcBKindB, srcAKindA, srcXKindA, anyMeta),
+                clauses(tree, event.apply(X, c)));
+    }
+
+    @Test
+    public void clausesWithDifferentShapeShouldBeExcluded() {
+        Assert.assertTrue(clauses(tree, event.apply(meta.apply(X, Y), a)).isEmpty());
+        Assert.assertTrue(clauses(tree, event.apply(src.apply(X), c)).isEmpty());
+    }
+
+    @Test
+    public void listsShouldBeDiscriminated() {
+        final Functor f = new Functor("f");
+        final Fact fEmpty = new Fact(f.apply(EMPTY));
+        final Fact fAB = new Fact(f.apply(list(a, b)));
+        final Fact fAX = new Fact(f.apply(list(a, X)));
+        DiscriminationTree listTree = DiscriminationTree.EMPTY;
+        listTree = listTree.add(new ClauseEntry(fEmpty, 0));
+        listTree = listTree.add(new ClauseEntry(fAB, 1));
+        listTree = listTree.add(new ClauseEntry(fAX, 2));
+
+        Assert.assertEquals(Arrays.asList(fAB, fAX), clauses(listTree, f.apply(list(a, b))));
+        Assert.assertEquals(Arrays.asList(fAX), clauses(listTree, f.apply(list(a, c))));
+        Assert.assertEquals(Arrays.asList(fEmpty), clauses(listTree, f.apply(EMPTY)));
+    }
+
+    @Test
+    public void changesShouldNotAffectTheOriginalTree() {
+        final ClauseEntry first = new ClauseEntry(srcAKindB, 0);
+        final ClauseEntry second = new ClauseEntry(srcBKindB, 1);
+        final DiscriminationTree original = DiscriminationTree.EMPTY.add(first).add(second);
+        final Term goal = event.apply(meta.apply(src.apply(a), kind.apply(b)), X);
+
+        final DiscriminationTree removed = original.remove(first);
+        final DiscriminationTree added = original.add(new ClauseEntry(anyMeta, 2));
+
+        Assert.assertTrue(clauses(removed, goal).isEmpty());
+        Assert.assertEquals(Arrays.asList(srcAKindB, anyMeta), clauses(added, goal));
+        Assert.assertEquals(Arrays.asList(srcAKindB), clauses(original, goal));
+        Assert.assertEquals(Arrays.asList(srcBKindB), clauses(removed, event.apply(X, Y)));
+        Assert.assertSame(removed, removed.remove(first));
+    }
+
+    private List<Clause> clauses(DiscriminationTree tree, Term goal) {
+        return tree.getEntries(goal).stream().map(ClauseEntry::getClause).collect(Collectors.toList());
+    }
+}
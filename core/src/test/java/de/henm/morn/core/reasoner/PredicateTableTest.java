@@ -0,0 +1,287 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import static de.henm.morn.core.model.Constant.a;
+import static de.henm.morn.core.model.Constant.b;
+import static de.henm.morn.core.model.Constant.c;
+import static de.henm.morn.core.model.Variable.X;
+import static de.henm.morn.core.model.Variable.Y;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.L;
+import de.henm.morn.core.model.Rule;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+
+/**
+ * @author henm
+ */
+public class PredicateTableTest {
+
+    final Functor f = new Functor("f");
+    final Functor g = new Functor("g");
+
+    private PredicateTable predicateTable;
+
+    @Before
+    public void setUp() {
+        this.predicateTable = new PredicateTable();
+    }
+
+    @Test
+    public void clausesShouldBePartitionedByFunctorAndArity() {
+        final Fact fa = new Fact(f.apply(a));
+        final Fact fab = new Fact(f.apply(a, b));
+        final Fact ga = new Fact(g.apply(a));
+        predicateTable.add(fa);
+        predicateTable.add(fab);
+        predicateTable.add(ga);
+
+        Assert.assertEquals(Arrays.asList(fa), predicateTable.getClauses(f.apply(X)));
+        Assert.assertEquals(Arrays.asList(fab), predicateTable.getClauses(f.apply(X, Y)));
+        Assert.assertEquals(Arrays.asList(ga), predicateTable.getClauses(g.apply(X)));
+        Assert.assertTrue(predicateTable.getClauses(g.apply(X, Y)).isEmpty());
+    }
+
+    @Test
+    public void factsShouldComeBeforeRules() {
+        final Rule rule = new Rule(f.apply(X), g.apply(X));
+        final Fact fa = new Fact(f.apply(a));
+        final Fact fb = new Fact(f.apply(b));
+        predicateTable.add(fa);
+        predicateTable.add(rule);
+        predicateTable.add(fb);
+
+        final List<Clause> clauses = predicateTable.getClauses(f.apply(X));
+        Assert.assertEquals(Arrays.asList(fa, fb, rule), clauses);
+    }
+
+    @Test
+    public void constantsShouldBePredicatesWithoutArguments() {
+        final Fact fact = new Fact(a);
+        predicateTable.add(fact);
+
+        Assert.assertEquals(Arrays.asList(fact), predicateTable.getClauses(a));
+        Assert.assertTrue(predicateTable.getClauses(b).isEmpty());
+    }
+
+    @Test
+    public void boundFirstArgumentShouldSelectMatchingClauses() {
+        final Fact fab = new Fact(f.apply(a, b));
+        final Fact fba = new Fact(f.apply(b, a));
+        final Rule rule = new Rule(f.apply(X, Y), g.apply(X, Y));
+        final Fact fxa = new Fact(f.apply(X, a));
+        final Fact fac = new Fact(f.apply(a, c));
+        predicateTable.add(fab);
+        predicateTable.add(fba);
+        predicateTable.add(rule);
+        predicateTable.add(fxa);
+        predicateTable.add(fac);
+
+        Assert.assertEquals(Arrays.asList(fab, fxa, fac, rule), predicateTable.getClauses(f.apply(a, Y)));
+        Assert.assertEquals(Arrays.asList(fba, fxa, rule), predicateTable.getClauses(f.apply(b, Y)));
+        Assert.assertEquals(Arrays.asList(fxa, rule), predicateTable.getClauses(f.apply(c, Y)));
+        Assert.assertEquals(Arrays.asList(fab, fba, fxa, fac, rule), predicateTable.getClauses(f.apply(X, Y)));
+    }
+
+    @Test
+    public void firstArgumentIndexShouldDistinguishIntegersListsAndCompoundTerms() {
+        final Fact f1 = new Fact(f.apply(new IntegerTerm(1)));
+        final Fact f2 = new Fact(f.apply(new IntegerTerm(2)));
+        final Fact fEmpty = new Fact(f.apply(L.EMPTY));
+        final Fact fList = new Fact(f.apply(L.list(a, b)));
+        final Fact fga = new Fact(f.apply(g.apply(a)));
+        predicateTable.add(f1);
+        predicateTable.add(f2);
+        predicateTable.add(fEmpty);
+        predicateTable.add(fList);
+        predicateTable.add(fga);
+
+        Assert.assertEquals(Arrays.asList(f2), predicateTable.getClauses(f.apply(new IntegerTerm(2))));
+        Assert.assertEquals(Arrays.asList(fEmpty), predicateTable.getClauses(f.apply(L.EMPTY)));
+        Assert.assertEquals(Arrays.asList(fList), predicateTable.getClauses(f.apply(new L(X, Y))));
+        Assert.assertEquals(Arrays.asList(fga), predicateTable.getClauses(f.apply(g.apply(X))));
+        Assert.assertTrue(predicateTable.getClauses(f.apply(g.apply(X, Y))).isEmpty());
+    }
+
+    @Test
+    public void repeatedlyExpensiveCallsShouldBuildIndexOnBoundArgument() {
+        final Functor edge = new Functor("edge");
+        final List<Fact> edges = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            edges.add(new Fact(edge.apply(new IntegerTerm(i), new IntegerTerm(i + 1))));
+            predicateTable.add(edges.get(i));
+        }
+        final Predicate predicate = predicateTable.getPredicate(PredicateKey.of(edge, 2));
+        Assert.assertEquals(1, predicate.getIndexes().size());
+
+        for (int i = 0; i < Predicate.EXPENSIVE_CALLS_BEFORE_INDEXING; i++) {
+            Assert.assertEquals(50, predicateTable.getClauses(edge.apply(X, new IntegerTerm(25))).size());
+        }
+
+        Assert.assertEquals(2, predicate.getIndexes().size());
+        Assert.assertEquals(Arrays.asList(edges.get(24)), predicateTable.getClauses(edge.apply(X, new IntegerTerm(25))));
+
+        // Indexes have to be updated when clauses are added
+        final Fact newEdge = new Fact(edge.apply(new IntegerTerm(99), new IntegerTerm(25)));
+        predicateTable.add(newEdge);
+        Assert.assertEquals(2, predicateTable.getClauses(edge.apply(X, new IntegerTerm(25))).size());
+        Assert.assertEquals(Arrays.asList(newEdge),
+                predicateTable.getClauses(edge.apply(new IntegerTerm(99), new IntegerTerm(25))));
+    }
+
+    @Test
+    public void combinationOfArgumentsShouldBeIndexedIfSingleArgumentsAreNotSelective() {
+        final List<Fact> facts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                facts.add(new Fact(f.apply(new IntegerTerm(i), new IntegerTerm(j))));
+                predicateTable.add(facts.get(facts.size() - 1));
+            }
+        }
+        final Predicate predicate = predicateTable.getPredicate(PredicateKey.of(f, 2));
+
+        for (int i = 0; i < Predicate.EXPENSIVE_CALLS_BEFORE_INDEXING; i++) {
+            predicateTable.getClauses(f.apply(new IntegerTerm(3), new IntegerTerm(4)));
+        }
+
+        Assert.assertTrue(predicate.getIndexes().stream()
+                .anyMatch(index -> Arrays.equals(new int[]{0, 1}, index.getPositions())));
+        Assert.assertEquals(Arrays.asList(facts.get(34)), predicateTable.getClauses(f.apply(new IntegerTerm(3), new IntegerTerm(4))));
+    }
+
+    @Test
+    public void argumentsBeyondTheCallPatternShouldNotBeIndexed() {
+        final int arity = 40;
+        final List<Fact> facts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final Term[] arguments = new Term[arity];
+            Arrays.fill(arguments, a);
+            arguments[0] = new IntegerTerm(i);
+            arguments[arity - 1] = new IntegerTerm(i % 2);
+            facts.add(new Fact(new WideTerm(f, arguments)));
+            predicateTable.add(facts.get(i));
+        }
+
+        final Term[] arguments = new Term[arity];
+        for (int i = 0; i < arity; i++) {
+            arguments[i] = new Variable("X" + i);
+        }
+        // Bit 32 of an int mask would be bit 0
+        arguments[32] = a;
+        arguments[arity - 1] = new IntegerTerm(1);
+        for (int i = 0; i <= Predicate.EXPENSIVE_CALLS_BEFORE_INDEXING; i++) {
+            Assert.assertEquals(20, predicateTable.getClauses(new WideTerm(f, arguments)).size());
+        }
+    }
+
+    @Test
+    public void nestedGoalsShouldBeResolvedWithDiscriminationTree() {
+        final Fact fga = new Fact(f.apply(g.apply(a), b));
+        final Fact fgb = new Fact(f.apply(g.apply(b), b));
+        predicateTable.add(fga);
+        predicateTable.add(fgb);
+        final Predicate predicate = predicateTable.getPredicate(PredicateKey.of(f, 2));
+
+        Assert.assertEquals(Arrays.asList(fga, fgb), predicateTable.getClauses(f.apply(g.apply(X), b)));
+        Assert.assertNull(predicate.getDiscriminationTree());
+
+        Assert.assertEquals(Arrays.asList(fgb), predicateTable.getClauses(f.apply(g.apply(b), Y)));
+        Assert.assertNotNull(predicate.getDiscriminationTree());
+
+        // New versions extend the tree instead of building it again
+        final Fact fgbc = new Fact(f.apply(g.apply(b), c));
+        predicateTable.add(fgbc);
+        Assert.assertNotNull(predicateTable.getPredicate(PredicateKey.of(f, 2)).getDiscriminationTree());
+        Assert.assertEquals(Arrays.asList(fgb, fgbc), predicateTable.getClauses(f.apply(g.apply(b), Y)));
+    }
+
+    @Test
+    public void removedClausesShouldNoLongerBeFound() {
+        final Fact fab = new Fact(f.apply(a, b));
+        final Fact fga = new Fact(f.apply(g.apply(a), b));
+        final Rule rule = new Rule(f.apply(X, Y), g.apply(X, Y));
+        predicateTable.add(fab);
+        predicateTable.add(fga);
+        predicateTable.add(rule);
+        Assert.assertEquals(Arrays.asList(fga, rule), predicateTable.getClauses(f.apply(g.apply(a), Y)));
+
+        Assert.assertTrue(predicateTable.remove(new Fact(f.apply(a, b))));
+        Assert.assertFalse(predicateTable.remove(new Fact(f.apply(a, b))));
+        Assert.assertTrue(predicateTable.remove(fga));
+        Assert.assertEquals(Arrays.asList(rule), predicateTable.getClauses(f.apply(a, Y)));
+        Assert.assertEquals(Arrays.asList(rule), predicateTable.getClauses(f.apply(g.apply(a), Y)));
+        Assert.assertEquals(Arrays.asList(rule), predicateTable.getClauses());
+    }
+
+    @Test
+    public void snapshotsShouldBeIsolatedFromChanges() {
+        final Fact fab = new Fact(f.apply(a, b));
+        final Fact fac = new Fact(f.apply(a, c));
+        predicateTable.add(fab);
+        predicateTable.table(PredicateKey.of(g, 1));
+        final PredicateTable snapshot = predicateTable.snapshot();
+
+        predicateTable.add(fac);
+        predicateTable.remove(fab);
+        snapshot.add(new Fact(g.apply(a)));
+
+        Assert.assertEquals(Arrays.asList(fab), snapshot.getClauses(f.apply(a, X)));
+        Assert.assertEquals(Arrays.asList(fac), predicateTable.getClauses(f.apply(a, X)));
+        Assert.assertTrue(predicateTable.getClauses(g.apply(X)).isEmpty());
+        Assert.assertTrue(snapshot.hasTabledPredicates());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void clausesWithListHeadsShouldBeRejected() {
+        predicateTable.add(new Fact(L.list(a, b)));
+    }
+
+    /**
+     * A compound term of any arity, the factory only builds small ones.
+     */
+    private static final class WideTerm implements CompoundTerm {
+        private final Functor functor;
+        private final List<Term> arguments;
+
+        private WideTerm(Functor functor, Term... arguments) {
+            this.functor = functor;
+            this.arguments = Arrays.asList(arguments.clone());
+        }
+
+        @Override
+        public Functor getFunctor() {
+            return functor;
+        }
+
+        @Override
+        public List<Term> getArguments() {
+            return arguments;
+        }
+    }
+}
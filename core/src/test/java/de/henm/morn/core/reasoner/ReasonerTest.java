@@ -15,7 +15,18 @@
 package de.henm.morn.core.reasoner;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -26,6 +37,8 @@ import de.henm.morn.core.model.CompoundTermFactory;
 import de.henm.morn.core.model.Constant;
 import de.henm.morn.core.model.Fact;
 import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.L;
+import de.henm.morn.core.model.Rule;
 import de.henm.morn.core.model.Term;
 import de.henm.morn.core.model.Variable;
 
@@ -88,10 +101,303 @@ public class ReasonerTest {
         Assert.assertTrue(familyReasoner.query(ctFactory.build(son, lot, haran)).isPresent());
     }
 
+    @Test
+    public void symbolsShouldBeMatchedByName() {
+        final Term query = ctFactory.build(new Functor("son"), new Constant("lot"), new Constant("haran"));
+        Assert.assertTrue(familyReasoner.query(query).isPresent());
+    }
+
     @Test
     public void reasonerShouldHandleQueriesWithVariables() {
         final Variable x = new Variable("X");
         Assert.assertTrue(familyReasoner.query(ctFactory.build(son, x, haran)).isPresent());
         Assert.assertFalse(familyReasoner.query(ctFactory.build(son, x, x)).isPresent());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void substitutionShouldContainBindingsOfQueryVariables() {
+        final Variable x = new Variable("X");
+        final Optional<Substitution> result = familyReasoner.query(ctFactory.build(son, x, haran));
+
+        Assert.assertTrue(result.isPresent());
+        Assert.assertEquals(lot, result.get().get(x).get());
+    }
+
+    @Test
+    public void reasonerShouldBacktrackIntoEarlierGoals() {
+        final Variable x = new Variable("X");
+        // father(haran, X) first yields lot, only milcah is female
+        final Optional<Substitution> result = familyReasoner.query(ctFactory.build(daughter, x, haran));
+
+        Assert.assertTrue(result.isPresent());
+        Assert.assertEquals(milcah, result.get().get(x).get());
+    }
+
+    @Test
+    public void allAnswersShouldBeEnumerated() {
+        final Variable x = new Variable("X");
+        final List<Term> children = familyReasoner.answers(ctFactory.build(father, haran, x))
+                .map(answer -> answer.get(x).get())
+                .collect(Collectors.toList());
+
+        Assert.assertEquals(Arrays.asList(lot, milcah, milcah), children);
+    }
+
+    @Test
+    public void answersShouldBeSearchedOnDemand() {
+        final Functor nat = new Functor("nat");
+        final Functor s = new Functor("s");
+        final Constant zero = new Constant("zero");
+        final Variable x = new Variable("X");
+        final List<Clause> clauses = new ArrayList<>();
+        clauses.add(new Fact(nat.apply(zero)));
+        clauses.add(nat.apply(s.apply(x)).entailed(nat.apply(x)));
+        final Reasoner reasoner = new Reasoner(clauses);
+
+        // There are infinitely many answers
+        final List<Answer> answers = reasoner.answers(nat.apply(x)).limit(3).collect(Collectors.toList());
+
+        Assert.assertEquals(3, answers.size());
+        Assert.assertEquals(zero, answers.get(0).get(x).get());
+        Assert.assertEquals("s(s(zero))", answers.get(2).get(x).get().toString());
+    }
+
+    @Test
+    public void iteratorShouldEndAfterLastAnswer() {
+        final Variable x = new Variable("X");
+        final Iterator<Answer> answers = familyReasoner.iterator(ctFactory.build(son, x, haran));
+
+        Assert.assertTrue(answers.hasNext());
+        Assert.assertEquals(lot, answers.next().get(x).get());
+        Assert.assertFalse(answers.hasNext());
+        Assert.assertFalse(familyReasoner.iterator(ctFactory.build(son, x, x)).hasNext());
+    }
+
+    @Test
+    public void conjunctionShouldStopAtFirstFailingGoal() {
+        final Constant p = new Constant("p");
+        final Constant loop = new Constant("loop");
+        final List<Clause> clauses = new ArrayList<>();
+        // loop never terminates, so it must not be called once male(haran) failed
+        clauses.add(new Rule(loop, loop));
+        clauses.add(new Rule(p, ctFactory.build(male, haran), loop));
+        clauses.add(new Fact(ctFactory.build(male, lot)));
+
+        Assert.assertFalse(new Reasoner(clauses).query(p).isPresent());
+    }
+
+    @Test
+    public void laterGoalsShouldSeeBindingsOfEarlierGoals() {
+        final Functor grandfather = new Functor("grandfather");
+        final Variable x = new Variable("X");
+        final Variable y = new Variable("Y");
+        final Variable z = new Variable("Z");
+        final PredicateTable predicateTable = new PredicateTable();
+        predicateTable.add(new Fact(ctFactory.build(father, abraham, isaac)));
+        predicateTable.add(new Fact(ctFactory.build(father, isaac, lot)));
+        predicateTable.add(new Fact(ctFactory.build(father, haran, milcah)));
+        predicateTable.add(ctFactory.build(grandfather, x, y)
+                .entailed(ctFactory.build(father, x, z), ctFactory.build(father, z, y)));
+        final Reasoner reasoner = new Reasoner(predicateTable);
+
+        final List<Answer> answers = new ArrayList<>();
+        reasoner.iterator(ctFactory.build(grandfather, abraham, y)).forEachRemaining(answers::add);
+
+        Assert.assertEquals(1, answers.size());
+        Assert.assertEquals(lot, answers.get(0).get(y).get());
+        Assert.assertFalse(reasoner.query(ctFactory.build(grandfather, haran, y)).isPresent());
+    }
+
+    @Test
+    public void recursionDepthShouldOnlyBeBoundedByHeap() {
+        final Functor append = new Functor("append");
+        final Functor last = new Functor("last");
+        final Variable x = new Variable("X");
+        final Variable y = new Variable("Y");
+        final Variable z = new Variable("Z");
+        final Variable w = new Variable("W");
+        final List<Clause> clauses = new ArrayList<>();
+        clauses.add(new Fact(append.apply(L.EMPTY, x, x)));
+        clauses.add(append.apply(new L(x, y), z, new L(x, w)).entailed(append.apply(y, z, w)));
+        clauses.add(new Fact(last.apply(new L(x, L.EMPTY), x)));
+        clauses.add(last.apply(new L(x, y), z).entailed(last.apply(y, z)));
+        final Reasoner reasoner = new Reasoner(clauses);
+
+        final int length = 50000;
+        final Term[] elements = new Term[length];
+        for (int i = 0; i < length; i++) {
+            elements[i] = new Constant("c" + i);
+        }
+        final L list = L.list(elements);
+
+        Assert.assertEquals(elements[length - 1], reasoner.query(last.apply(list, x)).get().get(x).get());
+
+        Term appended = reasoner.query(append.apply(list, L.list(abraham), x)).get().get(x).get();
+        for (int i = 0; i < length; i++) {
+            Assert.assertEquals(elements[i], ((L) appended).getHead());
+            appended = ((L) appended).getTail();
+        }
+        Assert.assertEquals(L.list(abraham).getHead(), ((L) appended).getHead());
+    }
+
+    @Test
+    public void queriesShouldRunInParallel() throws Exception {
+        final Functor append = new Functor("append");
+        final Variable x = new Variable("X");
+        final Variable y = new Variable("Y");
+        final Variable z = new Variable("Z");
+        final Variable w = new Variable("W");
+        final List<Clause> clauses = new ArrayList<>();
+        clauses.add(new Fact(append.apply(L.EMPTY, x, x)));
+        clauses.add(append.apply(new L(x, y), z, new L(x, w)).entailed(append.apply(y, z, w)));
+        final Reasoner reasoner = new Reasoner(clauses);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final Term[] elements = new Term[100 + i];
+                Arrays.fill(elements, new Constant("c" + i));
+                final L list = L.list(elements);
+                results.add(executor.submit(() -> {
+                    for (int j = 0; j < 50; j++) {
+                        final List<Answer> splits = reasoner.answers(append.apply(x, y, list))
+                                .collect(Collectors.toList());
+                        final Term copy = reasoner.query(append.apply(list, L.EMPTY, z)).get().get(z).get();
+                        if (splits.size() != elements.length + 1 || !list.toString().equals(copy.toString())) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelSearchShouldFindAnAnswerOfAnyAlternative() {
+        final Functor candidate = new Functor("candidate");
+        final Functor chosen = new Functor("chosen");
+        final Variable x = new Variable("X");
+        final List<Clause> clauses = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            clauses.add(new Fact(candidate.apply(new Constant("c" + i))));
+        }
+        clauses.add(chosen.apply(x).entailed(candidate.apply(x), ctFactory.build(male, x)));
+        clauses.add(chosen.apply(x).entailed(candidate.apply(x), ctFactory.build(female, x)));
+        clauses.add(chosen.apply(x).entailed(ctFactory.build(father, x, abraham)));
+        clauses.add(chosen.apply(x).entailed(ctFactory.build(father, abraham, x)));
+        clauses.add(new Fact(ctFactory.build(father, abraham, isaac)));
+        final Reasoner reasoner = new Reasoner(clauses);
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        reasoner.searchInParallel(pool);
+        try {
+            Assert.assertEquals(isaac, reasoner.query(chosen.apply(x)).get().get(x).get());
+            Assert.assertTrue(reasoner.query(chosen.apply(isaac)).isPresent());
+            Assert.assertFalse(reasoner.query(chosen.apply(abraham)).isPresent());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void firstAnswerShouldCancelParallelAlternatives() {
+        final Functor classify = new Functor("classify");
+        final Constant loop = new Constant("loop");
+        final Constant ok = new Constant("ok");
+        final Variable x = new Variable("X");
+        final List<Clause> clauses = new ArrayList<>();
+        clauses.add(new Rule(loop, loop));
+        for (int i = 0; i < 4; i++) {
+            // Sequentially the first of these would never return
+            clauses.add(classify.apply(x).entailed(loop));
+        }
+        final Functor good = new Functor("good");
+        clauses.add(classify.apply(x).entailed(good.apply(x)));
+        clauses.add(new Fact(good.apply(ok)));
+        final Reasoner reasoner = new Reasoner(clauses);
+
+        final ForkJoinPool pool = new ForkJoinPool(8);
+        reasoner.searchInParallel(pool);
+        try {
+            Assert.assertEquals(ok, reasoner.query(classify.apply(x)).get().get(x).get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void batchesShouldBeAnsweredAlignedWithTheGoals() {
+        final Functor grandson = new Functor("grandson");
+        final Variable x = new Variable("X");
+        final Variable y = new Variable("Y");
+        final Variable z = new Variable("Z");
+        final PredicateTable predicateTable = new PredicateTable();
+        predicateTable.add(new Fact(ctFactory.build(father, abraham, isaac)));
+        predicateTable.add(new Fact(ctFactory.build(father, isaac, lot)));
+        predicateTable.add(new Fact(ctFactory.build(male, lot)));
+        predicateTable.add(new Fact(ctFactory.build(male, isaac)));
+        predicateTable.add(ctFactory.build(grandson, x, y).entailed(
+                ctFactory.build(father, y, z), ctFactory.build(father, z, x), ctFactory.build(male, x)));
+        final Reasoner reasoner = new Reasoner(predicateTable);
+
+        final List<Term> goals = Arrays.asList(
+                ctFactory.build(grandson, lot, abraham),
+                ctFactory.build(male, milcah),
+                ctFactory.build(grandson, isaac, abraham),
+                ctFactory.build(male, lot),
+                ctFactory.build(grandson, lot, abraham),
+                ctFactory.build(grandson, x, abraham));
+        final BitSet expected = new BitSet();
+        expected.set(0);
+        expected.set(3);
+        expected.set(4);
+        expected.set(5);
+        Assert.assertEquals(expected, reasoner.queryAll(goals));
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        reasoner.searchInParallel(pool);
+        try {
+            final List<Term> batch = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                batch.addAll(goals);
+            }
+            final BitSet parallel = reasoner.queryAll(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                Assert.assertEquals(expected.get(i % goals.size()), parallel.get(i));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void cancellingAsynchronousQueriesShouldStopTheSearch() throws Exception {
+        final Constant loop = new Constant("loop");
+        final List<Clause> clauses = new ArrayList<>();
+        clauses.add(new Rule(loop, loop));
+        final Reasoner reasoner = new Reasoner(clauses);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Variable x = new Variable("X");
+            Assert.assertEquals(isaac, familyReasoner.queryAsync(ctFactory.build(son, x, abraham), executor)
+                    .get().get().get(x).get());
+            Assert.assertEquals(2, familyReasoner.answersAsync(ctFactory.build(daughter, milcah, x), executor)
+                    .get().size());
+
+            final CompletableFuture<Optional<Substitution>> future = reasoner.queryAsync(loop, executor);
+            Assert.assertTrue(future.cancel(true));
+            // The executor only has one thread, which is free again
+            Assert.assertTrue(executor.submit(() -> true).get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
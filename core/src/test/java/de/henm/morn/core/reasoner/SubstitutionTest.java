@@ -113,4 +113,47 @@ public class SubstitutionTest {
         Assert.assertEquals(b, innerList.getHead());
         Assert.assertEquals(EMPTY, innerList.getTail());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void chainsOfMappingsShouldBeResolved() {
+        final Variable z = new Variable("Z");
+        final Functor f = new Functor("f");
+        substitution.add(x, ctFactory.build(f, y));
+        substitution.add(y, z);
+        substitution.add(z, a);
+
+        Assert.assertEquals(a, substitution.get(y).get());
+        final CompoundTerm fa = (CompoundTerm) substitution.get(x).get();
+        Assert.assertEquals(f, fa.getFunctor());
+        Assert.assertEquals(a, fa.getArguments().get(0));
+    }
+
+    @Test
+    public void longChainsShouldBeResolved() {
+        Variable previous = x;
+        for (int i = 0; i < 10000; i++) {
+            final Variable next = new Variable("V" + i);
+            substitution.add(previous, next);
+            previous = next;
+        }
+        substitution.add(previous, a);
+
+        Assert.assertEquals(a, substitution.apply(x));
+        Assert.assertEquals(a, substitution.apply(previous));
+    }
+
+    @Test
+    public void mergeShouldNotChangeItsArguments() {
+        substitution.add(a, x);
+        final Substitution otherSubstitution = new Substitution();
+        otherSubstitution.add(b, y);
+
+        final Substitution mergedSubstitution = substitution.merge(otherSubstitution);
+        mergedSubstitution.add(x, y);
+
+        Assert.assertFalse(substitution.containsMappingFor(b));
+        Assert.assertFalse(otherSubstitution.containsMappingFor(a));
+        Assert.assertEquals(x, substitution.get(a).get());
+        Assert.assertEquals(y, mergedSubstitution.get(a).get());
+    }
+}
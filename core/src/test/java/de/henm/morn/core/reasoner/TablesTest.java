@@ -0,0 +1,251 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import static de.henm.morn.core.model.Constant.a;
+import static de.henm.morn.core.model.Constant.b;
+import static de.henm.morn.core.model.Constant.c;
+import static de.henm.morn.core.model.Variable.X;
+import static de.henm.morn.core.model.Variable.Y;
+import static de.henm.morn.core.model.Variable.Z;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.henm.morn.core.model.Constant;
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.Rule;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+
+/**
+ * @author henm
+ */
+public class TablesTest {
+
+    final Functor edge = new Functor("edge");
+    final Functor path = new Functor("path");
+    final Constant d = new Constant("d");
+
+    private PredicateTable predicateTable;
+
+    @Before
+    public void setUp() {
+        // A cycle a -> b -> c -> a and an edge leaving it to d
+        this.predicateTable = new PredicateTable();
+        predicateTable.add(new Fact(edge.apply(a, b)));
+        predicateTable.add(new Fact(edge.apply(b, c)));
+        predicateTable.add(new Fact(edge.apply(c, a)));
+        predicateTable.add(new Fact(edge.apply(c, d)));
+        predicateTable.table(PredicateKey.of(path, 2));
+    }
+
+    @Test
+    public void leftRecursionShouldTerminate() {
+        predicateTable.add(new Rule(path.apply(X, Y), path.apply(X, Z), edge.apply(Z, Y)));
+        predicateTable.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(a, b, c, d)), reachable(a));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(a, b, c, d)), reachable(b));
+        Assert.assertTrue(reachable(d).isEmpty());
+    }
+
+    @Test
+    public void rightRecursionOverCyclesShouldTerminate() {
+        predicateTable.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+        predicateTable.add(new Rule(path.apply(X, Y), edge.apply(X, Z), path.apply(Z, Y)));
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(a, b, c, d)), reachable(a));
+        Assert.assertEquals(12, new Reasoner(predicateTable).answers(path.apply(X, Y)).count());
+    }
+
+    @Test
+    public void mutuallyRecursivePredicatesShouldBeCompleted() {
+        final Functor even = new Functor("even");
+        final Functor odd = new Functor("odd");
+        predicateTable.table(PredicateKey.of(even, 2));
+        predicateTable.table(PredicateKey.of(odd, 2));
+        // Paths of even and odd length
+        predicateTable.add(new Rule(odd.apply(X, Y), edge.apply(X, Y)));
+        predicateTable.add(new Rule(odd.apply(X, Y), even.apply(X, Z), edge.apply(Z, Y)));
+        predicateTable.add(new Rule(even.apply(X, Y), odd.apply(X, Z), edge.apply(Z, Y)));
+
+        final Reasoner reasoner = new Reasoner(predicateTable);
+        Assert.assertEquals(0, reasoner.answers(odd.apply(d, Y)).count());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(c, b, a, d)),
+                reasoner.answers(odd.apply(a, Y)).map(answer -> answer.get(Y).get()).collect(Collectors.toSet()));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(c, b, a, d)),
+                reasoner.answers(even.apply(a, Y)).map(answer -> answer.get(Y).get()).collect(Collectors.toSet()));
+        // The tables are complete, asking again gives the same answers
+        Assert.assertEquals(4, reasoner.answers(odd.apply(a, Y)).count());
+    }
+
+    @Test
+    public void eachAnswerShouldBeFoundOnce() {
+        predicateTable.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+        predicateTable.add(new Rule(path.apply(X, Y), path.apply(X, Z), path.apply(Z, Y)));
+
+        Assert.assertEquals(4, new Reasoner(predicateTable).answers(path.apply(a, Y)).count());
+        Assert.assertTrue(new Reasoner(predicateTable).query(path.apply(a, d)).isPresent());
+        Assert.assertFalse(new Reasoner(predicateTable).query(path.apply(d, a)).isPresent());
+    }
+
+    @Test
+    public void addingClausesShouldInvalidateTables() {
+        predicateTable.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+        predicateTable.add(new Rule(path.apply(X, Y), path.apply(X, Z), edge.apply(Z, Y)));
+        Assert.assertTrue(reachable(d).isEmpty());
+
+        final Constant e = new Constant("e");
+        predicateTable.add(new Fact(edge.apply(d, e)));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(e)), reachable(d));
+    }
+
+    @Test
+    public void snapshotsShouldShareCompleteTables() {
+        predicateTable.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+        predicateTable.add(new Rule(path.apply(X, Y), path.apply(X, Z), edge.apply(Z, Y)));
+
+        final List<ClauseEntry> answers = predicateTable.snapshot().getTables().getAnswers(path.apply(a, Y));
+        Assert.assertEquals(4, answers.size());
+        Assert.assertSame(answers, predicateTable.snapshot().getTables().getAnswers(path.apply(a, X)));
+        Assert.assertSame(answers, predicateTable.getTables().getAnswers(path.apply(a, Y)));
+    }
+
+    @Test
+    public void snapshotsOfOtherClausesShouldNotShareTables() {
+        predicateTable.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+        predicateTable.add(new Rule(path.apply(X, Y), path.apply(X, Z), edge.apply(Z, Y)));
+        final PredicateTable before = predicateTable.snapshot();
+
+        final Constant e = new Constant("e");
+        predicateTable.add(new Fact(edge.apply(d, e)));
+        // The old snapshot completes its table after the change
+        Assert.assertTrue(before.getTables().getAnswers(path.apply(d, Y)).isEmpty());
+        Assert.assertEquals(1, predicateTable.snapshot().getTables().getAnswers(path.apply(d, Y)).size());
+        Assert.assertTrue(before.snapshot().getTables().getAnswers(path.apply(d, Y)).isEmpty());
+    }
+
+    @Test
+    public void answersWithVariablesShouldBeTabled() {
+        final Functor same = new Functor("same");
+        predicateTable.table(PredicateKey.of(same, 2));
+        predicateTable.add(new Fact(same.apply(X, X)));
+
+        final Variable w = new Variable("W");
+        final Answer answer = new Reasoner(predicateTable).answers(same.apply(new IntegerTerm(1), w))
+                .findFirst().get();
+        Assert.assertEquals(1, ((IntegerTerm) answer.get(w).get()).getValue());
+        Assert.assertEquals(1, new Reasoner(predicateTable).answers(same.apply(Y, Z)).count());
+    }
+
+    @Test(timeout = 10000)
+    public void groundRecursiveCallsShouldBeResolvedWithTheirTable() {
+        // The body shares the term p(c) with the template of the clause
+        final Functor p = new Functor("p");
+        predicateTable.table(PredicateKey.of(p, 1));
+        predicateTable.add(new Rule(p.apply(X), p.apply(c)));
+
+        final Reasoner reasoner = new Reasoner(predicateTable);
+        Assert.assertFalse(reasoner.query(p.apply(c)).isPresent());
+        Assert.assertEquals(0, reasoner.answers(p.apply(Y)).count());
+        Assert.assertEquals(0, new Reasoner(predicateTable.snapshot()).answers(p.apply(Y)).count());
+    }
+
+    @Test(timeout = 10000)
+    public void groundRecursiveCallsInLongerBodiesShouldBeResolvedWithTheirTable() {
+        final Functor p = new Functor("p");
+        final Functor e = new Functor("e");
+        final Variable w = new Variable("W");
+        predicateTable.table(PredicateKey.of(p, 2));
+        predicateTable.add(new Fact(e.apply(c, c)));
+        predicateTable.add(new Rule(p.apply(Z, w), p.apply(c, b), e.apply(b, w), e.apply(Z, w)));
+
+        Assert.assertEquals(0, new Reasoner(predicateTable.snapshot()).answers(p.apply(X, Y)).count());
+        final Reasoner reasoner = new Reasoner(predicateTable);
+        Assert.assertFalse(reasoner.query(p.apply(c, b)).isPresent());
+        Assert.assertEquals(0, reasoner.answers(p.apply(X, Y)).count());
+    }
+
+    @Test(timeout = 10000)
+    public void callsWithinAComponentShouldConsumeTheAnswersFoundSoFar() {
+        // Each call of an incomplete table used to evaluate it again, which
+        // took exponential time
+        final Functor p = new Functor("p");
+        final Functor f = new Functor("f");
+        final Variable w = new Variable("W");
+        predicateTable.table(PredicateKey.of(p, 2));
+        predicateTable.add(new Fact(f.apply(a, a)));
+        predicateTable.add(new Fact(f.apply(a, b)));
+        predicateTable.add(new Fact(f.apply(a, c)));
+        predicateTable.add(new Fact(f.apply(a, d)));
+        predicateTable.add(new Rule(p.apply(X, X), f.apply(Y, X)));
+        predicateTable.add(new Rule(p.apply(w, X), p.apply(w, Z), p.apply(X, Y), p.apply(Y, X)));
+
+        Assert.assertEquals(16, new Reasoner(predicateTable).answers(p.apply(X, Y)).count());
+    }
+
+    @Test(timeout = 10000)
+    public void leftRecursionOverLongCyclesShouldTerminateQuickly() {
+        final int length = 200;
+        for (int i = 0; i < length; i++) {
+            predicateTable.add(new Fact(edge.apply(new IntegerTerm(i), new IntegerTerm((i + 1) % length))));
+        }
+        predicateTable.add(new Rule(path.apply(X, Y), path.apply(X, Z), edge.apply(Z, Y)));
+        predicateTable.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+
+        Assert.assertEquals(length, reachable(new IntegerTerm(0)).size());
+        Assert.assertEquals(length * length + 12, new Reasoner(predicateTable).answers(path.apply(X, Y)).count());
+    }
+
+    @Test
+    public void longChainsShouldNotOverflowTheStack() {
+        // Every node of the chain is a variant which depends on the next one
+        final int length = 10000;
+        for (int i = 0; i < length; i++) {
+            predicateTable.add(new Fact(edge.apply(new IntegerTerm(i), new IntegerTerm(i + 1))));
+        }
+        predicateTable.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+        predicateTable.add(new Rule(path.apply(X, Y), edge.apply(X, Z), path.apply(Z, Y)));
+
+        final Reasoner reasoner = new Reasoner(predicateTable);
+        Assert.assertTrue(reasoner.query(path.apply(new IntegerTerm(0), new IntegerTerm(length))).isPresent());
+        Assert.assertFalse(reasoner.query(path.apply(new IntegerTerm(1), new IntegerTerm(0))).isPresent());
+    }
+
+    @Test
+    public void variantsShouldHaveEqualKeys() {
+        Assert.assertEquals(Tables.keyOf(path.apply(X, Y)), Tables.keyOf(path.apply(Y, Z)));
+        Assert.assertEquals(Tables.keyOf(path.apply(a, X)), Tables.keyOf(path.apply(a, Y)));
+        Assert.assertNotEquals(Tables.keyOf(path.apply(X, X)), Tables.keyOf(path.apply(X, Y)));
+        Assert.assertNotEquals(Tables.keyOf(path.apply(a, X)), Tables.keyOf(path.apply(b, X)));
+        Assert.assertNotEquals(Tables.keyOf(edge.apply(new IntegerTerm(0), X)), Tables.keyOf(edge.apply(X, Y)));
+    }
+
+    private Set<Term> reachable(Term from) {
+        return new Reasoner(predicateTable).answers(path.apply(from, Y))
+                .map(answer -> answer.get(Y).get())
+                .collect(Collectors.toSet());
+    }
+}
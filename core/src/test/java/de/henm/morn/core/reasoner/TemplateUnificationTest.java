@@ -0,0 +1,136 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.reasoner;
+
+import static de.henm.morn.core.model.Constant.a;
+import static de.henm.morn.core.model.Constant.b;
+import static de.henm.morn.core.model.Variable.X;
+import static de.henm.morn.core.model.Variable.Y;
+import static de.henm.morn.core.model.Variable.Z;
+
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.henm.morn.core.model.CompoundTerm;
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.Rule;
+import de.henm.morn.core.model.Term;
+
+/**
+ * @author henm
+ */
+public class TemplateUnificationTest {
+
+    final Functor f = new Functor("f");
+    final Functor g = new Functor("g");
+
+    private final TemplateUnification templateUnification;
+    private Bindings bindings;
+
+    public TemplateUnificationTest() {
+        this.templateUnification = new TemplateUnification();
+    }
+
+    @Before
+    public void setUp() {
+        this.bindings = new Bindings();
+    }
+
+    @Test
+    public void variablesShouldBeNumberedByFirstOccurrence() {
+        final ClauseTemplate template = ClauseTemplate.compile(new Rule(f.apply(X, Y), g.apply(Y, Z, X)));
+
+        Assert.assertEquals(3, template.getNumberOfSlots());
+        final CompoundTerm head = (CompoundTerm) template.getHead();
+        final CompoundTerm body = (CompoundTerm) template.getBody().get(0);
+        Assert.assertEquals(0, ((Slot) head.getArguments().get(0)).getIndex());
+        Assert.assertEquals(1, ((Slot) head.getArguments().get(1)).getIndex());
+        Assert.assertEquals(1, ((Slot) body.getArguments().get(0)).getIndex());
+        Assert.assertEquals(2, ((Slot) body.getArguments().get(1)).getIndex());
+        Assert.assertEquals(0, ((Slot) body.getArguments().get(2)).getIndex());
+    }
+
+    @Test
+    public void slotsShouldBeBoundToPartsOfTheGoal() {
+        final ClauseTemplate template = ClauseTemplate.compile(new Rule(f.apply(X, Y), g.apply(Y, X)));
+        final Frame frame = new Frame(template, bindings);
+
+        Assert.assertTrue(templateUnification.unify(f.apply(a, b), template.getHead(), frame, bindings));
+
+        final CompoundTerm body = (CompoundTerm) frame.instantiate(template.getBody().get(0));
+        Assert.assertEquals(b, body.getArguments().get(0));
+        Assert.assertEquals(a, body.getArguments().get(1));
+        Assert.assertEquals(0, bindings.mark());
+    }
+
+    @Test
+    public void repeatedSlotsShouldBeUnified() {
+        final ClauseTemplate template = ClauseTemplate.compile(new Fact(f.apply(X, X)));
+
+        Assert.assertTrue(templateUnification.unify(f.apply(a, a), template.getHead(),
+                new Frame(template, bindings), bindings));
+        Assert.assertFalse(templateUnification.unify(f.apply(a, b), template.getHead(),
+                new Frame(template, bindings), bindings));
+
+        final Ref y = bindings.newRef();
+        Assert.assertTrue(templateUnification.unify(f.apply(y, b), template.getHead(),
+                new Frame(template, bindings), bindings));
+        Assert.assertEquals(b, Bindings.deref(y));
+    }
+
+    @Test
+    public void variablesOfTheGoalShouldBeBoundToInstantiatedTemplateTerms() {
+        final ClauseTemplate template = ClauseTemplate.compile(new Fact(f.apply(g.apply(X), X)));
+        final Ref y = bindings.newRef();
+
+        Assert.assertTrue(templateUnification.unify(f.apply(y, b), template.getHead(),
+                new Frame(template, bindings), bindings));
+
+        final Term resolved = bindings.resolve(y, Collections.emptyMap());
+        Assert.assertTrue(resolved instanceof CompoundTerm);
+        Assert.assertEquals(g, ((CompoundTerm) resolved).getFunctor());
+        Assert.assertEquals(b, ((CompoundTerm) resolved).getArguments().get(0));
+    }
+
+    @Test
+    public void occursCheckShouldBeApplied() {
+        final ClauseTemplate template = ClauseTemplate.compile(new Fact(f.apply(X, g.apply(X))));
+        final Ref y = bindings.newRef();
+
+        Assert.assertFalse(templateUnification.unify(f.apply(y, y), template.getHead(),
+                new Frame(template, bindings), bindings));
+    }
+
+    @Test
+    public void undoShouldReleaseBindings() {
+        final ClauseTemplate template = ClauseTemplate.compile(new Fact(f.apply(a, b)));
+        final Ref x = bindings.newRef();
+        final Ref y = bindings.newRef();
+
+        final int mark = bindings.mark();
+        Assert.assertTrue(templateUnification.unify(f.apply(x, y), template.getHead(),
+                new Frame(template, bindings), bindings));
+        Assert.assertEquals(a, Bindings.deref(x));
+        Assert.assertEquals(b, Bindings.deref(y));
+
+        bindings.undo(mark);
+        Assert.assertEquals(x, Bindings.deref(x));
+        Assert.assertEquals(y, Bindings.deref(y));
+    }
+}
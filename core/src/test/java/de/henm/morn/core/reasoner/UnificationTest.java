@@ -43,6 +43,17 @@ public class UnificationTest {
         Assert.assertFalse(unification.unify(a, b).termsUnify());
     }
 
+    @Test
+    public void unificationShouldHandleSymbolsWithEqualNames() {
+        final Functor f = new Functor("f");
+        final Term fa = compoundTermFactory.build(f, new Constant("a"));
+        final Term otherFa = compoundTermFactory.build(new Functor("f"), new Constant("a"));
+
+        Assert.assertTrue(unification.unify(new Constant("a"), new Constant("a")).termsUnify());
+        Assert.assertTrue(unification.unify(fa, otherFa).termsUnify());
+        Assert.assertFalse(unification.unify(fa, compoundTermFactory.build(f, new Constant("b"))).termsUnify());
+    }
+
     @Test
     public void unificationShouldHandleVariables() {
         final Constant a = new Constant("a");
@@ -0,0 +1,226 @@
+/**
+ * Copyright 2017-present henm
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.henm.morn.core.wam;
+
+import static de.henm.morn.core.model.Constant.a;
+import static de.henm.morn.core.model.Constant.b;
+import static de.henm.morn.core.model.Constant.c;
+import static de.henm.morn.core.model.L.EMPTY;
+import static de.henm.morn.core.model.L.list;
+import static de.henm.morn.core.model.Variable.W;
+import static de.henm.morn.core.model.Variable.X;
+import static de.henm.morn.core.model.Variable.Y;
+import static de.henm.morn.core.model.Variable.Z;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.henm.morn.core.model.Clause;
+import de.henm.morn.core.model.Constant;
+import de.henm.morn.core.model.Fact;
+import de.henm.morn.core.model.Functor;
+import de.henm.morn.core.model.IntegerTerm;
+import de.henm.morn.core.model.L;
+import de.henm.morn.core.model.PredicateFunctor;
+import de.henm.morn.core.model.Rule;
+import de.henm.morn.core.model.Term;
+import de.henm.morn.core.model.Variable;
+import de.henm.morn.core.reasoner.Answer;
+import de.henm.morn.core.reasoner.Reasoner;
+
+/**
+ * @author henm
+ */
+public class WamProgramTest {
+
+    final Functor f = new Functor("f");
+    final Functor g = new Functor("g");
+    final Functor append = new Functor("append");
+
+    private List<Clause> clauses;
+
+    @Before
+    public void setUp() {
+        this.clauses = new ArrayList<>();
+        clauses.add(new Fact(append.apply(EMPTY, X, X)));
+        clauses.add(append.apply(new L(X, Y), Z, new L(X, W)).entailed(append.apply(Y, Z, W)));
+    }
+
+    @Test
+    public void factsShouldBeFound() {
+        final WamProgram program = new WamProgram(Arrays.asList(new Fact(f.apply(a, b)), new Fact(a)));
+
+        Assert.assertTrue(program.query(f.apply(a, b)));
+        Assert.assertTrue(program.query(f.apply(X, b)));
+        Assert.assertTrue(program.query(a));
+        Assert.assertFalse(program.query(f.apply(b, a)));
+        Assert.assertFalse(program.query(b));
+        Assert.assertFalse(program.query(g.apply(a)));
+    }
+
+    @Test
+    public void removedFactsShouldNoLongerBeFound() {
+        final WamProgram program = new WamProgram(Arrays.asList(new Fact(f.apply(a, b)), new Fact(f.apply(b, a))));
+        Assert.assertTrue(program.query(f.apply(a, b)));
+
+        Assert.assertTrue(program.remove(new Fact(f.apply(a, b))));
+        Assert.assertFalse(program.remove(new Fact(f.apply(a, b))));
+        Assert.assertFalse(program.query(f.apply(a, b)));
+        Assert.assertTrue(program.query(f.apply(b, X)));
+
+        Assert.assertTrue(program.remove(new Fact(f.apply(b, a))));
+        Assert.assertFalse(program.query(f.apply(X, Y)));
+    }
+
+    @Test
+    public void answersShouldBindQueryVariables() {
+        final WamProgram program = new WamProgram(clauses);
+
+        final List<Answer> answers = program.answers(append.apply(X, Y, list(a, b))).collect(Collectors.toList());
+
+        Assert.assertEquals(3, answers.size());
+        Assert.assertEquals(EMPTY, answers.get(0).get(X).get());
+        Assert.assertEquals("[a, [b, []]]", answers.get(0).get(Y).get().toString());
+        Assert.assertEquals("[a, []]", answers.get(1).get(X).get().toString());
+        Assert.assertEquals("[a, [b, []]]", answers.get(2).get(X).get().toString());
+        Assert.assertEquals(EMPTY, answers.get(2).get(Y).get());
+    }
+
+    @Test
+    public void answersShouldEqualThoseOfTheReasoner() {
+        final Functor edge = new Functor("edge");
+        final Functor path = new Functor("path");
+        final Constant d = new Constant("d");
+        clauses.add(new Fact(edge.apply(a, b)));
+        clauses.add(new Fact(edge.apply(b, c)));
+        clauses.add(new Fact(edge.apply(b, d)));
+        clauses.add(new Fact(edge.apply(new IntegerTerm(1), g.apply(a))));
+        clauses.add(new Rule(path.apply(X, Y), edge.apply(X, Y)));
+        clauses.add(new Rule(path.apply(X, Y), edge.apply(X, Z), path.apply(Z, Y)));
+        clauses.add(new Fact(f.apply(X, g.apply(X))));
+        clauses.add(new Fact(f.apply(list(X, Y), Y)));
+
+        final WamProgram program = new WamProgram(clauses);
+        final Reasoner reasoner = new Reasoner(clauses);
+        for (Term query : Arrays.asList(
+                path.apply(X, Y), path.apply(a, Y), path.apply(X, d), path.apply(c, X),
+                edge.apply(new IntegerTerm(1), X), edge.apply(X, g.apply(Y)),
+                f.apply(list(a, b), X), f.apply(g.apply(b), X),
+                append.apply(X, list(c), list(a, b, c)))) {
+            Assert.assertEquals(query.toString(), answers(reasoner.answers(query).collect(Collectors.toList())),
+                    answers(program.answers(query).collect(Collectors.toList())));
+        }
+    }
+
+    @Test
+    public void occursCheckShouldBeApplied() {
+        clauses.add(new Fact(f.apply(X, g.apply(X))));
+        clauses.add(new Fact(g.apply(X, list(a, X))));
+        final WamProgram program = new WamProgram(clauses);
+
+        Assert.assertFalse(program.query(f.apply(Y, Y)));
+        Assert.assertFalse(program.query(g.apply(Y, Y)));
+        Assert.assertFalse(program.query(append.apply(list(a), X, X)));
+    }
+
+    @Test
+    public void builtinsShouldCompareIntegers() {
+        final Functor min = new Functor("min");
+        final PredicateFunctor leq = new PredicateFunctor((x, y) -> x <= y);
+        final PredicateFunctor greater = new PredicateFunctor((x, y) -> x > y);
+        clauses.add(new Rule(min.apply(X, Y, X), leq.apply(X, Y)));
+        clauses.add(new Rule(min.apply(X, Y, Y), greater.apply(X, Y)));
+        final WamProgram program = new WamProgram(clauses);
+
+        Assert.assertEquals("1", program.answers(min.apply(new IntegerTerm(1), new IntegerTerm(2), Z))
+                .findFirst().get().get(Z).get().toString());
+        Assert.assertEquals("2", program.answers(min.apply(new IntegerTerm(3), new IntegerTerm(2), Z))
+                .findFirst().get().get(Z).get().toString());
+        Assert.assertTrue(program.query(leq.apply(new IntegerTerm(1), new IntegerTerm(1))));
+        Assert.assertFalse(program.query(leq.apply(a, new IntegerTerm(1))));
+    }
+
+    @Test
+    public void clausesAddedLaterShouldBeFound() {
+        final WamProgram program = new WamProgram(clauses);
+        Assert.assertFalse(program.query(f.apply(a)));
+
+        program.add(new Fact(f.apply(a)));
+        Assert.assertTrue(program.query(f.apply(a)));
+        Assert.assertFalse(program.query(f.apply(b)));
+
+        program.add(new Rule(f.apply(X), g.apply(X)));
+        program.add(new Fact(g.apply(b)));
+        Assert.assertTrue(program.query(f.apply(b)));
+    }
+
+    @Test
+    public void manyQueriesShouldNotGrowTheProgram() {
+        final WamProgram program = new WamProgram(clauses);
+        for (int i = 0; i < 10000; i++) {
+            Assert.assertTrue(program.query(append.apply(list(a), list(b), X)));
+        }
+    }
+
+    @Test
+    public void longListsShouldNotOverflowTheStack() {
+        final Functor last = new Functor("last");
+        clauses.add(new Fact(last.apply(new L(X, EMPTY), X)));
+        clauses.add(last.apply(new L(X, Y), Z).entailed(last.apply(Y, Z)));
+        final WamProgram program = new WamProgram(clauses);
+
+        final int length = 100000;
+        final Term[] elements = new Term[length];
+        for (int i = 0; i < length; i++) {
+            elements[i] = new IntegerTerm(i);
+        }
+        final L list = L.list(elements);
+
+        Assert.assertEquals("99999", program.answers(last.apply(list, X)).findFirst().get().get(X).get().toString());
+
+        Term appended = program.answers(append.apply(list, list(a), X)).findFirst().get().get(X).get();
+        for (int i = 0; i < length; i++) {
+            appended = ((L) appended).getTail();
+        }
+        Assert.assertEquals(a, ((L) appended).getHead());
+    }
+
+    @Test
+    public void unboundVariablesShouldBeNamedAfterQueryVariables() {
+        clauses.add(new Fact(f.apply(X, X, Y)));
+        final WamProgram program = new WamProgram(clauses);
+
+        final Answer answer = program.answers(f.apply(Z, g.apply(W), Y)).findFirst().get();
+
+        Assert.assertEquals("g(W)", answer.get(Z).get().toString());
+        Assert.assertFalse(answer.get(W).isPresent());
+        Assert.assertFalse(answer.get(Y).isPresent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void clausesWithListHeadsShouldBeRejected() {
+        new WamProgram().add(new Fact(list(a, b)));
+    }
+
+    private static List<String> answers(List<Answer> answers) {
+        return answers.stream().map(Answer::toString).collect(Collectors.toList());
+    }
+}